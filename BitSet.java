@@ -48,6 +48,7 @@ final public class BitSet extends Program
    {int            bitSize = 1;                                                                                         // Number of bits in the bit set.
     boolean      immediate = true;                                                                                      // Immediate mode execution by default
     boolean     trackCount = true;                                                                                      // Track the count of number of bits set to one
+    boolean       encoders = false;                                                                                     // Locate bits with a priority encoder in the memory module in one cycle rather than by walking the ones and zeros trees which need less area
     Program         parent = null;                                                                                      // Parent program whose code is to be written into.
     Memory.Ref   memoryRef = null;                                                                                      // Program memory to be used
 
@@ -56,6 +57,7 @@ final public class BitSet extends Program
     Build     count (boolean Count)              {trackCount = Count;     return this;}                                 // Maintain a count field to make retrieval of the count an O(1) operation
     Build    memory (Program.Memory.Ref Ref)     { memoryRef = Ref;       return this;}                                 // Memory for bitset
     Build    parent (Program Parent)             {    parent = Parent;    return this;}                                 // Parent program for code
+    Build  encoders (boolean Encoders)           {  encoders = Encoders;  return this;}                                 // Locate bits with priority encoders
 
     int units()                                                                                                         // Units needed for the bitset, the bitset trees and the count field
      {final int s = Memory.bitsPerUnit();
@@ -163,7 +165,7 @@ final public class BitSet extends Program
    {subStart     ("Bitset.setBitNC_IB");
     final String f = "%8d setBitNC_IB writeBool = %8d";
     new I()                                                                                                             // Set target boolean directly
-     {void   a() {memoryRef.m.writeBit = B;                                 jTrace(f(f,  currentPc(), B ?  1  :  0));}
+     {void   a() {memoryRef.m.writeBit = B;                                 jTrace(  f,  currentPc(), B ?  1  :  0);}
       String v() {return memoryRef.m.vWriteBit() + " <= " + (B ? 1 : 0)+";"+vTrace(  f, "pc",         B ? "1" : "0");}
      };
     memoryRef.putBit(Index, null);                                                                                      // Save target boolean into memory
@@ -318,7 +320,7 @@ final public class BitSet extends Program
   Int      heightOne (Int Pos) {subStart("Bitset.heightOne");      final Int r = new Int("one  height" );      r.T(); Pos.S(); new I() {void a() {jt(r, heightOne      [sourceInt()]);} String v() {return vt(r, hoArray );}};      r.W(); subFinish(); return r;} // Height of the specified position in the ones tree
   Int     heightZero (Int Pos) {subStart("Bitset.heightZero");     final Int r = new Int("zero height");       r.T(); Pos.S(); new I() {void a() {jt(r, heightZero     [sourceInt()]);} String v() {return vt(r, hzArray );}};      r.W(); subFinish(); return r;} // Height of the specified position in the zeros tree
 
-  void   jt (Int R, int    I)              {                   targetInt(I); R.setValid();                          jTrace(f("%8d "+R.name+" = %8d", currentPc(), I));}                   // Java trace of array look ups
+  void   jt (Int R, int    I)              {                   targetInt(I); R.setValid();                          jTrace(  "%8d "+R.name+" = %8d", currentPc(), I);}                    // Java trace of array look ups
   String vt (Int R, VerilogArrays.Array A) {return intMemory().vWriteInt() + " <= " + A.dataRegisterName() + "; " + vTrace(  "%8d "+R.name+" = %8d", "pc",        A.dataRegisterName());} // Java trace of array look ups
 
   int       pos_zero (int Pos)                                                                                          // Position in the indicated row of the zeros tree
@@ -390,6 +392,7 @@ final public class BitSet extends Program
    {subStart("Bitset.lowOne");
     checkInActualOrOnes(Pos);
     if (immediate() && getBitNC(Pos).flip().b()) stop("Cannot go low from Pos:", Pos, this);                            // We can only step down from a one in the ones tree
+    if (immediate()) {subFinish(); return new Int(scanUp(posOne[Pos.i()] << heightOne[Pos.i()], true));}                // Scan the actual bits below the subtree a unit at a time
     final Int p = new Int(Pos);                                                                                         // Position in ones tree
     new ForCount(heightOne(Pos))                                                                                        // Step down through the ones tree to reach the actual bits
      {void body(Int Index)
@@ -408,6 +411,7 @@ final public class BitSet extends Program
    {subStart("Bitset.highOne");
     checkInActualOrOnes(Pos);
     if (immediate() && getBitNC(Pos).flip().b()) stop("Cannot go high from Pos:",   Pos, this);                         // We can only step down from a one in the ones tree
+    if (immediate()) {subFinish(); return new Int(scanDown((posOne[Pos.i()] + 1 << heightOne[Pos.i()]) - 1, true));}    // Scan the actual bits below the subtree a unit at a time
     final Int p = new Int(Pos);                                                                                         // Position in ones tree
     new ForCount(heightOne(Pos))                                                                                        // Step down through the ones tree to reach the actual bits
      {void body(Int Index)
@@ -497,10 +501,38 @@ final public class BitSet extends Program
 //  return r;
 // }
 
+//D1 Scans                                                                                                             // Locate and count bits a whole unit at a time when executing immediately or with a priority encoder in the memory module when requested. The trees are still maintained so the state matches that of execution by walking the trees
+
+  int unitBits (int Unit, boolean One) {final int u = memoryRef.getInt(Unit); return One ? u : ~u;}                     // A unit of the actual bits or its complement when looking for zeros
+
+  int scanUp   (int From, boolean One) {return memoryRef.m.scan(memoryRef.offset.i(), From, size(), One, true);}        // Index of the first bit at or above From with the specified value else -1
+  int scanDown (int From, boolean One) {return memoryRef.m.scan(memoryRef.offset.i(), From, size(), One, false);}       // Index of the last bit at or below From with the specified value else -1
+
+  int countBits (boolean One)                                                                                           // Number of bits with the specified value
+   {final int W = Integer.SIZE;
+    int c = 0;
+    for (int u = 0; u * W < size(); u++)
+     {final int r = size() - u * W;                                                                                     // Bits of the bit set remaining in this unit
+      c += Integer.bitCount(unitBits(u, One) & (r < W ? (1 << r) - 1 : -1));
+     }
+    return c;
+   }
+
+  Bint scanned (int I) {final Bint r = new Bint(); if (I >= 0) r.set(new Int(I)); return r;}                            // Result of a scan: valid if a bit was found
+
+  Bint encoded (Int From, int Delta, boolean One, boolean Up)                                                           // Locate a bit with the priority encoder in the memory module
+   {final Int  i = memoryRef.m.scan(memoryRef.offset, From, Delta, size(), One, Up);
+    final Bint r = new Bint();
+    new If (i.ge(0)) {void Then() {r.set(i);}};                                                                         // Valid if a bit was found
+    return r;
+   }
+
 //D1 Locate Ones                                                                                                        // Find the first, last, next, previous bit set to one
 
   public Bint firstOne()                                                                                                // Find the index of the first set bit
-   {subStart("Bitset.firstOne");
+   {if (immediate()) return scanned(scanUp(0, true));                                                                   // Scan a unit at a time
+    if (build.encoders) return encoded(null, 0, true, true);                                                            // Priority encoder
+    subStart("Bitset.firstOne");
     final Int  p = new Int(0); p.name = "p";                                                                            // Offset of first bit
     final Bint r = new Bint();                                                                                          // Result
 
@@ -513,7 +545,9 @@ final public class BitSet extends Program
    }
 
   public Bint lastOne()                                                                                                 // Find the index of the last set bit
-   {subStart("Bitset.lastOne");
+   {if (immediate()) return scanned(scanDown(size()-1, true));                                                          // Scan a unit at a time
+    if (build.encoders) return encoded(null, size()-1, true, false);                                                    // Priority encoder
+    subStart("Bitset.lastOne");
     final Int  p = new Int(size()-1);                                                                                   // Offset of last bit
     final Bint r = new Bint();                                                                                          // Result
     new If (getBit(p))
@@ -528,6 +562,8 @@ final public class BitSet extends Program
    {subStart("Bitset.nextOne");
     checkInActual(Start);
     if (immediate()) checkInActual(Start);
+    if (immediate()) {subFinish(); return scanned(scanUp(Start.i()+1, true));}                                          // Scan a unit at a time
+    if (build.encoders) {final Bint r = encoded(Start, 1, true, true); subFinish(); return r;}                          // Priority encoder
     final Bint Next = new Bint();                                                                                       // Next one if any
     final Int  p    = new Int(Start);                                                                                   // Start position
 
@@ -568,6 +604,8 @@ final public class BitSet extends Program
   public Bint prevOne(Int Start)                                                                                        // Find the index of the previous set bit below the specified bit
    {subStart("Bitset.nextOne");
     if (immediate()) checkInActual(Start);
+    if (immediate()) {subFinish(); return scanned(scanDown(Start.i()-1, true));}                                        // Scan a unit at a time
+    if (build.encoders) {final Bint r = encoded(Start, -1, true, false); subFinish(); return r;}                        // Priority encoder
     final Bint Prev = new Bint();                                                                                       // Invalid indicates not found
     final Int p     = new Int(Start);                                                                                   // Start position
 
@@ -595,7 +633,9 @@ final public class BitSet extends Program
 //D1 Locate Zeros                                                                                                       // Find the first, last, next, previous bit set to zero
 
   public Bint firstZero()                                                                                               // Find the index of the first set bit
-   {subStart("Bitset.firstZero");
+   {if (immediate()) return scanned(scanUp(0, false));                                                                  // Scan a unit at a time
+    if (build.encoders) return encoded(null, 0, false, true);                                                           // Priority encoder
+    subStart("Bitset.firstZero");
     final Int  p = new Int(0);
     final Bint r = new Bint();                                                                                          // Result
     new If (getBit(p))
@@ -607,7 +647,9 @@ final public class BitSet extends Program
    }
 
   public Bint lastZero()                                                                                                // Find the index of the last set bit
-   {subStart("Bitset.lastZero");
+   {if (immediate()) return scanned(scanDown(size()-1, false));                                                         // Scan a unit at a time
+    if (build.encoders) return encoded(null, size()-1, false, false);                                                   // Priority encoder
+    subStart("Bitset.lastZero");
     final Int  p = new Int(size()-1);
     final Bint r = new Bint();                                                                                          // Result
     new If (getBit(p))
@@ -623,6 +665,8 @@ final public class BitSet extends Program
     checkInActual(Start);
 
     if (immediate()) checkInActual(Start);
+    if (immediate()) {subFinish(); return scanned(scanUp(Start.i()+1, false));}                                         // Scan a unit at a time
+    if (build.encoders) {final Bint r = encoded(Start, 1, false, true); subFinish(); return r;}                         // Priority encoder
     final Bint Next = new Bint();                                                                                       // Invalid indicates not found
     final Int  p    = new Int(Start);                                                                                   // Start position
     final Int  Q    = p.Inc();
@@ -680,6 +724,8 @@ final public class BitSet extends Program
    {subStart("Bitset.prevZero");
     checkInActual(Start);
     if (immediate()) checkInActual(Start);
+    if (immediate()) {subFinish(); return scanned(scanDown(Start.i()-1, false));}                                       // Scan a unit at a time
+    if (build.encoders) {final Bint r = encoded(Start, -1, false, false); subFinish(); return r;}                       // Priority encoder
     final Bint Prev = new Bint();                                                                                       // Location of previous zero or invalid of there is not one
     final Int  p    = new Int(Start);                                                                                   // Start position in body of bitset
     new If (p.gt(0))                                                                                                    // Not at the start of bitset
@@ -755,7 +801,8 @@ final public class BitSet extends Program
 //D2 Counts                                                                                                             // The number of bits set to zero or one in the bitset. Superceded by Slots.count as it is believed that the extra cost of maintaining the count is offset by faster access to the current count. However, the count is not being maintained at the bitset level to avoid duplicating effort.  It might be better to transfer the counting logic to Bitset from Slots with the possibility of making it optional when a count is not required
 
   public Int countAllOnes()                                                                                             // Count ones in bitset
-   {subStart("Bitset.countAllOnes");
+   {if (immediate()) return new Int(countBits(true));                                                                   // Count a unit at a time
+    subStart("Bitset.countAllOnes");
     final Int  c = new Int(0);                                                                                          // Count
     final Bint p = firstOne();                                                                                          // Position in bitset starting at first one
     new For(size())                                                                                                     // Step from one to one
@@ -779,7 +826,8 @@ final public class BitSet extends Program
    };
 
   public Int countAllZeros()                                                                                            // Count zeros in bitset
-   {subStart("Bitset.countAllZeros");
+   {if (immediate()) return new Int(countBits(false));                                                                  // Count a unit at a time
+    subStart("Bitset.countAllZeros");
     final Int  c = new Int(0);                                                                                          // Count
     final Bint p = firstZero();
     new For(size())
@@ -1747,6 +1795,66 @@ Zero:
               test_b4(false);
    }
 
+  static void test_scans()                                                                                              // Unit at a time scans across several units of a bit set whose size is not a power of two
+   {sayCurrentTestName();
+    final int N = 77;
+    final BitSet b = testBits(true, N);
+    final Random r = new Random(7);
+    for (int i = 0; i < N; i++) if (r.nextInt(3) == 0) b.set(b.new Int(i));
+
+    int ones = 0;
+    for (int i = 0; i < N; i++)
+     {int n = -1, p = -1, z = -1, q = -1;                                                                               // Next and previous one and zero found bit by bit
+      for (int j = i+1; j <  N && n < 0; j++) if ( b.getBitNC(j)) n = j;
+      for (int j = i-1; j >= 0 && p < 0; j--) if ( b.getBitNC(j)) p = j;
+      for (int j = i+1; j <  N && z < 0; j++) if (!b.getBitNC(j)) z = j;
+      for (int j = i-1; j >= 0 && q < 0; j--) if (!b.getBitNC(j)) q = j;
+      if (n < 0) b.nextOne (b.new Int(i)).ok(false); else b.nextOne (b.new Int(i)).ok(n);
+      if (p < 0) b.prevOne (b.new Int(i)).ok(false); else b.prevOne (b.new Int(i)).ok(p);
+      if (z < 0) b.nextZero(b.new Int(i)).ok(false); else b.nextZero(b.new Int(i)).ok(z);
+      if (q < 0) b.prevZero(b.new Int(i)).ok(false); else b.prevZero(b.new Int(i)).ok(q);
+      if (b.getBitNC(i)) ++ones;
+     }
+    b.countAllOnes ().ok(ones);
+    b.countAllZeros().ok(N - ones);
+    final int t = b.top_one();
+    int lo = 0; while (!b.getBitNC(lo)) ++lo;
+    int hi = N-1; while (!b.getBitNC(hi)) --hi;
+    b.lowOne (b.new Int(t)).ok(lo);
+    b.highOne(b.new Int(t)).ok(hi);
+    b.firstOne().ok(lo);
+    b.lastOne ().ok(hi);
+   }
+
+  static void test_encoders()                                                                                           // Locate bits with the priority encoder in the memory module
+   {sayCurrentTestName();
+    final int N = 77;
+    final BitSet b = new BitSet(new Build().bitSize(N).immediate(false).encoders(true));
+    final boolean[]B = new boolean[N];
+    final Random r = new Random(9);
+    for (int i = 0; i < N; i++) if (B[i] = r.nextInt(3) == 0) b.set(b.new Int(i));
+
+    for (int i = 0; i < N; i++)
+     {int n = -1, p = -1, z = -1, q = -1;                                                                               // Next and previous one and zero found bit by bit
+      for (int j = i+1; j <  N && n < 0; j++) if ( B[j]) n = j;
+      for (int j = i-1; j >= 0 && p < 0; j--) if ( B[j]) p = j;
+      for (int j = i+1; j <  N && z < 0; j++) if (!B[j]) z = j;
+      for (int j = i-1; j >= 0 && q < 0; j--) if (!B[j]) q = j;
+      if (n < 0) b.nextOne (b.new Int(i)).ok(false); else b.nextOne (b.new Int(i)).ok(n);
+      if (p < 0) b.prevOne (b.new Int(i)).ok(false); else b.prevOne (b.new Int(i)).ok(p);
+      if (z < 0) b.nextZero(b.new Int(i)).ok(false); else b.nextZero(b.new Int(i)).ok(z);
+      if (q < 0) b.prevZero(b.new Int(i)).ok(false); else b.prevZero(b.new Int(i)).ok(q);
+     }
+    int lo = 0; while (!B[lo]) ++lo;
+    int hi = N-1; while (!B[hi]) --hi;
+    b.firstOne ().ok(lo);
+    b.lastOne  ().ok(hi);
+    b.firstZero().ok(B[0]   ? 1   : 0);
+    b.lastZero ().ok(B[N-1] ? N-2 : N-1);
+    b.maxSteps(999_999);
+    b.execute();
+   }
+
   static void oldTests()                                                                                                // Tests thought to be stable.
    {if (rtg( 1)) test_prevNext();
     if (rtg( 2)) test_prevNext01();
@@ -1759,6 +1867,8 @@ Zero:
     if (rtg( 9)) test_limits();
     if (rtg(10)) test_lowHighZero();
     if (rtg(11)) test_b4();
+    if (rtg(12)) test_scans();
+    if (rtg(13)) test_encoders();
    }
 
   static void newTests()                                                                                                // Tests under development.
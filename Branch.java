@@ -92,6 +92,7 @@ class Branch extends Program implements Program.Locatable
   void       data (Int Index, Int Value) {refData.putInt(Index, Value);}                                                // Set data at the specified index
   int bytesNeeded ()                     {return build.size();}                                                         // Number of bytes needed to contain a branch
   void      clear ()                     {unitMemoryRef.clear(bytesNeeded());}                                          // Clear memory associated with the branch and mark as a branch to create a new branch in a known state ready for use
+                                                                                                                        // Not cleared by generations(): the branch is a region of the memory shared by every node of the tree so advancing the generation of that memory would clear all the other nodes as well
   void       copy (Branch Source)        {unitMemoryRef.copy(Source.unitMemoryRef, bytesNeeded());}                     // Copy one branch into another branch
 
 //D1 Delete, find, insert                                                                                               // Delete, find, insert keys and data in a branch
@@ -120,6 +121,13 @@ class Branch extends Program implements Program.Locatable
     final Bint slot = new Bint();                                                                                       // The slot used to step down.  If not set then stepped through top
     StepDown(Int Key) {key.set(Key);}
 
+    StepDown copy()                                                                                                     // Copy a step down so that it outlives the next step down through this branch
+     {final StepDown d = new StepDown(key);
+      d.node.set(node);
+      d.slot.copy(slot);
+      return d;
+     }
+
     public String toString()
      {final StringBuilder s = new StringBuilder();
       s.append("StepDown key: "+key+" node: "+node+" slot: "+slot+"\n"+Branch.this);
@@ -128,7 +136,8 @@ class Branch extends Program implements Program.Locatable
    }
 
   StepDown stepDown(Int Key)                                                                                            // Reference to the next branch down that might contain the specified key
-   {final Slots.Find f = slots.find(Key);                                                                               // Find result
+   {final Operation operation = operationStart("Branch.stepDown");                                                      // Measure the latency of this operation
+    final Slots.Find f = slots.find(Key);                                                                               // Find result
     final StepDown   d = new StepDown(Key);                                                                             // Result
 
     new If (f.empty)                                                                                                    // Found the index of a key that is greater than or equal to the search key
@@ -152,6 +161,7 @@ class Branch extends Program implements Program.Locatable
          };
        }
      };
+    operationFinish(operation);                                                                                         // End of the code generated by this operation
     return d;                                                                                                           // Result
    }
 
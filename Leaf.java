@@ -14,6 +14,8 @@ class Leaf extends Program implements Program.Locatable
   final Memory.Ref  refMark;                                                                                            // Mark this node as a leaf
   final Memory.Ref refSlots;                                                                                            // The slot associated with each key being used
   final Memory.Ref refData;                                                                                             // Bitset showing which slots are being mapped to keys
+  final Memory.Ref refNext;                                                                                             // The next leaf in key order if the leaves are linked
+  final Memory.Ref refPrev;                                                                                             // The previous leaf in key order if the leaves are linked
   final Build        build;                                                                                             // Build used to construct this leaf
 
 //D1 Construction                                                                                                       // Construct and layout a leaf
@@ -26,12 +28,14 @@ class Leaf extends Program implements Program.Locatable
     Memory.Ref        unitMemoryRef;                                                                                    // Program memory to be used
     MemoryPositions memoryPositions;                                                                                    // Layout of memory
     Slots.Build               slots;                                                                                    // Bytes needed for slots
+    boolean                   links = false;                                                                            // Whether the leaf holds links to its siblings
 
     Build immediate(boolean Immediate ) {immediate     = Immediate; return this;}
     Build maxSize  (int     MaxSize   ) {maxSize       = MaxSize;   return this;}
     Build memory   (Memory.Ref Ref) {unitMemoryRef = Ref;       return this;}
     Build parent   (Program Parent    ) {parent        = Parent;    return this;}
     Build at       (Int     At        ) {at            = At;        return this;}
+    Build links    (boolean Links     ) {links         = Links;     return this;}
 
     Program.Build build()                                                                                               // Create a description of the needed containing program
      {final Program.Build p = new Program.Build();                                                                      // Description of containing program
@@ -48,11 +52,14 @@ class Leaf extends Program implements Program.Locatable
      {final int posMark  = 0;                                                                                           // A tree consists of nodes: leaves and branches. This field tells us which one we have
       final int posSlots = posMark  + 1;
       final int posData  = posSlots + slots.size();
-      final int size     = posData  + dataUnits();
+      final int posNext  = posData  + dataUnits();                                                                      // Node of the next leaf in key order or zero if there is none: the root is never the sibling of another leaf
+      final int posPrev  = posNext  + linkUnits();
+      final int size     = posPrev  + linkUnits();
      }
 
     int size()      {return memoryPositions.size;}                                                                      // Units needed for the slots
     int dataUnits() {return maxSize;}                                                                                   // Units needed for the data
+    int linkUnits() {return links ? 1 : 0;}                                                                             // Units needed for each sibling link
    }
 
   Leaf(Build Build)                                                                                                     // Create a description of a leaf
@@ -66,6 +73,8 @@ class Leaf extends Program implements Program.Locatable
     refMark       = unitMemoryRef.step(m.posMark);                                                                      // Mark this node as a leaf or a branch
     refSlots      = unitMemoryRef.step(m.posSlots);                                                                     // Slots order the keys which are stored unordered.  Using one level of indirection to the keys speeds up insertions by allowing the narrower slot references to be moved rather than the wider keys
     refData       = unitMemoryRef.step(m.posData);                                                                      // Slots in use
+    refNext       = unitMemoryRef.step(m.posNext);                                                                      // Next sibling
+    refPrev       = unitMemoryRef.step(m.posPrev);                                                                      // Previous sibling
     if (build.at != null) at.set(build.at);                                                                             // The location of the leaf if supplied
     slots         = new Slots(new Slots.Build().numberOfKeys(maxSize).memory(refSlots).parent(program()));              // Slots for leaf
     leafCode();                                                                                                         // Generate machine code if any assembler code has been supplied
@@ -87,8 +96,16 @@ class Leaf extends Program implements Program.Locatable
   Int  data(Int Index)            {return refData.getInt(Index);}                                                       // Get data at an index
   void data(Int Index, Int Value) {refData.putInt(Index, Value);}                                                       // Set the data at the specified index
 
+  boolean links()      {return build.links;}                                                                            // Whether the leaf holds links to its siblings
+  Int  next()          {checkLinks(); return refNext.getInt();}                                                         // The next leaf in key order or zero if there is none
+  void next(Int Next)  {checkLinks(); refNext.putInt(Next);}                                                            // Set the next leaf in key order
+  Int  prev()          {checkLinks(); return refPrev.getInt();}                                                         // The previous leaf in key order or zero if there is none
+  void prev(Int Prev)  {checkLinks(); refPrev.putInt(Prev);}                                                            // Set the previous leaf in key order
+  private void checkLinks() {if (!links()) stop("Leaf was built without sibling links");}                               // Sibling links must have been requested when the leaf was built
+
   int bytesNeeded() {return build.size();}                                                                              // Number of bytes needed to contain a leaf
   void      clear() {unitMemoryRef.clear(bytesNeeded());}                                                               // Clear memory associated with the leaf and mark as a leaf to create a new leaf in a known state ready for use
+                                                                                                                        // Not cleared by generations(): the leaf is a region of the memory shared by every node of the tree so advancing the generation of that memory would clear all the other nodes as well
 
   void copy (Leaf Source) {unitMemoryRef.copy(Source.unitMemoryRef, bytesNeeded());}                                    // Copy one leaf into another leaf
 
@@ -111,9 +128,11 @@ class Leaf extends Program implements Program.Locatable
 
   Slots.Insert insert(Int Key, Int Data)                                                                                // Insert a key data pair into a leaf returning the index of the containing slot
    {if (immediate() && slots.find(Key).equal.b()) stop("Key already exists in leaf:", Key, print());                    // The key must not already be present
+    final Operation operation = operationStart("Leaf.insert");                                                          // Measure the latency of this operation
     final Slots.Insert i = slots.insert(Key);                                                                           // Insert key
     final Int          k = slots.getSlotToKeyIndex(i.slot.i());                                                         // Key into which the insertion was performed
     refData.putInt(k, Data);
+    operationFinish(operation);                                                                                         // End of the code generated by this operation
     return i;                                                                                                           // Return the slot in the leaf in which the key, data pair was inserted
    }
 
@@ -251,10 +270,13 @@ class Leaf extends Program implements Program.Locatable
      };
 
     final Int c = count();
+    final Int n = links() ? next() : null, p = links() ? prev() : null;                                                 // Sibling links if present
 
     new I()                                                                                                             // Key/Data pairs in key order
      {void a()
-       {s.append(f(" size: %3d, count: %3d\n", maxSize(), c.i()));
+       {s.append(f(" size: %3d, count: %3d", maxSize(), c.i()));
+        if (n != null) s.append(f(", next: %3d, prev: %3d", n.i(), p.i()));
+        s.append("\n");
         s.append(" Ref   Key  Data\n");
 
         for (int i : range(slots.numberOfSlotsToKeys()))
@@ -761,6 +783,36 @@ Leaf           size:   8, count:   8
               test_fixedFields(false);
    }
 
+  static void test_links(boolean Ex)
+   {sayCurrentTestName();
+    final Leaf l = new Leaf(new Build().maxSize(4).links(true).immediate(Ex));
+    final Build b = new Build().maxSize(4); b.build();                                                                  // A leaf without links
+    ok(l.bytesNeeded(), b.size() + 2);                                                                                  // One unit for each link
+    l.insert(l.new Int(2), l.new Int(22));
+    l.next(l.new Int(5));
+    l.prev(l.new Int(3));
+    l.next().ok(5);
+    l.prev().ok(3);
+    l.check(l.print(), """
+Leaf           size:   4, count:   1, next:   5, prev:   3
+ Ref   Key  Data
+   0     2    22
+""");
+    final Leaf r = new Leaf(new Build().maxSize(4).links(true).immediate(Ex).parent(l));
+    r.copy(l);                                                                                                          // Links are copied with the leaf
+    r.next().ok(5);
+    l.clear();                                                                                                          // Links are cleared with the leaf
+    l.next().ok(0);
+    l.prev().ok(0);
+    l.maxSteps(999_999);
+    l.execute();
+   }
+
+  static void test_links()
+   {          test_links(true);
+              test_links(false);
+   }
+
   static void oldTests()                                                                                                // Tests thought to be in good shape
    {if (rtg( 1)) test_leaf();
     if (rtg( 2)) test_compactLeft();
@@ -772,6 +824,7 @@ Leaf           size:   8, count:   8
     if (rtg( 8)) test_find();
     if (rtg( 9)) test_iterate();
     if (rtg(10)) test_fixedFields();
+    if (rtg(11)) test_links();
    }
 
   static void newTests()                                                                                                // Tests being worked on
@@ -12,9 +12,13 @@ package com.AppaApps.Silicon;
 
 import java.util.*;
 import java.util.function.*;
+import java.util.regex.*;
 import java.io.*;
 import java.nio.*;
+import java.nio.channels.*;
 import java.nio.file.*;
+import java.lang.invoke.*;
+import javax.tools.*;
 
 //D1 Construct                                                                                                          // Generate the Btree algorithm in Verilog from the equivalent Java code to produce the kernel of "Database on a Chip"
 
@@ -28,6 +32,7 @@ public class Program extends Test
   final static boolean       suppressNamesInInstructions =!true;                                                        // Include names in instructions
   final static boolean                runSiliconCompiler = true;                                                        // Run silicon compiler on github or print docker command to run it locally when running locally as it takes a long time and so needs to be run from the command line rather than tying up geany for a long time
   final static boolean                          runYosys =!true;                                                        // Run synthesis via Yosys to provide a fast check as to whether the Verilog code is synthesizable
+  final static int                      returnStackDepth = 16;                                                          // Maximum depth of nested routine calls held on the return stack
   final static int                        verilogTimeOut = 4000;                                                        // Time out a Icarus Verilog run after this many seconds if running locally
 
   final static FileNames                   verilogFolder = new FileNames(fp("verilog"));                                // Verilog folder contains temporary files which hold the generated Verilog and related files
@@ -37,7 +42,12 @@ public class Program extends Test
   final FileNames                       verilogLogFolder = verilogFolder.down("log");                                   // Verilog log folder
   final FileNames                         blackBoxFolder = verilogTestFolder.down("blackboxes");                        // Verilog black boxes
   final FileNames                             traceFiles = verilogTestFolder.same("traceFile");                         // Verilog trace file
+  final FileNames                            traceWindow = verilogTestFolder.same("traceWindow");                       // Full Java trace of the first window in which the Java and Verilog state hashes diverged
+  final FileNames                           profileFiles = verilogTestFolder.same("profile");                           // Execution profile as json and as collapsed stacks for flame graphs
+  final FileNames                           latencyFiles = verilogTestFolder.same("operationLatency");                  // Start and finish of each operation during Verilog simulation
   final Stack<FileNames>                      blackBoxes = new Stack<>();                                               // Black box files created
+  final JavaTrace                              javaTrace = new JavaTrace();                                            // Buffered writer for the Java trace file while the program is executing
+  final Map<String,MethodHandle>              jitClasses = new HashMap<>();                                             // Constructor of each class generated by the just in time compiler by its source so that executing the same code again does not compile it again
   final static String          siliconCompilerImageLocal = "ghcr.io/philiprbrenan/sc_local:latest";                     // Podman container containing silicon compiler when running locally
   final static String         siliconCompilerImageGitHub = "ghcr.io/philiprbrenan/sc_github:latest";                    // Podman container containing silicon compiler when running on github
   final static int                            padVerilog = 32;                                                          // Padding for components of the generated Verilog code
@@ -48,6 +58,7 @@ public class Program extends Test
   final Memory                                unitMemory;                                                               // Optional memory associated with the program
   final boolean                                immediate;                                                               // Execute immediately if true else generate machine code and execute later
   final        Stack<Memory>                    memories;                                                               // Memories used by this program and its dependent programs
+  final        Stack<Operation>               operations;                                                               // Ranges of instructions generated by calls of the operations whose latency is measured
   final        Stack<Int>                           ints;                                                               // Int variables. These are addressed individually by Java and Verilog and expanded into named registers by Yosys.
   final        Stack<Bit>                           bits;                                                               // Bit variables processed in the same way as ints.
   final static Stack<String>                        subs = new Stack<>();                                               // Name of the current method is cached here so that we can count instructions
@@ -55,19 +66,55 @@ public class Program extends Test
   final DumpLocations                      dumpLocations;                                                               // Locations in the code at which dumps have been requested
   final VerilogArrays                      verilogArrays;                                                               // Verilog read only array definitions that are mapped into a read only memory to prevent Yosys from expanding them.
   final TreeMap<Integer,Integer>              pcConstant;                                                               // Instruction equivalence set identified by program counter
+  final TreeMap<Integer,Int>                      pcInts;                                                               // Instructions that address an integer variable through the pc constant table
+  final TreeMap<Integer,Bit>                      pcBits;                                                               // Instructions that address a boolean variable through the pc constant table
+  final TreeSet<Integer>                          pcDefs;                                                               // Instructions that address a variable only to overwrite it
+  final TreeMap<Integer,Integer>                 pcJumps;                                                               // Jump instructions and their targets
+  final TreeMap<Integer,Label>                  pcLabels;                                                               // Jump instructions and the labels they jump to
+  final TreeMap<Integer,Label>                 pcReturns;                                                               // Call instructions and the labels of the instructions they return to
+  final TreeSet<Integer>                         pcReads;                                                               // Instructions that address an integer variable only to read it
+  final TreeMap<Integer,Integer>              pcOperator;                                                               // Operator and second operand form selected by each instruction that executes in a shared arithmetic or comparison arm
+  final Operands[]                              operands;                                                               // Read only memories indexed by program counter that supply the target, source and second source operands of each instruction. Only register numbers and constants pass through them: the memory and read port used are still written into each case arm so these memories batch loads rather than share arms
+  final Stack<IntOp>                              intOps;                                                               // Integer operations recorded for the optimization passes
+  final Stack<Pass>                               passes;                                                               // Optimization passes run over the code before it is executed
+  final Stack<Routine>                          routines;                                                               // Routines whose bodies have been generated
   final Memory                                 intMemory;                                                               // Integer memory - the Java phases use their own storage for integers and booleans but do rely on the memory control registers
   final Memory                                 bitMemory;                                                               // Boolean memory - the Java phases use their own storage for integers and booleans but do rely on the memory control registers
   static String                                subsTrace = null;                                                        // Traceback through the methods currently active
   I                                            executing = null;                                                        // Instruction currently being executed
   I                                            compiling = null;                                                        // Instruction currently being compiled
+  Engine                                          engine;                                                               // Engine used to execute the code of this program in delayed mode
+  boolean                                      profiling = false;                                                       // Count the execution of each instruction when true
+  boolean                                       optimize;                                                               // Run the optimization passes before execution when true
+  final boolean                        allocateRegisters;                                                               // Share the integer and boolean registers between variables whose live ranges do not overlap
+  final boolean                                fuseLoads;                                                               // Address all the variables of a sequence of loads in one cycle through distinct read ports and operand read only memories and wait once for all their values
+  final boolean                             callRoutines;                                                               // Generate the body of a callable routine once and enter it by a call from each call site rather than generating it again in line
+  final int                                   blockUnits;                                                               // Units moved in each clock cycle by the block copy, clear and shift instructions of a memory or zero to move one unit at a time with a loop
+  final boolean                              inferWidths;                                                               // Narrow the integer memory to the widest value that interval analysis of the integer operations finds any register can hold
+  final boolean                         generationClears;                                                               // Clear a memory that opted in with generations() in one cycle by advancing its generation
+  final boolean                                 packBits;                                                               // Pack the boolean registers 32 to a unit of the boolean memory rather than holding each one in a unit of its own
+  final boolean                                shareArms;                                                               // Select the integer arithmetic and comparison operators and the form of their second operand through the pcOperator read only memory so that each family shares one case arm, and match arms that differ only in layout
+  Stack<Load>                                  loadBatch = null;                                                        // Loads being batched into one addressing cycle or null if no batch is being generated
+  boolean                                      optimized = false;                                                       // The optimization passes have been run
+  int[]                                          profile = null;                                                        // Number of times each instruction was executed indexed by program counter
+  boolean                                 measureLatency = false;                                                       // Record the cycles taken by each call of an operation when true
+  Operation[][]                 latencyStarts, latencyFinishes;                                                         // Operations starting and finishing at each program counter while measuring latency
+  TreeMap<String,Histogram>  javaLatency = new TreeMap<>();                                                             // Cycles per call of each operation in Java
+  TreeMap<String,Histogram>  verilogLatency = new TreeMap<>();                                                          // Cycles per call of each operation in Verilog
+  int                                         hashWindow = 0;                                                           // If positive: compare the Java and Verilog versions by rolling hashes of the memories written at each dump location and every this many steps rather than by full text dumps
+  long                                         stateHash = 0;                                                           // Rolling hash of the state of the memories
   int                                           maxSteps = 99_999;                                                      // Number of steps permitted in code execution - this provides some protection against endless loops during development
   int                                              steps = 0;                                                           // Number of instruction steps executed so far during the latest execution of this program
   int                                                 pc;                                                               // Program counter indicating the instruction to be executed after the current one
+  int                                                rsp = 0;                                                           // Return stack pointer: the number of return addresses on the return stack
+  Memory                                         returns = null;                                                        // Return stack for routine calls created when the first routine is generated
   int                                          currentPc = 0;                                                           // Current program counter
   int                                             jtrace = 0;                                                           // Count the number of  times jtrace() has been called to demonstrate that each instruction generates one matching call to jtrace
   int                                             vtrace = 0;                                                           // Count the number of  times vtrace() has been called to demonstrate that each instruction generates one matching call to vtrace
   int                                          nextIntId = 0;                                                           // Unique id for each Int
   int                                          nextBitId = 0;                                                           // Unique id for each Bit
+  int                                       intRegisters = -1;                                                          // Number of integer registers after register allocation or -1 if registers have not been allocated
+  int                                       bitRegisters = -1;                                                          // Number of boolean registers after register allocation or -1 if registers have not been allocated
   int                                         scDieAreaX = 10_000;                                                      // Default size of x dimension for chip
   int                                         scDieAreaY = 10_000;                                                      // Default size of y dimension for chip
   boolean                              generatingVerilog = false;                                                       // Whether or not we are generating Verilog at the moment
@@ -77,28 +124,72 @@ public class Program extends Test
     boolean trace;                                                                                                      // Trace execution
     Program parent;                                                                                                     // Parent program
     Integer size;                                                                                                       // Memory allocated by this program
+    Engine engine;                                                                                                      // Execution engine to use in delayed mode
+    boolean optimize, allocateRegisters, fuseLoads, callRoutines, inferWidths, generationClears, packBits, shareArms;   // Code generators and passes: none of them are used unless requested so that the Verilog generated is unchanged until each has been checked against the Java trace under a simulator
+    int     blockUnits;                                                                                                 // Units moved in each cycle by the block engine or zero to move units one at a time
     Build immediate (boolean Immediate) {immediate = Immediate; return this;}
     Build parent (   Program Parent)    {parent    = Parent;    return this;}
     Build memory (   int     Size)      {size      = Size;      return this;}
+    Build engine (   Engine  Engine)    {engine    = Engine;    return this;}
+    Build optimize          (boolean On) {optimize          = On; return this;}
+    Build allocateRegisters (boolean On) {allocateRegisters = On; return this;}
+    Build fuseLoads         (boolean On) {fuseLoads         = On; return this;}
+    Build callRoutines      (boolean On) {callRoutines      = On; return this;}
+    Build inferWidths       (boolean On) {inferWidths       = On; return this;}
+    Build generationClears  (boolean On) {generationClears  = On; return this;}
+    Build packBits          (boolean On) {packBits          = On; return this;}
+    Build shareArms         (boolean On) {shareArms         = On; return this;}
+    Build blockUnits        (int  Units) {blockUnits        = Units; return this;}
+    Build generators        (boolean On)                                                                                // Request every code generator and pass at once
+     {optimize = allocateRegisters = fuseLoads = callRoutines = inferWidths = generationClears = packBits = shareArms = On;
+      blockUnits = On ? 4 : 0;
+      return this;
+     }
    }  // Build
 
   Program (Build Build)                                                                                                 // Construct
    {immediate       = Build.immediate;                                                                                  // Immediate or delayed execution
     parentProgram   = Build.parent == null ? this : Build.parent;                                                       // Parent program that will contain the code
+    engine          = Build.engine == null ? Engine.interpreter : Build.engine;                                         // Execution engine
     deleteAllFiles(verilogTestFolder.folder, 999);                                                                      // Delete generated Verilog files created by a prior run of the current test
     makePath(verilogTestFolder.folder);                                                                                 // Verilog folder for this test
 
     final boolean p = program() == this;                                                                                // Whether we are in the executable program
+    optimize          = p ? Build.optimize          : program().optimize;                                               // Code generators and passes requested by the executable program
+    allocateRegisters = p ? Build.allocateRegisters : program().allocateRegisters;
+    fuseLoads         = p ? Build.fuseLoads         : program().fuseLoads;
+    callRoutines      = p ? Build.callRoutines      : program().callRoutines;
+    blockUnits        = p ? Build.blockUnits        : program().blockUnits;
+    inferWidths       = p ? Build.inferWidths       : program().inferWidths;
+    generationClears  = p ? Build.generationClears  : program().generationClears;
+    packBits          = p ? Build.packBits          : program().packBits;
+    shareArms         = p ? Build.shareArms         : program().shareArms;
     code            = p ? new Stack<>()         : program().code;                                                       // Machine code instructions
     labels          = p ? new Stack<>()         : program().labels;                                                     // Labels for instructions in this process
     memories        = p ? new Stack<>()         : program().memories;                                                   // Memories used by this program and its dependent programs
+    operations      = p ? new Stack<>()         : program().operations;                                                 // Ranges of instructions generated by calls of the operations whose latency is measured
     ints            = p ? new Stack<>()         : program().ints;                                                       // Int variables. These are addressed individually by Java and Verilog and expanded into named registers by Yosys.
     bits            = p ? new Stack<>()         : program().bits;                                                       // Bit variables processed in the same way as ints.
     dumpLocations   = p ? new DumpLocations()   : program().dumpLocations;                                              // Locations in the code at which dumps have been requested
     verilogArrays   = p ? new VerilogArrays()   : program().verilogArrays;                                              // Verilog read only array definitions tat are maoed to Read Only Memory to prevent Yosys from expanding them.
     pcConstant      = p ? new TreeMap<>()       : program().pcConstant;                                                 // Instruction equivalence set identified by program counter
+    pcInts          = p ? new TreeMap<>()       : program().pcInts;                                                     // Instructions that address an integer variable through the pc constant table
+    pcBits          = p ? new TreeMap<>()       : program().pcBits;                                                     // Instructions that address a boolean variable through the pc constant table
+    pcDefs          = p ? new TreeSet<>()       : program().pcDefs;                                                     // Instructions that address a variable only to overwrite it
+    pcJumps         = p ? new TreeMap<>()       : program().pcJumps;                                                    // Jump instructions and their targets
+    pcLabels        = p ? new TreeMap<>()       : program().pcLabels;                                                   // Jump instructions and the labels they jump to
+    pcReturns       = p ? new TreeMap<>()       : program().pcReturns;                                                  // Call instructions and the labels of the instructions they return to
+    pcReads         = p ? new TreeSet<>()       : program().pcReads;                                                    // Instructions that address an integer variable only to read it
+    pcOperator      = p ? new TreeMap<>()       : program().pcOperator;                                                 // Operator and second operand form selected by each instruction that executes in a shared arm
+    operands        = p ? new Operands[]                                                                                // The target operand is the constant of each instruction
+     {new Operands("pcConstant", pcConstant, pcInts, pcBits),
+      new Operands("pcSource"),
+      new Operands("pcSource2")} : program().operands;
+    intOps          = p ? new Stack<>()         : program().intOps;                                                     // Integer operations recorded for the optimization passes
+    passes          = p ? standardPasses()      : program().passes;                                                     // Optimization passes run over the code before it is executed
+    routines        = p ? new Stack<>()         : program().routines;                                                   // Routines whose bodies have been generated
     intMemory       = p ? new Memory(0, "Ints") : program().intMemory;                                                  // Integer memory - the Java phases use their own storage for integers and booleans but do rely on the memory control registers
-    bitMemory       = p ? new Memory(0, "Bits") : program().bitMemory;                                                  // Boolean memory - the Java phases use their own storage for integers and booleans but do rely on the memory control registers
+    bitMemory       = p ? new Memory(0, "Bits").packs() : program().bitMemory;                                          // Boolean memory - the Java phases use their own storage for integers and booleans but do rely on the memory control registers
 
     unitMemory      = Build.size   != null ? new Memory(Build.size) : null;                                             // Memory associated with program if any
     initializeRegisters();                                                                                              // Start registers in known state
@@ -133,6 +224,11 @@ public class Program extends Test
    }
 
   Program maxSteps (int MaxSteps) {program().maxSteps = MaxSteps; return this;}                                         // Set number of steps
+  Program engine   (Engine Engine) {engine = Engine;             return this;}                                         // Set the execution engine
+  Program hashWindow (int Window) {hashWindow = Window;          return this;}                                         // Compare Java and Verilog by state hashes every this many steps
+  Program profile (boolean Profile) {profiling = Profile;        return this;}                                         // Profile the execution of each instruction
+  Program latency (boolean Latency) {measureLatency = Latency;   return this;}                                         // Measure the cycles taken by each call of an operation
+  Program optimize(boolean Optimize){optimize = Optimize;        return this;}                                         // Optimize the code before executing it
 
   I compiling ()                 {return program().compiling;}                                                          // Instruction currently being compiled
   I executing ()                 {return program().executing;}                                                          // Instruction currently being executed
@@ -183,11 +279,112 @@ public class Program extends Test
   VerilogArrays         verilogArrays () {return verilogArrays;}                                                        // Verilog array definitions
   DumpLocations         dumpLocations () {return dumpLocations;}                                                        // Verilog array definitions
 
-  void pcConstant (I I, Label Target)    {pcConstant().put(I.instructionNumber, Target.offset);}                        // Save a constant label into the instruction to constant map
+  void pcConstant (I I, Label Target)                                                                                   // Save a constant label into the instruction to constant map
+   {pcConstant().put(I.instructionNumber, Target.offset);
+    program().pcJumps.put(I.instructionNumber, Target.offset);
+    program().pcLabels.put(I.instructionNumber, Target);
+   }
   void pcConstant (I I, int   Target)    {pcConstant().put(I.instructionNumber, Target);}                               // Save a constant integer into the instruction to constant map
+  void pcOperator (I I, int Operator)    {program().pcOperator.put(I.instructionNumber, Operator);}                     // Save the operator selected by an instruction that executes in a shared arm
+  void pcReturn (I I, Label Return)                                                                                     // Save the return address of a call into the instruction to constant map so that it follows the instruction it labels if the code is renumbered
+   {pcConstant(I, Return.offset);
+    program().pcReturns.put(I.instructionNumber, Return);
+   }
+
+  void pcInt (I I, Int V, boolean Def)                                                                                  // Save the register of an integer variable into the instruction to constant map so that it can be reassigned by register allocation
+   {pcConstant(I, V.slot);
+    program().pcInts.put(I.instructionNumber, V);
+    if (Def) program().pcDefs.add(I.instructionNumber);
+   }
+
+  void pcBit (I I, Bit V, boolean Def)                                                                                  // Save the register of a boolean variable into the instruction to constant map so that it can be reassigned by register allocation
+   {pcConstant(I, V.slot);
+    program().pcBits.put(I.instructionNumber, V);
+    if (Def) program().pcDefs.add(I.instructionNumber);
+   }
 
   String pV (      String Text)          {return pad(Text, padVerilog);}                                                // Pad Verilog expressions
 
+  void pcInt (I I, int Operand, Int V)                                                                                  // Save the register of an integer variable that is read by an instruction into the specified operand read only memory
+   {if (Operand == 0) {pcInt(I, V, false); return;}
+    final Operands o = program().operands[Operand];
+    o.rom.put(I.instructionNumber, V.slot); o.ints.put(I.instructionNumber, V);
+   }
+
+  void pcBit (I I, int Operand, Bit V)                                                                                  // Save the register of a boolean variable that is read by an instruction into the specified operand read only memory
+   {if (Operand == 0) {pcBit(I, V, false); return;}
+    final Operands o = program().operands[Operand];
+    o.rom.put(I.instructionNumber, V.slot); o.bits.put(I.instructionNumber, V);
+   }
+
+  final class Operands                                                                                                  // A read only memory indexed by program counter that supplies one operand to each instruction together with the variables whose registers it holds so that they can be reassigned by register allocation
+   {final String                  name;                                                                                 // Name of the Verilog array
+    final TreeMap<Integer,Integer> rom;                                                                                 // Operand of each instruction that has one
+    final TreeMap<Integer,Int>    ints;                                                                                 // Integer variables addressed through this operand
+    final TreeMap<Integer,Bit>    bits;                                                                                 // Boolean variables addressed through this operand
+
+    Operands (String Name, TreeMap<Integer,Integer> Rom, TreeMap<Integer,Int> Ints, TreeMap<Integer,Bit> Bits)
+     {name = Name; rom = Rom; ints = Ints; bits = Bits;
+     }
+    Operands (String Name) {this(Name, new TreeMap<>(), new TreeMap<>(), new TreeMap<>());}
+
+    String data () {return "arrayData_"+name;}                                                                          // Verilog register presenting the operand of the current instruction
+   } // Operands
+
+  abstract class Load                                                                                                   // A load that addresses a variable through a read port in one cycle and receives its value from the memory module at the end of the next
+   {final String port;                                                                                                  // Index register of the read port
+    Load (String Port) {port = Port;}
+    abstract void   a ();                                                                                               // Address the variable in Java
+    abstract String v (String Operand);                                                                                 // Address the variable in Verilog using the named operand
+    abstract void   operand (I I, int Operand);                                                                         // Record the register of the variable as the specified operand of the addressing instruction
+    abstract void   w ();                                                                                               // Load the value in Java
+    abstract String vw ();                                                                                              // Trace the value in Verilog
+   }
+
+  void loads (Runnable Loads)                                                                                           // Batch the loads issued by the specified code so that every variable is addressed in one cycle through its own read port and operand and all the values arrive at the end of the next cycle
+   {final Program p = program();
+    if (immediate() || !fuseLoads || p.loadBatch != null) {Loads.run(); return;}                                        // Nothing to batch or already batching
+    p.loadBatch = new Stack<>();
+    final Stack<Load> b = p.loadBatch;
+    try {Loads.run();}
+    finally {p.loadBatch = null;}
+    final int N = p.operands.length;
+    for (int i = 0; i < b.size(); i += N) loadBatch(b.subList(i, min(b.size(), i + N)));                               // Each batch can use each operand once
+   }
+
+  boolean loading (String Port)                                                                                         // Add a load on the specified port to the current batch if there is one
+   {final Stack<Load> b = program().loadBatch;
+    if (b == null) return false;
+    for (Load l : b) if (l.port.equals(Port)) stop("Read port used twice in one batch of loads:", Port);               // The second address would replace the first before its value arrived
+    return true;
+   }
+
+  private void loadBatch (List<Load> Loads)                                                                             // Address each variable in one cycle then wait for all their values in the next
+   {final Load[]L = Loads.toArray(new Load[0]);
+    final Operands[]o = program().operands;
+    final I i = new I()                                                                                                 // Address each variable
+     {void   a() {for (Load l : L) l.a();}
+      String v()
+       {final StringBuilder s = new StringBuilder();
+        for (int k = 0; k < L.length; k++) s.append(L[k].v(o[k].data()));
+        return ""+s;
+       }
+      int traces() {return L.length;}
+      Ports ports() {return new Ports(null, null, false);}                                                              // Reads no memory output
+     };
+    for (int k = 0; k < L.length; k++) L[k].operand(i, k);
+
+    new I()                                                                                                             // The memory modules load the values at the end of this cycle
+     {void   a() {for (Load l : L) l.w();}
+      String v()
+       {final StringBuilder s = new StringBuilder();
+        for (Load l : L) s.append(l.vw());
+        return ""+s;
+       }
+      int traces() {return L.length;}
+     };
+   }
+
 //D1 Program                                                                                                            // Program execution structures.  The //D* comments are headers at different levels in the documentation describing this code
 
 //D2 For loops                                                                                                          // For loops with fixed and variable number of iterations
@@ -212,17 +409,20 @@ public class Program extends Test
         final Bit    done = index.ge(End);                                                                              // Start of loop - make sure the index is still in range - we will use the side effect of this instruction in the next instruction
       //index.T();                                                                                                      // Load index from memory
         final I S = new I(false)                                                                                        // Start of loop - make sure the index is still in range
-         {void   a()   {if (index.i() >= End.i()) program().pc = end.offset;}                                           // Index out of range. Program counter has already been incremented so we do not need to do it again
+         {void   a()   {if (index.i() >= End.i()) program().pc = target();}                                             // Index out of range. Program counter has already been incremented so we do not need to do it again
           String v()   {return "if ("+bitMemory().vWriteInt()+") pc <= arrayData_pcConstant; else pc <= pc + 1;";}      // Terminate loop when index is out of range relying on the side effect of the previous instruction having set target bool
           int traces() {return 0;}
+          Op op()      {return new Op(Opcode.jumpGe, this, index, End);}                                                // Compiled form
          };
         body(index, cont.clear());                                                                                      // Execute the loop body
         index.inc();                                                                                                    // Increment loop counter
+        intOps.lastElement().bound = End;                                                                               // The loop guard keeps the incremented index within the end of the loop
         cont.T();                                                                                                       // Load continue
         final I E = new I(false)
-         {void   a()   {program().pc = cont.b() ? start.offset : end.offset;}                                           // Continue execution of the loop as long as requested
+         {void   a()   {if (cont.b()) program().pc = target();}                                                     // Continue execution of the loop as long as requested otherwise fall through to the end of the loop
           String v()   {return "if ("+bitMemory().vRead0Int()+") pc <= arrayData_pcConstant; else pc <= pc + 1;";}
           int traces() {return 0;}
+          Op op()      {return new Op(Opcode.jumpTrue, this, cont);}                                                    // Compiled form: the end of the loop is the next instruction
          };
         end.set();                                                                                                      // End of the loop
         pcConstant(S, end);                                                                                             // Set end of loop jump now we know its target
@@ -253,16 +453,19 @@ public class Program extends Test
         final Bit    done = index.ge(End);                                                                              // Start of loop - make sure the index is still in range - we will use the side effect of this instruction in the next instruction
       //index.T();                                                                                                      // Load index
         final I S = new I(false)                                                                                        // Start of loop - make sure the index is still in range
-         {void   a()   {if (index.i() >=  End.i()) program().pc = end.offset;}                                          // Index out of range
+         {void   a()   {if (index.i() >=  End.i()) program().pc = target();}                                            // Index out of range
           String v()   {return "if ("+bitMemory().vWriteInt()+") pc <= arrayData_pcConstant; else pc <= pc + 1;";}      // Terminate the loop when the index is out of range. The if statement relies on the side effect of the previous instruction having set the target boolean value
           int traces() {return 0;}
+          Op op()      {return new Op(Opcode.jumpGe, this, index, End);}                                                // Compiled form
          };
         body(index);                                                                                                    // Execute the loop
         index.inc();                                                                                                    // Increment loop counter
+        intOps.lastElement().bound = End;                                                                               // The loop guard keeps the incremented index within the end of the loop
         final I E = new I(false)                                                                                        // Restart loop
-         {void   a()   {program().pc = start.offset;}
+         {void   a()   {program().pc = target();}
           String v()   {return "pc <= arrayData_pcConstant;";}
           int traces() {return 0;}
+          Op op()      {return new Op(Opcode.jump, this);}                                                              // Compiled form
          };
         end.set();                                                                                                      // End of the loop
         pcConstant(S, end);                                                                                             // Set end   of loop jump now we know its target
@@ -295,17 +498,19 @@ public class Program extends Test
         Condition.T();                                                                                                  // Load target with condition
 
         final I Then = new I(false)                                                                                     // Jump to else if condition is false
-         {void   a() {if (!Condition.b()) program().pc = lse.offset;}
+         {void   a() {if (!Condition.b()) program().pc = target();}
           String v()
            {return "if (!"+bitMemory().vRead0Int()+") pc <= arrayData_pcConstant; else pc <= pc + 1;";
            }
           int traces() {return 0;}
+          Op op()    {return new Op(Opcode.jumpFalse, this, Condition);}                                                // Compiled form
          };
         Then();                                                                                                         // Then body
         final I Else = new I(false)                                                                                     // Jump over else to end
-         {void     a() {program().pc  = end.offset;}
+         {void     a() {program().pc  = target();}
           String   v() {return "pc <= arrayData_pcConstant;";}
           int traces() {return 0;}
+          Op      op() {return new Op(Opcode.jump, this);}                                                              // Compiled form
          };
         lse.set();                                                                                                      // Start of else
         Else();                                                                                                         // Else body
@@ -321,6 +526,82 @@ public class Program extends Test
              void Else () {}                                                                                            // Else clause
    } // If
 
+//D2 Routines                                                                                                           // Routines whose code is generated once and then called from each call site rather than being generated in line at every call site
+
+  abstract class Routine                                                                                                // A routine communicates with its callers through variables that it owns. These variables keep registers of their own because they are live at every call site
+   {final String name;                                                                                                  // Name of the routine
+    Label entry, end;                                                                                                   // First instruction of the body and the instruction following the body once the body has been generated
+    int sites = 0;                                                                                                      // Number of call sites
+
+    Routine (String Name) {name = Name;}                                                                                // Name the routine
+
+    abstract void body ();                                                                                              // Generate the body of the routine
+
+    boolean contains (int Pc) {return entry != null && Pc >= entry.offset && Pc < end.offset;}                          // Whether the indicated instruction is in the body of this routine
+
+    void call ()                                                                                                        // Call the routine generating its body at the first call site
+     {if (immediate() || !callRoutines) {subStart(name); body(); subFinish(); return;}                                  // Execute or generate the body in line
+      if (entry == null) define();                                                                                      // Generate the body the first time the routine is called
+      ++sites;
+
+      final Memory m = returns();
+      final Label  r = new Label();                                                                                     // The instruction following the call to which the routine returns
+      final I push = new I()                                                                                            // Push the return address
+       {void   a() {overflow(); m.read0IntIndex = program().rsp++; m.writeInt = r.offset; m.writeIntEnable = true;     jTrace(  "%8d call1 Push %8d at %8d",  currentPc(), m.writeInt,              m.read0IntIndex);}
+        String v() {return m.vRead0IntIndex()+" <= rsp; "+m.vWriteInt()+" <= arrayData_pcConstant; "+m.vWriteIntEnable()+" <= rsp < "+returnStackDepth+"; rsp <= rsp + 1; if (rsp >= "+returnStackDepth+") returnOverflow <= 1; "+vTrace("%8d call1 Push %8d at %8d", "pc", "arrayData_pcConstant", "rsp");}
+       };
+      final I call = new I(false)                                                                                       // Finish the push and enter the routine
+       {void   a() {m.unit(m.read0IntIndex, m.writeInt); m.writeIntEnable = false; program().pc = target();              jTrace(  "%8d call2 Call %8d",  currentPc(), target());}
+        String v() {return m.vWriteIntEnable()+" <= 0; pc <= arrayData_pcConstant; "+                                   vTrace(  "%8d call2 Call %8d", "pc",        "arrayData_pcConstant");}
+        Op    op() {return new Op(Opcode.call, this);}                                                                  // Compiled form
+       };
+      r.set();                                                                                                          // Return to the instruction after the call
+      pcReturn  (push, r);                                                                                              // Return address
+      pcConstant(call, entry);                                                                                          // Routine entry
+     }
+
+    private void overflow ()                                                                                            // Stop rather than push a return address beyond the end of the return stack
+     {if (program().rsp >= returnStackDepth) stop("Return stack overflow: more than", returnStackDepth, "nested calls at instruction:", currentPc());
+     }
+
+    private void define ()                                                                                              // Generate the body behind a jump so that it can only be entered by a call
+     {final Label over = new Label();                                                                                   // Instruction after the body
+      final I jump = new I(false)                                                                                       // Jump over the body
+       {void     a() {program().pc = target();}
+        String   v() {return "pc <= arrayData_pcConstant;";}
+        int traces() {return 0;}
+        Op      op() {return new Op(Opcode.jump, this);}                                                                // Compiled form
+       };
+      entry = new Label();                                                                                              // Start of body
+      subStart(name); body(); ret(); subFinish();
+      end = new Label();                                                                                                // End of body
+      over.set();
+      pcConstant(jump, over);                                                                                           // Set the jump over the body now we know its target
+      program().routines.push(this);
+     }
+
+    private void ret ()                                                                                                 // Pop the return address and continue from it
+     {final Memory m = returns();
+      new I()                                                                                                           // Address the return address on top of the stack
+       {void   a() {m.read0IntIndex = --program().rsp;       jTrace(  "%8d ret1 Pop at %8d",  currentPc(), m.read0IntIndex);}
+        String v() {return m.vRead0IntIndex()+" <= rsp - 1; rsp <= rsp - 1; "+vTrace("%8d ret1 Pop at %8d", "pc", "rsp - 1");}
+       };
+      new I()                                                                                                           // The return stack delivers the return address at the end of this cycle
+       {void   a() {                                         jTrace(  "%8d ret2 Wait",  currentPc());}
+        String v() {return                                   vTrace(  "%8d ret2 Wait", "pc");}
+       };
+      new I(false)                                                                                                      // Return
+       {void   a() {program().pc = m.unit(m.read0IntIndex);  jTrace(  "%8d ret3 Return to %8d",  currentPc(), program().pc);}
+        String v() {return "pc <= "+m.vRead0Int()+"; "+      vTrace(  "%8d ret3 Return to %8d", "pc",         m.vRead0Int());}
+       };
+     }
+   } // Routine
+
+  Memory returns ()                                                                                                     // The return stack shared by all the routines of the program
+   {if (program().returns == null) program().returns = new Memory(returnStackDepth, "Returns");
+    return program().returns;
+   }
+
 //D1 Data                                                                                                               // Operations on boolean and integer data
 
 //D2 Boolean values                                                                                                     // Operations on boolean values
@@ -330,6 +611,7 @@ public class Program extends Test
     boolean    v = false;                                                                                               // Whether the current value of the integer is valid or not
     boolean   nd = false;                                                                                               // If true the boolean should not be dumped because it represents the validity of an integer variable and no such determination is possible in the Verilog code.
     final int id = program().nextBitId++;                                                                               // Unique id for Bit
+    int     slot = id;                                                                                                  // Register holding this Bit - shared with other Bits whose live ranges do not overlap once registers have been allocated
     final boolean    top = callerName() == "code";                                                                      // A declaration at the top level
           boolean     in = false;                                                                                       // An input wire if true and named and at the top
           boolean    out = false;                                                                                       // An output register if true and named and at the top
@@ -363,10 +645,11 @@ public class Program extends Test
     Bit        dup ()            {return new Bit(this);}                                                                // Duplicate a boolean so that the duplicated version can be modified without modifying the original
                                                                                                                         // Execute as an instruction because these are the building blocks of the chip with which we wish to construct the algorithm
     Bit ie (Ops Op)        {T();        new I() {void a() {ex(Op   );} String v() {return ev(Op);}}; W(); return this;}
-    Bit ie (Ops Op, Bit I) {T(); I.S(); new I() {void a() {ex(Op, I);} String v() {return eV(Op);}}; W(); return this;}
-    Bit ie (Ops Op, boolean I)
+    Bit ie (Ops Op, Bit I) {loads(() -> {T(Op); I.S();}); new I() {void a() {ex(Op, I);} String v() {return eV(Op);}}; W(); return this;}
+    Bit ie (Ops Op, boolean I)                                                                                          // The constant is supplied by the operand read only memory so that operations that differ only in their constant share an instruction
      {T(Op);
-      new I() {void a() {ex(Op, I);} String v() {return eV(Op, I);}};
+      final I i = new I() {void a() {ex(Op, I);} String v() {return eV(Op, "arrayData_pcConstant");}};
+      pcConstant(i, I ? 1 : 0);
       W();
       return this;
      }
@@ -379,16 +662,28 @@ public class Program extends Test
        {final String mi = pV(MemoryIndex);                                                                              // Index
         final String mv = pV(MemoryValue);                                                                              // Value
 
+        if (LoadValue && loading(MemoryIndex))                                                                          // Address the variable and wait for its value in a batch of loads
+         {program().loadBatch.push(new Load(MemoryIndex)
+           {void   a ()          {loadId(slot);                                 jTrace(  "%8d BST1 "+mi+" = %8d",  pc(), slot                );}
+            String v (String O)  {return  mi + pV(" <= "+O+"; ")+vTrace(  "%8d BST1 "+mi+" = %8d", "pc", O);}
+            void   operand (I I, int O) {pcBit(I, O, B);}
+            void   w ()          {checkRegister(B); loadValue(loaded(B)); jTrace(  "%8d BST2 "+mv+" %8d",  pc(),  loaded(B) ? 1 : 0);}
+            String vw ()         {return          vTrace(  "%8d BST2 "+mv+" %8d", "pc",   bitMemory().register(MemoryIndex));}
+           });
+          return;
+         }
+
         final I i = new I()                                                                                             // Load id of variable if requested
-         {void   a() {loadId(id);                                   jTrace(f("%8d BST1 "+mi+" = %8d",  pc(), id)                  );}
+         {void   a() {loadId(slot);                                 jTrace(  "%8d BST1 "+mi+" = %8d",  pc(), slot                );}
           String v() {return  mi + pV(" <= arrayData_pcConstant; ")+vTrace(  "%8d BST1 "+mi+" = %8d", "pc", "arrayData_pcConstant");}
+          Ports ports() {return new Ports(null, null, false);}                                                          // Reads no memory output
          };
-        pcConstant(i, id);                                                                                              // Id of variable being addressed by these instructions
+        pcBit(i, B, !LoadValue);                                                                                        // Register of variable being addressed by these instructions
 
         if (LoadValue)                                                                                                  // Load value if requested
          {new I()                                                                                                       // Load source value
-           {void   a() {loadValue(B.i); jTrace(f("%8d BST2 "+mv+" %8d",  pc(),  B.i ? 1 : 0));}
-            String v() {return          vTrace(  "%8d BST2 "+mv+" %8d", "pc",   bitMemory().memory(MemoryIndex));}
+           {void   a() {checkRegister(B); loadValue(loaded(B)); jTrace(  "%8d BST2 "+mv+" %8d",  pc(),  loaded(B) ? 1 : 0);}
+            String v() {return          vTrace(  "%8d BST2 "+mv+" %8d", "pc",   bitMemory().register(MemoryIndex));}
            };
          }
        }
@@ -419,12 +714,14 @@ public class Program extends Test
       final Memory M = bitMemory();
       new I()                                                                                                           // Write value of bit into memory
        {final String f = "%8d writeBit %8d = %8d";
-        void   a() {i = M.writeInt != 0;  M.writeIntEnable = true; jTrace(f(f,  pc(), b.id,                         b.i ? 1 : 0));}
+        void   a() {i = M.writeInt != 0;  M.writeIntEnable = true; jTrace(  f,  pc(), b.slot,                       b.i ? 1 : 0);}
         String v() {return M.vWriteIntEnable() + " <= 1; " +       vTrace(  f, "pc",  bitMemory().vRead0IntIndex(), bitMemory().vWriteInt());}
+        Ports ports() {return new Ports(null, M, false);}                                                               // Raises the write enable
        };
       new I()                                                                                                           // Lower  right enable - which could be merged with the next instruction
-       {void   a() {if (!immediate()) M.units[M.read0IntIndex] = M.writeInt; M.writeIntEnable = false; jTrace(f("%8d Disable write", currentPc()));}
+       {void   a() {if (!immediate()) M.register(M.read0IntIndex, M.writeInt); M.writeIntEnable = false; jTrace(  "%8d Disable write", currentPc());}
         String v() {return M.vWriteIntEnable() + " <= 0; "+                                            vTrace(  "%8d Disable write", "pc")+" /* Finish integer write */";}
+        Ports ports() {return new Ports(M, null, false);}                                                               // Only lowers the write enable
        };
      }
 
@@ -496,7 +793,7 @@ public class Program extends Test
       vTrace(  "%8d bit %8d = %8d",  "pc",        id,  ""+Value);
      }
     void jtrace ()                                                                                                      // Trace a Java    boolean operation
-     {jTrace(f("%8d bit %8d = %8d",  currentPc(), id, bitMemory().writeInt));
+     {jTrace(  "%8d bit %8d = %8d",  currentPc(), slot, bitMemory().writeInt);
      }
 
     public String toString ()                                                                                           // Print the boolean
@@ -542,9 +839,11 @@ public class Program extends Test
     private boolean    v = false;                                                                                       // Whether the current value of the integer is valid or not
             String  name = null;                                                                                        // The name of the variable
     final int         id = program().nextIntId++;                                                                       // Unique id for Int
+          int       slot = id;                                                                                          // Register holding this Int - shared with other Ints whose live ranges do not overlap once registers have been allocated
     final boolean    top = callerName() == "code";                                                                      // A declaration at the top level
           boolean     in = false;                                                                                       // An input wire: named at the top and set by the constructor to a constant
           boolean    out = false;                                                                                       // An output register:: named at the top and set by the constructor to the value of a variable
+          boolean stored = false;                                                                                       // Written by an instruction other than an integer operation so the interval analysis cannot bound its value
 
     int         i ()  {x(); return i;}                                                                                  // Current value
     void        x ()  {if (!v) variableNotSet("Int", name);}                                                            // Check a value has been set for the integer
@@ -583,31 +882,67 @@ public class Program extends Test
     Int  abs ()       {return ie(Ops.abs    );}
     Int  del (int  I) {return ie(Ops.del , I);}
 
-    Int ie (Ops Op)       {T();        new I(){void a() {ex(Op   );} String v() {return ev(Op   );}}; W(); return this;}// Create an instruction that can either be executed immediately one by one or later en masse
-    Int ie (Ops Op, Int I){T(); I.S(); new I(){void a() {ex(Op, I);} String v() {return ev(Op, I);}}; W(); return this;}
+    Int ie (Ops Op)                                                                                                     // Create an instruction that can either be executed immediately one by one or later en masse
+     {final IntOp o = new IntOp(Op, this, null, null);
+      T();
+      o.action = new I(){void a() {ex(Op);} String v() {return ev(Op);}};
+      write();
+      o.record();
+      return this;
+     }
+
+    Int ie (Ops Op, Int I)                                                                                              // Operation on a variable unless constant propagation has replaced the variable with the constant it always holds
+     {final IntOp o = new IntOp(Op, this, I, null);
+      T(Op);                                                                                                            // Only address the target of set and del as they overwrite it without reading it
+      final int s = codeSize(); I.S(); o.loads = o.code(s);
+      o.action = new I()
+       {void   a() {if (o.constant == null) ex(Op, I); else ex(Op, (int)o.constant);}
+        String v() {return o.constant == null ? ev(Op, I) : ev(Op, (int)o.constant);}
+       };
+      write();
+      o.record();
+      return this;
+     }
+
     Int ie (Ops Op, int I)                                                                                              // Selectively loaded target, store constant for this instruction in the constants map
-     {T(Op);                                                                                                            // Instruction to load target details if needed for the operation otherwise just the index of the target as in the cases of set and del
-      final I i = new I() {void a() {ex(Op, I);} String v() {return ev(Op, I);}};                                       // Perform operation
-      W();                                                                                                              // Write results back into a variable
-      pcConstant(i, I);                                                                                                 // Record the constant used in this operation in the map from instructions to constants used
+     {final IntOp o = new IntOp(Op, this, null, I);
+      T(Op);                                                                                                            // Instruction to load target details if needed for the operation otherwise just the index of the target as in the cases of set and del
+      o.action = new I() {void a() {ex(Op, I);} String v() {return ev(Op, I);}};                                        // Perform operation
+      write();                                                                                                          // Write results back into a variable
+      pcConstant(o.action, I);                                                                                          // Record the constant used in this operation in the map from instructions to constants used
+      o.record();
       return this;                                                                                                      // The current integer
      }
 
     abstract class LoadSourceOrTarget                                                                                   // Set index and values of memory for integer variables
-     {LoadSourceOrTarget(Int I, String MemoryIndex, String MemoryValue, boolean LoadValue)                              // The value should not be set for operations where the target already contains the value to store
+     {LoadSourceOrTarget(Int I, int Port, String MemoryIndex, String MemoryValue, boolean LoadValue)                    // The value should not be set for operations where the target already contains the value to store
        {final String mi = pV(MemoryIndex);                                                                              // Index
         final String mv = pV(MemoryValue);                                                                              // Value
 
+        if (LoadValue && loading(MemoryIndex))                                                                          // Address the variable and wait for its value in a batch of loads
+         {program().loadBatch.push(new Load(MemoryIndex)
+           {void   a ()          {loadId(slot);jTrace(  "%8d ILST1 "+mi+" = %8d",  pc(), slot);}
+            String v (String O)  {return mi + pV(" <= "+O+";")+" "+vTrace(  "%8d ILST1 "+mi+" = %8d", "pc", O);}
+            void   operand (I i, int O) {pcInt(i, O, I);}
+            void   w ()          {checkRegister(I); loadValue(loaded(I)); jTrace(  "%8d ILST2 "+mv+" = %8d",  pc(), loaded(I));}
+            String vw ()         {return          vTrace(  "%8d ILST2 "+mv+" = %8d", "pc",  intMemory().memory(MemoryIndex));}
+           });
+          return;
+         }
+
         final I i = new I()                                                                                             // Load index of integer
          {final String c = mi + pV(" <= arrayData_pcConstant;");
-          void   a() {loadId(id);  jTrace(f("%8d ILST1 "+mi+" = %8d",  pc(), id)                              );}
+          void   a() {loadId(slot);jTrace(  "%8d ILST1 "+mi+" = %8d",  pc(), slot                            );}
           String v() {return c+" "+vTrace(  "%8d ILST1 "+mi+" = %8d", "pc", "arrayData_pcConstant");}
+          Op    op() {return new Op(Opcode.address, this, I, intMemory(), Port, "%8d ILST1 "+mi+" = %8d");}          // Compiled form
+          Ports ports() {return new Ports(null, null, false);}                                                          // Reads no memory output
          };
-        pcConstant(i, I.id);                                                                                            // Id of variable being addressed by these instructions is saved in the PC constant table to allow it to be used on this instruction
+        pcInt(i, I, !LoadValue);                                                                                        // Register of variable being addressed by these instructions is saved in the PC constant table to allow it to be used on this instruction
 
         if (LoadValue) new I()                                                                                          // Value of integer
-         {void   a() {loadValue(I.i); jTrace(f("%8d ILST2 "+mv+" = %8d",  pc(), I.i));}
+         {void   a() {checkRegister(I); loadValue(loaded(I)); jTrace(  "%8d ILST2 "+mv+" = %8d",  pc(), loaded(I));}
           String v() {return          vTrace(  "%8d ILST2 "+mv+" = %8d", "pc",  intMemory().memory(MemoryIndex));}      // The memory module loads the corresponding value field automatically at the end of this instruction cycle
+          Op    op() {return new Op(Opcode.load, this, I, intMemory(), Port, "%8d ILST2 "+mv+" = %8d");}             // Compiled form
          };
        }
 
@@ -617,40 +952,50 @@ public class Program extends Test
      } // LoadSourceOrTarget
 
     void S ()                                                                                                           // Address first source integer and load its value
-     {new LoadSourceOrTarget(this, intMemory().vRead1IntIndex(), intMemory().vRead1Int(), true)
+     {final int r = codeSize();
+      new LoadSourceOrTarget(this, 1, intMemory().vRead1IntIndex(), intMemory().vRead1Int(), true)
        {void loadId   (int I) {sourceIntId(I);}
         void loadValue(int V) {sourceInt  (V);}
        };
+      if (!immediate() && codeSize() > r) program().pcReads.add(r);                                                     // The source is only read unless it was addressed in a batch of loads
      }
 
     void S2 ()                                                                                                          // Address second source integer and loads its value
-     {new LoadSourceOrTarget(this, intMemory().vRead2IntIndex(), intMemory().vRead2Int(), true)
+     {final int r = codeSize();
+      new LoadSourceOrTarget(this, 2, intMemory().vRead2IntIndex(), intMemory().vRead2Int(), true)
        {void loadId   (int I) {source2IntId(I);}
         void loadValue(int V) {source2Int  (V);}
        };
+      if (!immediate() && codeSize() > r) program().pcReads.add(r);                                                     // The source is only read unless it was addressed in a batch of loads
      }
 
     void T () {T(true);}                                                                                                // Address target and load its value
     void T (Ops Op) {T(Op != Ops.set && Op != Ops.del);}                                                                // Address target and load its value if needed
 
     void T (boolean LoadValue)                                                                                          // Address target optionally loading its value
-     {new LoadSourceOrTarget(this, intMemory().vRead0IntIndex(), intMemory().vRead0Int(), LoadValue)
+     {new LoadSourceOrTarget(this, 0, intMemory().vRead0IntIndex(), intMemory().vRead0Int(), LoadValue)
        {void loadId   (int I) {targetIntId(I);}
         void loadValue(int V) {intMemory().read0Int = V;}                                                               // targetInt(V) would have set the write file rather than the read field
        };
      }
 
-    void W ()                                                                                                           // Write result back into an integer variable whose index has been loaded by T ()
+    void W () {stored = true; write();}                                                                                 // Write the value in the write integer register back into an integer variable whose index has been loaded by T ()
+
+    void write ()                                                                                                       // Write result back into an integer variable whose index has been loaded by T ()
      {final Int    w = this;                                                                                            // Set index locating the integer to be written to
       final Memory M = intMemory();
       new I()                                                                                                           // Load value into integer or memory
        {final String f = "%8d writeInt %8d = %8d";
-        void   a() {i = M.writeInt; M. writeIntEnable = true;        jTrace(f(f,  currentPc(), M. read0IntIndex,   M. writeInt ));}
+        void   a() {i = M.writeInt; M. writeIntEnable = true;        jTrace(  f,  currentPc(), M. read0IntIndex,   M. writeInt );}
         String v() {return          M.vWriteIntEnable() + " <= 1; "+ vTrace(  f, "pc",         M.vRead0IntIndex(), M.vWriteInt());}
+        Op    op() {return new Op(Opcode.write, this, w, M, 0, f);}                                                     // Compiled form
+        Ports ports() {return new Ports(null, M, false);}                                                               // Raises the write enable
        };
       new I()                                                                                                           // Lower  right enable - which could be merged with the next instruction
-       {void   a() {if (!immediate()) M.units[M.read0IntIndex] = M.writeInt; M.writeIntEnable = false; jTrace(f("%8d Disable write", currentPc()));}
+       {void   a() {if (!immediate()) M.unit(M.read0IntIndex, M.writeInt); M.writeIntEnable = false; jTrace(  "%8d Disable write", currentPc());}
         String v() {return M.vWriteIntEnable() + " <= 0; "+                                            vTrace(  "%8d Disable write", "pc")+" /* Finish integer write */";}
+        Op    op() {return new Op(Opcode.finish, this, w, M, 0, "%8d Disable write");}                                  // Compiled form: only delayed code is compiled so the value is always stored
+        Ports ports() {return new Ports(M, null, false);}                                                               // Only lowers the write enable
        };
      }
 
@@ -716,7 +1061,8 @@ public class Program extends Test
      }
 
     String ev (Ops Op, int I)                                                                                           // Execute a monadic integer operation on a constant
-     {final String        n = intMemory().vRead0Int(), c = pV("arrayData_pcConstant");                                  // The constant will be stored in the instruction to constant map
+     {if (shareArms) return sev(Op, true);                                                                              // Select the operator in the shared arm
+      final String        n = intMemory().vRead0Int(), c = pV("arrayData_pcConstant");                                  // The constant will be stored in the instruction to constant map
       final StringBuilder s = new StringBuilder();
       switch (Op)
        {case set  -> {s.append(        c+"/*seti*/");}
@@ -733,7 +1079,8 @@ public class Program extends Test
      }
 
     String ev (Ops Op, Int I)                                                                                           // Execute a monadic integer operation on a variable
-     {final String        n = intMemory().vRead0Int(), i = intMemory().vRead1Int();                                     // Memory fields for target and source integers
+     {if (shareArms) return sev(Op, false);                                                                             // Select the operator in the shared arm
+      final String        n = intMemory().vRead0Int(), i = intMemory().vRead1Int();                                     // Memory fields for target and source integers
       final StringBuilder s = new StringBuilder();
       switch (Op)
        {case set  -> {s.append(        i+"/*setI*/");}
@@ -748,6 +1095,25 @@ public class Program extends Test
       return vExecuteAndTrace(""+s);
      }
 
+    final static Ops[] sharedOps = {Ops.set, Ops.add, Ops.sub, Ops.mul, Ops.div, Ops.mod, Ops.add2};                    // Integer operations on a second operand in the order of their selectors in the shared arm
+
+    static int sharedOperator (Ops Op, boolean Constant)                                                                // Selector of an integer operation in the shared arm: the operation in the low three bits and whether the second operand is the constant of the instruction in bit three
+     {final int o = Arrays.asList(sharedOps).indexOf(Op == Ops.del ? Ops.set : Op);                                     // Delete writes its constant just as set does
+      if (o < 0) stop("Op not implemented:", Op);
+      return o | (Constant ? 8 : 0);
+     }
+
+    String sev (Ops Op, boolean Constant)                                                                               // Execute an integer operation in the arm shared by all the operations on a second operand so that only the pcOperator entry of the instruction differs between them
+     {pcOperator(compiling(), sharedOperator(Op, Constant));
+      final String o = "arrayData_pcOperator", n = intMemory().vRead0Int();
+      final String b = "("+o+"[3] ? arrayData_pcConstant : "+intMemory().vRead1Int()+")";                               // Second operand
+      final String[]e = {b, n+" + "+b, n+" - "+b, n+" * "+b, n+" / "+b, n+" % "+b, n+" + "+b+" + "+b};                  // Value of each operation in selector order
+      final StringBuilder s = new StringBuilder("(");
+      for (int i = 0; i < e.length - 1; i++) s.append(o+"[2:0] == "+i+" ? "+e[i]+" : ");
+      s.append(e[e.length-1]+")");
+      return vExecuteAndTrace(""+s);
+     }
+
     final String atf = "%8d assign writeInt = %8d";                                                                     // Trace format for an assign statement
 
     String vExecuteAndTrace (String Value)                                                                              // Execute and trace an integer operation in Verilog
@@ -756,7 +1122,7 @@ public class Program extends Test
       final String v = vTrace(  atf, "pc",         Value);
       return t + " <= " + s + v;
      }
-    void jtrace ()    {jTrace(f(atf,  currentPc(), intMemory().writeInt));}                                             // Trace the integer operation in Java
+    void jtrace ()    {jTrace(  atf,  currentPc(), intMemory().writeInt);}                                              // Trace the integer operation in Java
 
     Int  Add (int I) {return dup().add(I) ;}                                                                            // Duplicate the target so that a copy is modified rather than the original integer
     Int  Add (Int I) {return dup().add(I) ;}
@@ -793,7 +1159,7 @@ public class Program extends Test
 
     Bit bie (Ops Op, int I)                                                                                             // Instruction to perform a boolean comparison between an integer variable and an integer constant
      {final Bit b = new Bit();
-      S(); b.T();
+      loads(() -> {S(); b.T();});
       final I i = new I()
        {void   a() {       bex(Op, b, I);}
         String v() {return bev(Op, b, I);}
@@ -805,7 +1171,7 @@ public class Program extends Test
 
     Bit bie (Ops Op, Int I)                                                                                             // Instruction to perform a boolean comparison between two integer variables
      {final Bit b = new Bit();
-      S(); I.S2(); b.T();
+      loads(() -> {S(); I.S2(); b.T();});
       new I()
        {void   a() {I.x(); bex(Op, b, I);}
         String v() {return bev(Op, b);}
@@ -832,7 +1198,8 @@ public class Program extends Test
     void bex (Ops Op, Bit B, Int I) {I.x(); bex(Op, B, I.i);}                                                           // Boolean comparison between two integer variables
 
     String bev (Ops Op, Bit B)                                                                                          // Boolean comparison between two integers
-     {final StringBuilder s = new StringBuilder();
+     {if (shareArms) return sbev(Op, B, false);                                                                         // Select the comparison in the shared arm
+      final StringBuilder s = new StringBuilder();
       final String a = intMemory().vRead1Int(), b = intMemory().vRead2Int();
       switch(Op)
        {case eq -> s.append(a + " == " + b+"/*eq*/");
@@ -847,7 +1214,8 @@ public class Program extends Test
      }
 
     String bev (Ops Op, Bit B, int I)                                                                                   // Boolean comparison between two integers
-     {final StringBuilder s = new StringBuilder();
+     {if (shareArms) return sbev(Op, B, true);                                                                          // Select the comparison in the shared arm
+      final StringBuilder s = new StringBuilder();
       final String a = intMemory().vRead1Int(), b = pV("arrayData_pcConstant");
       switch(Op)
        {case eq -> s.append(a + " == " + b+"/*eqi*/");
@@ -861,6 +1229,21 @@ public class Program extends Test
       return B.vtrace(s);
      }
 
+    static int sharedComparison (Ops Op, boolean Constant)                                                              // Selector of a comparison in the shared arm: the result when less, equal and greater in bits zero to two and whether the second operand is the constant of the instruction in bit three
+     {final int c = switch(Op)
+       {case lt -> 1; case eq -> 2; case le -> 3; case gt -> 4; case ne -> 5; case ge -> 6;
+        default -> {stop("Op not implemented:", Op); yield 0;}
+       };
+      return c | (Constant ? 8 : 0);
+     }
+
+    String sbev (Ops Op, Bit B, boolean Constant)                                                                       // Compare in the arm shared by all the comparisons so that only the pcOperator entry of the instruction differs between them
+     {pcOperator(compiling(), sharedComparison(Op, Constant));
+      final String o = "arrayData_pcOperator", a = intMemory().vRead1Int();
+      final String b = "("+o+"[3] ? arrayData_pcConstant : "+intMemory().vRead2Int()+")";                               // Second operand
+      return B.vtrace(new StringBuilder("("+a+" < "+b+" ? "+o+"[0] : "+a+" == "+b+" ? "+o+"[1] : "+o+"[2])"));
+     }
+
     Int dup () {return new Int(this);}                                                                                  // Duplicate an integer so that the duplicated version can be modified without modifying the original
 
     void setValid () {v = true;}                                                                                        // Mark an integer as valid
@@ -970,7 +1353,7 @@ public class Program extends Test
 
   I nop()                                                                                                               // Test an Integer. The value expected and the value got must be valid during the Java execution because the Verilog execution deliberately removes this information on the basis that the Java code is definitive and so if the Verilog trace matches the Java trace the Verilog code is working correctly. The purpose of the validity bit is to internally track whether the integer was ever set during program execution, it is not to convey application information. If an integer with an attached validity bit is required in application logic then Bint should be used.  This feature does not exist in the Verilog code and so there will be an empty instruction generated in the Verilog to "regulate the service"
    {return new I()
-     {void   a() {                     jTrace(f("%8d NOP", currentPc()));}
+     {void   a() {                     jTrace(  "%8d NOP", currentPc());}
       String v() {return "/* NOP */" + vTrace(  "%8d NOP", "pc"        );}
      };
    }
@@ -985,6 +1368,11 @@ public class Program extends Test
    {final String name;                                                                                                  // Optional name for the memory
     private final int  id;                                                                                              // Unique identifier for this memory
     private int []  units;                                                                                              // Bytes of main memory
+    private MappedByteBuffer file = null;                                                                               // File mapped into this memory if not null
+    private IntBuffer      mapped = null;                                                                               // Units mapped from a file when not null - the operating system pages them in as needed
+    private int []         image  = null;                                                                               // Content of a mapped memory at the start of execution: restored before each execution of the code and loaded by the Verilog memory module
+    private long[]          dirty;                                                                                      // One bit for each block of units written since the last checkpoint
+    static final int   dirtyBlock = 16;                                                                                 // Number of units in a block tracked for checkpoints
     boolean       read0Bit = false;                                                                                     // Boolean read from memory first memory port
     boolean       read1Bit = false;                                                                                     // Boolean read from memory second memory port
     boolean       read2Bit = false;                                                                                     // Boolean read from memory third memory port
@@ -1001,21 +1389,69 @@ public class Program extends Test
     int      read2BitIndex = 0;                                                                                         // Index within an integer from which to get a bit third memory port
     boolean writeIntEnable = false;                                                                                     // Enable write for an integer
     boolean writeBitEnable = false;                                                                                     // Enable write for a boolean
-
-    void reallocate (final int Size) {units = new int[Size];}                                                           // Resize the memory
+    int                  width = Integer.SIZE;                                                                          // Bits held in each unit: a narrower memory holds only non negative values that fit
+    private int []      widths = null;                                                                                  // Bits held in each unit when each unit has been narrowed to the values its own variables can hold or null if every unit has the same width
+    private boolean     packed = false;                                                                                 // Each unit holds 32 boolean registers
+    private int []        tags = null;                                                                                  // Generation in which each unit was last written when the memory is generational
+    int             generation = 0;                                                                                     // Current generation: units tagged with an earlier generation read as zero
+
+    void reallocate (final int Size)                                                                                    // Resize the memory to hold the specified number of registers
+     {final int n = packed ? (Size + bitsPerUnit() - 1) / bitsPerUnit() : Size;                                         // Units needed
+      units = new int[n]; file = null; mapped = null; allDirty();
+      if (tags != null) {tags = new int[n]; generation = 0;}
+     }
 
     static int bitsPerUnit() {return Integer.SIZE;}                                                                     // Bits per memory unit
+    int         blockWidth() {return blockUnits;}                                                                       // Units moved in each clock cycle by the block engine
 
     Memory (int Length, String Name)                                                                                    // Create and clear some memory
      {name = Name;
       units = new int[Length];
       for(int i = 0; i < Length; ++i) units[i] = 0;                                                                     // Clear memory. In Verilog this is done using readmemh in an initial block. For a real chip perhaps an instruction to do this?
+      allDirty();                                                                                                       // The first checkpoint is a complete one
       final Stack<Memory> m = memories(); id = m.size(); m.push(this);                                                  // Give the memory a unique identifier and save it in the main program
      }
 
     Memory (int Length) {this(Length, null);}                                                                           // Create and clear some unnamed memory
 
-    int size ()                    {return units.length;}                                                               // Size of memory
+    int size ()                    {return mapped == null ? units.length : mapped.capacity();}                          // Size of memory
+    int unit (int I)                                                                                                    // Get a unit from the heap or from the mapped file or zero if it was written before the last generational clear
+     {if (tags != null && tags[I] != generation) return 0;
+      return mapped == null ? units[I] : mapped.get(I);
+     }
+    void unit (int I, int V)                                                                                            // Set a unit on the heap or in the mapped file and mark its block as dirty
+     {final int w = unitWidth(I);
+      if (w < Integer.SIZE && V >>> w != 0) stop("Value", V, "does not fit in the", w, "bits of unit", I, "of memory", n()); // Check before storing so that the memory never holds a value its Verilog could not
+      if (mapped == null) units[I] = V; else mapped.put(I, V);
+      if (tags != null) tags[I] = generation;                                                                           // Tag the unit with the current generation
+      final int b = I / dirtyBlock; dirty[b >>> 6] |= 1L << b;
+     }
+    void index (int Port, int I)                                                                                        // Set the index presented to the specified read port
+     {switch(Port) {case 0 -> read0IntIndex = I; case 1 -> read1IntIndex = I; default -> read2IntIndex = I;}
+     }
+    void value (int Port, int V)                                                                                        // Set the integer presented by the specified read port
+     {switch(Port) {case 0 -> read0Int = V;      case 1 -> read1Int = V;      default -> read2Int = V;}
+     }
+    boolean generational ()        {return tags != null;}                                                               // Whether this memory clears by advancing its generation
+    Memory  width (int Bits)       {width = max(1, min(Bits, Integer.SIZE)); return this;}                              // Hold only non negative values that fit in the specified number of bits in each unit
+    Memory  unitWidths (int[]Bits) {widths = Bits; return this;}                                                        // Hold only non negative values that fit in the specified number of bits in each unit individually
+    int     unitWidth (int I)      {return widths != null && I < widths.length ? widths[I] : width;}                    // Bits held in the specified unit
+    Memory  packs ()               {if (packBits) packed = true; return this;}                                          // Hold 32 boolean registers in each unit of this memory
+    int     register (int I)                                                                                            // Get a register which is a bit within a unit when the memory is packed
+     {final int w = bitsPerUnit();
+      return packed ? unit(I / w) >>> I % w & 1 : unit(I);
+     }
+    void    register (int I, int V)                                                                                     // Set a register by updating only its bit when the memory is packed
+     {final int w = bitsPerUnit();
+      if (!packed) {unit(I, V); return;}
+      final int u = I / w, b = I % w;
+      unit(u, unit(u) & ~(1 << b) | (V != 0 ? 1 : 0) << b);
+     }
+    Memory  generations ()                                                                                              // Clear this memory in one cycle by advancing its generation rather than by writing zero to every unit
+     {if (generationClears && tags == null) tags = new int[size()];
+      return this;
+     }
+    boolean mapped ()              {return mapped != null;}                                                             // Whether this memory is mapped from a file
     String i ()                    {return ""+id;}                                                                      // Number of memory a string for use in writing Verilog
     String n ()                    {return this == intMemory() ? "ints" : this == bitMemory() ? "bits" : "m_"+id;}      // Name of memory
     String m ()                    {return "memory_"+n();}                                                              // Name of memory module used to externalize memory for Yosys
@@ -1025,8 +1461,8 @@ public class Program extends Test
     String nameSp ()               {return name == null ? "" : " "+name;}                                               // Simplifies code that would otherwise leave a trailing blank when a name was not supplied by the caller
     String dumpVerilogMemoryInDecimalName () {return "dumpDecimal_"+id;}                                                // Name of the Verilog routine to dump this memory in decimal
 
-    void                im (Int I) {pcConstant(compiling(), I.id);}                                                     // Save the integer variable used for this memory access at this instruction
-    void                im (Bit B) {pcConstant(compiling(), B.id);}                                                     // Save the boolean variable used for this memory access at this instruction
+    void                im (Int I) {pcInt(compiling(), I, false);}                                                      // Save the integer variable used for this memory access at this instruction
+    void                im (Bit B) {pcBit(compiling(), B, false);}                                                      // Save the boolean variable used for this memory access at this instruction
 
     String             wdi ()      {return vWriteIntEnable() + " <= 0; ";}                                              // Write disable integer
     String             wdb ()      {return vWriteBitEnable() + " <= 0; ";}                                              // Write disable boolean
@@ -1049,7 +1485,34 @@ public class Program extends Test
     String  vRead2BitIndex ()      {return n() + "_read2BitIndex ";}                                                    // Index within third integer from which to get a bit
     String vWriteIntEnable ()      {return n() + "_writeIntEnable";}                                                    // Write enable flag
     String vWriteBitEnable ()      {return n() + "_writeBitEnable";}                                                    // Write enable flag
-    String         vMemory (int I) {return n() + ".memory["+I+"]" ;}                                                    // Memory reference
+    String    vBlockSource ()      {return n() + "_blockSource";}                                                       // Index of the next unit to be copied by the block engine
+    String    vBlockTarget ()      {return n() + "_blockTarget";}                                                       // Index of the next unit to be written by the block engine
+    String     vBlockCount ()      {return n() + "_blockCount";}                                                        // Units still to be moved by the block engine
+    String    vBlockEnable ()      {return n() + "_blockEnable";}                                                       // Block engine running
+    String     vBlockClear ()      {return n() + "_blockClear";}                                                        // Block engine is writing zeros
+    String      vBlockDown ()      {return n() + "_blockDown";}                                                         // Block engine is moving the highest units first
+    String     vGeneration ()      {return n() + "_generation";}                                                        // Current generation of the memory
+    String      vScanEnable ()     {return n() + "_scanEnable";}                                                        // Priority encode a bit set at the next clock edge
+    String        vScanBase ()     {return n() + "_scanBase";}                                                          // Unit holding the first bit of the bit set
+    String        vScanFrom ()     {return n() + "_scanFrom";}                                                          // Index of the first bit to examine
+    String        vScanSize ()     {return n() + "_scanSize";}                                                          // Number of bits in the bit set
+    String         vScanOne ()     {return n() + "_scanOne";}                                                           // Value of the bit sought
+    String          vScanUp ()     {return n() + "_scanUp";}                                                            // Search towards higher indices
+    String       vScanIndex ()     {return n() + "_scanIndex";}                                                         // Index of the bit found or -1
+    String     vMatchEnable ()     {return n() + "_matchEnable";}                                                       // Compare every key at the next clock edge
+    String       vMatchBase ()     {return n() + "_matchBase";}                                                         // Base of the slots being searched
+    String        vMatchKey ()     {return n() + "_matchKey";}                                                          // Key being searched for
+    String      vMatchOrder ()     {return n() + "_matchOrder";}                                                        // Offset from the base of the slots to keys array
+    String       vMatchUsed ()     {return n() + "_matchUsed";}                                                         // Offset from the base of the bits showing which slots are in use
+    String       vMatchKeys ()     {return n() + "_matchKeys";}                                                         // Offset from the base of the keys
+    String      vMatchCount ()     {return n() + "_matchCount";}                                                        // Number of slots to compare
+    String       vMatchSlot ()     {return n() + "_matchSlot";}                                                         // Slot found by the search
+    String      vMatchLower ()     {return n() + "_matchLower";}                                                        // Search key is less than or equal to the key in the found slot
+    String     vMatchHigher ()     {return n() + "_matchHigher";}                                                       // Search key is greater than or equal to the key in the found slot
+    String         vMemory (int I)                                                                                      // Memory reference to a register
+     {final int w = bitsPerUnit();
+      return packed ? "(("+n()+".memory["+I/w+"] >> "+I%w+") & 1)" : n() + ".memory["+I+"]";
+     }
 
     int pc() {return currentPc();}
 
@@ -1057,7 +1520,8 @@ public class Program extends Test
      {subStart("Program.Memory.copy");
       final Memory S = SourceMemory;
 
-      new ForCount(Width)
+      if (S == this && blockWidth() > 0) block(SourceOffset, TargetOffset, new Int(Width), false);                      // Copy within this memory with the block engine
+      else new ForCount(Width)
        {void body(Int Index)
          {final Int s = SourceOffset.Add(Index);
           final Int t = TargetOffset.Add(Index);
@@ -1072,7 +1536,16 @@ public class Program extends Test
     Memory clear ()                                                                                                     // Clear memory in Java
      {subStart("Program.Memory.clear(I)");
       final Int z = new Int(0);
-      new ForCount(size()) {void  body(Int Index) {putInt(Index, z);}};
+      if (generational())                                                                                               // Clear in one cycle by starting a new generation
+       {new I()
+         {void   a() {++generation; jTrace(  "%8d clear Generation %8d",  currentPc(), generation);}
+          String v() {return vGeneration() + " <= " + vGeneration() + " + 1; " +
+                             vTrace(  "%8d clear Generation %8d", "pc",        vGeneration() + " + 1");
+                     }
+         };
+       }
+      else if (blockWidth() > 0) block(z, z, new Int(size()), true);                                                    // Clear with the block engine
+      else new ForCount(size()) {void  body(Int Index) {putInt(Index, z);}};
       subFinish();
       return this;
      }
@@ -1080,37 +1553,293 @@ public class Program extends Test
     Memory clear (Int Start, int Width)                                                                                 // Clear memory range in Java
      {subStart("Program.Memory.clear(II)");
       final Int z = new Int(0);
-      new ForCount (Start, Start.Add(Width)) {void  body(Int Index) {putInt(Index, z);}};
+      if (blockWidth() > 0) block(Start, Start, new Int(Width), true);                                                  // Clear with the block engine
+      else new ForCount (Start, Start.Add(Width)) {void  body(Int Index) {putInt(Index, z);}};
+      subFinish();
+      return this;
+     }
+
+    Memory shift (Int Start, Int Width, int By)                                                                         // Shift the specified units up or down by the specified number of positions
+     {subStart("Program.Memory.shift");
+      final Int t = Start.Add(By);
+      if (blockWidth() > 0) block(Start, t, Width, false);                                                              // Shift with the block engine
+      else new ForCount(Width)
+       {void body(Int Index)
+         {final Int i = By > 0 ? Width.Sub(Index).dec() : Index;                                                        // Move the units furthest in the direction of the shift first
+          putInt(t.Add(i), getInt(Start.Add(i)));
+         }
+       };
       subFinish();
       return this;
      }
 
-    Int getInt (Int I)                                                                                                  // Retrieve the indicated integer from this memory using its first read port
+//D2 Block transfers                                                                                                    // Move a block of units within a memory several units in each clock cycle
+
+    int        blockSource = 0;                                                                                         // Index of the next unit to be copied
+    int        blockTarget = 0;                                                                                         // Index of the next unit to be written
+    int         blockCount = 0;                                                                                         // Number of units still to be moved
+    boolean    blockEnable = false;                                                                                     // Move a block of units at the next clock edge
+    boolean     blockClear = false;                                                                                     // Write zeros rather than copying
+    boolean      blockDown = false;                                                                                     // Move the highest units first because the target overlaps the source from above
+
+    void blockStep ()                                                                                                   // Move the next units of a block as the memory module does at each clock edge while the block is enabled
+     {final int w = blockWidth(), n = min(w, blockCount);
+      for (int i = 0; i < n; i++)                                                                                       // Each unit moved this cycle in the order that leaves the units not yet moved intact
+       {final int j = blockDown ? blockCount - 1 - i : i;
+        unit(blockTarget + j, blockClear ? 0 : unit(blockSource + j));
+       }
+      if (blockCount > w)                                                                                               // More units to move
+       {blockCount -= w;
+        if (!blockDown) {blockSource += w; blockTarget += w;}
+       }
+      else {blockCount = 0; blockEnable = false;}                                                                       // Last units moved
+     }
+
+    private void block (Int Source, Int Target, Int Count, boolean Clear)                                               // Copy or clear the specified number of units with the block engine in the memory module
+     {final Memory ints = intMemory();
+      final String   c = Clear ? "1" : "0";
+
+      loads(() -> {Source.T(); Target.S(); Count.S2();});                                                               // Load the source, target and count
+
+      new I()                                                                                                           // Start the block engine
+       {void   a() {blockSource = ints.read0Int; blockTarget = ints.read1Int; blockCount = ints.read2Int; blockClear = Clear;
+                    blockDown   = !Clear && blockTarget > blockSource; blockEnable = blockCount > 0;
+                    jTrace(  "%8d block1 From %8d To %8d Count %8d",  currentPc(), ints. read0Int, ints. read1Int, ints. read2Int);
+                   }
+        String v() {return vBlockSource() + " <= " + ints.vRead0Int() + "; " + vBlockTarget() + " <= " + ints.vRead1Int() + "; " +
+                           vBlockCount () + " <= " + ints.vRead2Int() + "; " + vBlockClear () + " <= " + c + "; " +
+                           vBlockDown  () + " <= " + (Clear ? "0" : ints.vRead1Int() + " > " + ints.vRead0Int()) + "; " +
+                           vBlockEnable() + " <= " + ints.vRead2Int() + " > 0; " +
+                           vTrace(  "%8d block1 From %8d To %8d Count %8d", "pc",        ints.vRead0Int(), ints.vRead1Int(), ints.vRead2Int());
+                   }
+       };
+
+      new I(false)                                                                                                      // Repeat until the memory module has moved every unit
+       {void   a() {final int n = blockCount;
+                    do blockStep(); while (immediate() && blockEnable);                                                 // An immediate program cannot repeat an instruction so it moves the whole block at once
+                    if (blockEnable) program().pc = program().currentPc;                                                // Repeat this instruction
+                    jTrace(  "%8d block2 Remaining %8d",  currentPc(), n);
+                   }
+        String v() {final String w = ""+blockWidth();
+                    return "if (" + vBlockCount() + " > " + w + ") begin " +
+                             vBlockCount() + " <= " + vBlockCount() + " - " + w + "; " +
+                             "if (!" + vBlockDown() + ") begin " +
+                               vBlockSource() + " <= " + vBlockSource() + " + " + w + "; " +
+                               vBlockTarget() + " <= " + vBlockTarget() + " + " + w + "; end end " +
+                           "else begin " + vBlockEnable() + " <= 0; pc <= pc + 1; end " +
+                           vTrace(  "%8d block2 Remaining %8d", "pc",        vBlockCount());
+                   }
+       };
+     }
+
+//D2 Priority encoders                                                                                                  // Locate the first bit with a specified value in a bit set in one clock cycle
+
+    int           scanBase = 0;                                                                                         // Unit holding the first bit of the bit set
+    int           scanFrom = 0;                                                                                         // Index of the first bit to examine
+    int          scanIndex = -1;                                                                                        // Index of the bit found or -1
+    int          scanWidth = 0;                                                                                         // Largest bit set scanned in this memory: the width of the priority encoder in the memory module
+
+    int scan (int Base, int From, int Size, boolean One, boolean Up)                                                    // Index of the first bit with the specified value at or beyond From in the specified direction amongst the Size bits starting at unit Base else -1
+     {final int W = Integer.SIZE;
+      final int f = Up ? max(From, 0) : min(From, Size - 1);                                                            // Start within the bit set
+      if (f < 0 || f >= Size) return -1;
+      if (Up)
+       {for (int u = f / W; u * W < Size; u++)
+         {final int w = (One ? unit(Base + u) : ~unit(Base + u)) & (u == f / W ? -1 << f % W : -1);                     // Ignore the bits below the start in the first unit
+          if (w != 0) {final int i = u * W + Integer.numberOfTrailingZeros(w); return i < Size ? i : -1;}
+         }
+       }
+      else
+       {for (int u = f / W; u >= 0; u--)
+         {final int w = (One ? unit(Base + u) : ~unit(Base + u)) & (u == f / W ? -1 >>> W - 1 - f % W : -1);           // Ignore the bits above the start in the first unit
+          if (w != 0) return u * W + W - 1 - Integer.numberOfLeadingZeros(w);
+         }
+       }
+      return -1;
+     }
+
+    Int scan (Int Base, Int From, int Delta, int Size, boolean One, boolean Up)                                         // Locate the first bit with the specified value at or beyond From plus Delta, or at Delta if From is null, in the specified direction amongst the Size bits starting at unit Base. Returns the index of the bit else -1
+     {final Int       r = new Int();
+      r.stored = true;                                                                                                  // Written by the priority encoder
+      final Memory ints = intMemory();
+      final boolean   x = !immediate();                                                                                 // The integer memory is not created during immediate execution
+      final String    f = From == null ? ""+Delta : ints.vRead1Int() + " + " + Delta;                                   // Start of the scan
+      final String    c = vScanSize() + " <= " + Size + "; " + vScanOne() + " <= " + (One ? 1 : 0) + "; " + vScanUp() + " <= " + (Up ? 1 : 0) + "; ";
+      scanWidth = max(scanWidth, Size);
+
+      loads(() -> {Base.T(); if (From != null) From.S();});                                                             // Load the base of the bit set and the start of the scan
+
+      new I()                                                                                                           // Present the bit set to the priority encoder
+       {void   a() {scanBase = ints.read0Int; scanFrom = (From == null ? 0 : ints.read1Int) + Delta; scanIndex = scan(scanBase, scanFrom, Size, One, Up);
+                    jTrace(  "%8d scan1 Base %8d From %8d",  currentPc(), ints. read0Int, scanFrom);
+                   }
+        String v() {return vScanBase() + " <= " + ints.vRead0Int() + "; " + vScanFrom() + " <= " + f + "; " + c +
+                           vScanEnable() + " <= 1; " + vTrace(  "%8d scan1 Base %8d From %8d", "pc", ints.vRead0Int(), f);
+                   }
+       };
+
+      final I i = new I()                                                                                               // Prepare to write the index found while the memory module encodes it
+       {void   a() {ints. read0IntIndex = r.slot; jTrace(  "%8d scan2 Set write index %8d",  currentPc(), r.slot);}
+        String v() {return vScanEnable() + " <= 0; " + ints.vRead0IntIndex() + " <= arrayData_pcConstant; " +
+                           vTrace(  "%8d scan2 Set write index %8d", "pc", "arrayData_pcConstant");
+                   }
+       };
+      pcInt(i, r, true);
+
+      new I()                                                                                                           // Write the index found
+       {void   a() {r.i = scanIndex; r.v = true; ints.writeInt = scanIndex; ints.writeIntEnable = true;
+                    jTrace(  "%8d scan3 Index %8d",  currentPc(), scanIndex);
+                   }
+        String v() {return ints.vWriteInt() + " <= " + vScanIndex() + "; " + ints.vWriteIntEnable() + " <= 1; " +
+                           vTrace(  "%8d scan3 Index %8d", "pc", vScanIndex());
+                   }
+        Ports ports() {return new Ports(null, ints, true);}                                                             // Raises the write enable
+       };
+
+      new I()                                                                                                           // Complete write
+       {void   a() {if (x) ints.unit(r.slot, r.i); ints.writeIntEnable = false; jTrace(  "%8d scan4 disable write",  currentPc());}
+        String v() {return                           ints.vWriteIntEnable() + " <= 0; " + vTrace(  "%8d scan4 disable write", "pc");}
+        Ports ports() {return new Ports(ints, null, false);}                                                            // Only lowers the write enable
+       };
+      return r;
+     }
+
+//D2 Content addressable search                                                                                         // Compare a key against the keys of every used slot at once
+
+    int          matchBase = 0;                                                                                         // Base of the slots being searched
+    int           matchKey = 0;                                                                                         // Key being searched for
+    int          matchSlot = 0;                                                                                         // Slot found by the search
+    boolean     matchLower = false;                                                                                     // Search key is less than or equal to the key in the found slot
+    boolean    matchHigher = false;                                                                                     // Search key is greater than or equal to the key in the found slot
+    int         matchWidth = 0;                                                                                         // Largest number of slots compared by any search of this memory: the number of comparators in the memory module
+
+    void matchStep (int Order, int Used, int Keys, int Count)                                                           // Compare the key with the key of every used slot as the memory module does in one clock cycle and encode the lowest slot whose key is not less than it
+     {int ge = -1, last = -1;
+      for (int i = 0; i < Count; i++)
+       {if (!Test.getBit(unit(matchBase + Used + i / Integer.SIZE), i % Integer.SIZE)) continue;                        // Slot not in use
+        if (ge < 0 && unit(matchBase + Keys + unit(matchBase + Order + i)) >= matchKey) ge = i;                         // Lowest used slot whose key is not less than the search key
+        last = i;                                                                                                       // Highest used slot
+       }
+      if (ge >= 0)                                                                                                      // Found a key greater than or equal to the search key
+       {matchSlot = ge; matchLower = true;
+        matchHigher = unit(matchBase + Keys + unit(matchBase + Order + ge)) == matchKey;
+       }
+      else if (last >= 0) {matchSlot = last; matchLower = false; matchHigher = true; }                                  // Search key is higher than every key
+      else                {matchSlot = 0;    matchLower = false; matchHigher = false;}                                  // No slots in use
+     }
+
+    final class Match                                                                                                   // Result of a content addressable search
+     {final Int  slot   = new Int();                                                                                    // Slot found
+      final Bit  lower  = new Bit();                                                                                    // Search key is less than or equal to the key in the found slot
+      final Bit  higher = new Bit();                                                                                    // Search key is greater than or equal to the key in the found slot
+     }
+
+    Match match (Int Base, Int Key, int Order, int Used, int Keys, int Count)                                           // Compare the key against the keys of the first Count slots at Base in one cycle. Order is the offset of the slot to key index array, Used the offset of the bits showing which slots are in use and Keys the offset of the keys. Returns the lowest used slot whose key is not less than the search key else the highest used slot else slot zero
+     {final Match     r = new Match();
+      r.slot.stored = true;                                                                                             // Written by the memory module
+      final Memory ints = intMemory();
+      final Memory bits = bitMemory();
+      final boolean   x = !immediate();                                                                                 // The integer and bit memories are not created during immediate execution
+      final String    c = vMatchOrder() + " <= " + Order + "; " + vMatchUsed() + " <= " + Used + "; " + vMatchKeys() + " <= " + Keys + "; " + vMatchCount() + " <= " + Count + "; ";
+      matchWidth = max(matchWidth, Count);
+
+      loads(() -> {Base.T(); Key.S();});                                                                                // Load the base of the slots and the search key
+
+      new I()                                                                                                           // Present the key to the comparators
+       {void   a() {matchBase = ints.read0Int; matchKey = ints.read1Int; matchStep(Order, Used, Keys, Count);
+                    jTrace(  "%8d match1 Base %8d Key %8d",  currentPc(), ints. read0Int, ints. read1Int);
+                   }
+        String v() {return vMatchBase() + " <= " + ints.vRead0Int() + "; " + vMatchKey() + " <= " + ints.vRead1Int() + "; " + c +
+                           vMatchEnable() + " <= 1; " + vTrace(  "%8d match1 Base %8d Key %8d", "pc", ints.vRead0Int(), ints.vRead1Int());
+                   }
+       };
+
+      final I i = new I()                                                                                               // Prepare to write the slot found while the memory module compares the keys
+       {void   a() {ints. read0IntIndex = r.slot.slot; jTrace(  "%8d match2 Set write index %8d",  currentPc(), r.slot.slot);}
+        String v() {return vMatchEnable() + " <= 0; " + ints.vRead0IntIndex() + " <= arrayData_pcConstant; " +
+                           vTrace(  "%8d match2 Set write index %8d", "pc", "arrayData_pcConstant");
+                   }
+       };
+      pcInt(i, r.slot, true);
+
+      final I j = new I()                                                                                               // Write the slot found and prepare to write the first comparison
+       {void   a() {r.slot.i = matchSlot; r.slot.v = true; ints.writeInt = matchSlot; ints.writeIntEnable = true; bits.read0IntIndex = r.lower.slot;
+                    jTrace(  "%8d match3 Slot %8d",  currentPc(), matchSlot);
+                   }
+        String v() {return ints.vWriteInt() + " <= " + vMatchSlot() + "; " + ints.vWriteIntEnable() + " <= 1; " + bits.vRead0IntIndex() + " <= arrayData_pcConstant; " +
+                           vTrace(  "%8d match3 Slot %8d", "pc", vMatchSlot());
+                   }
+       };
+      pcBit(j, r.lower, true);
+
+      new I()                                                                                                           // Complete the write of the slot and write the first comparison
+       {void   a() {if (x) ints.unit(r.slot.slot, r.slot.i); ints.writeIntEnable = false;
+                    r.lower.i = matchLower; r.lower.v = true; bits.writeInt = matchLower ? 1 : 0; bits.writeIntEnable = true;
+                    jTrace(  "%8d match4 Lower %8d",  currentPc(), bits.writeInt);
+                   }
+        String v() {return ints.vWriteIntEnable() + " <= 0; " + bits.vWriteInt() + " <= " + vMatchLower() + "; " + bits.vWriteIntEnable() + " <= 1; " +
+                           vTrace(  "%8d match4 Lower %8d", "pc", vMatchLower());
+                   }
+       };
+
+      final I k = new I()                                                                                               // Complete the write of the first comparison and prepare to write the second
+       {void   a() {if (x) bits.register(r.lower.slot, r.lower.i ? 1 : 0); bits.writeIntEnable = false; bits.read0IntIndex = r.higher.slot;
+                    jTrace(  "%8d match5 Set write index %8d",  currentPc(), r.higher.slot);
+                   }
+        String v() {return bits.vWriteIntEnable() + " <= 0; " + bits.vRead0IntIndex() + " <= arrayData_pcConstant; " +
+                           vTrace(  "%8d match5 Set write index %8d", "pc", "arrayData_pcConstant");
+                   }
+       };
+      pcBit(k, r.higher, true);
+
+      new I()                                                                                                           // Write the second comparison
+       {void   a() {r.higher.i = matchHigher; r.higher.v = true; bits.writeInt = matchHigher ? 1 : 0; bits.writeIntEnable = true;
+                    jTrace(  "%8d match6 Higher %8d",  currentPc(), bits.writeInt);
+                   }
+        String v() {return bits.vWriteInt() + " <= " + vMatchHigher() + "; " + bits.vWriteIntEnable() + " <= 1; " +
+                           vTrace(  "%8d match6 Higher %8d", "pc", vMatchHigher());
+                   }
+        Ports ports() {return new Ports(null, bits, true);}                                                             // Raises the write enable
+       };
+
+      new I()                                                                                                           // Complete write
+       {void   a() {if (x) bits.register(r.higher.slot, r.higher.i ? 1 : 0); bits.writeIntEnable = false; jTrace(  "%8d match7 disable write",  currentPc());}
+        String v() {return                                              bits.vWriteIntEnable() + " <= 0; " + vTrace(  "%8d match7 disable write", "pc");}
+        Ports ports() {return new Ports(bits, null, false);}                                                            // Only lowers the write enable
+       };
+      return r;
+     }
+
+    Int getInt (Int I)                                                                                                  // Retrieve the indicated integer from this memory using its first read port. Both memories read synchronously behind a black box boundary, so the index load, the read of this memory and the write back each cost a clock edge: getInt1 cannot start before ILST2 has delivered the index and getInt2 only fills the read latency of this memory
      {final Int       r = new Int();                                                                                    // Location at which the retrieved integer will be stored in the integer memory
+      r.stored = true;                                                                                                  // Written with whatever this memory holds
       final Memory ints = intMemory();                                                                                  // Integer memory
       final boolean   x = !immediate();                                                                                 // The integer and bit memories are not created during immediate execution
 
       I.T();                                                                                                            // Retrieve value of the indexing integer from the memory that holds integers so it can be used to index this memory
 
       new I()                                                                                                           // Set the target index to read from this memory
-       {void   a() {        read0IntIndex        =     ints. read0Int;       jTrace(f("%8d getInt1 Get index %8d",  currentPc(), ints. read0Int ));}
+       {void   a() {        read0IntIndex        =     ints. read0Int;       jTrace(  "%8d getInt1 Get index %8d",  currentPc(), ints. read0Int );}
         String v() {return vRead0IntIndex() + " <= " + ints.vRead0Int()+"; "+vTrace(  "%8d getInt1 Get index %8d", "pc",         ints.vRead0Int());}
        };
 
       final I i = new I()                                                                                               // Prepare to write the result read from this memory back into the memory used to hold integers
-       {void   a() {       ints. read0IntIndex        =  r.id;                   jTrace(f("%8d getInt2 Set write index %8d",  currentPc(), r.id)                );}
+       {void   a() {       ints. read0IntIndex        =  r.slot;                 jTrace(  "%8d getInt2 Set write index %8d",  currentPc(), r.slot              );}
         String v() {return ints.vRead0IntIndex() + " <= arrayData_pcConstant;" + vTrace(  "%8d getInt2 Set write index %8d", "pc",        "arrayData_pcConstant");}
+        Ports ports() {return new Ports(null, null, false);}                                                            // Reads no memory output
        };
-      pcConstant(i, r.id);
+      pcInt(i, r, true);
 
       new I()                                                                                                           // Write integer obtained from this memory back into the memory that holds integers
-       {void   a() {read0Int = r.i = units[I.i]; r.v = true; ints. writeInt        =      read0Int;       ints. writeIntEnable        = true; jTrace(f("%8d getInt3 save %8d = %8d",  currentPc(), ints. read0IntIndex,    read0Int ));}
+       {void   a() {read0Int = r.i = unit(I.i); r.v = true; ints. writeInt        =      read0Int;       ints. writeIntEnable        = true; jTrace(  "%8d getInt3 save %8d = %8d",  currentPc(), ints. read0IntIndex,    read0Int );}
         String v() {return                                   ints.vWriteInt() + " <= " + vRead0Int()+"; "+ints.vWriteIntEnable() + " <= 1;" + vTrace(  "%8d getInt3 save %8d = %8d", "pc",         ints.vRead0IntIndex(), vRead0Int());}
+        Ports ports() {return new Ports(null, ints, true);}                                                             // Raises the write enable
        };
 
       new I()                                                                                                           // Complete write
-       {void   a() {if (x) ints.units[r.id] = r.i; ints. writeIntEnable        = false; jTrace(f("%8d getInt4 disable write",  currentPc()));}
+       {void   a() {if (x) ints.unit(r.slot, r.i); ints. writeIntEnable        = false; jTrace(  "%8d getInt4 disable write",  currentPc());}
         String v() {return                         ints.vWriteIntEnable() + " <= 0;" +  vTrace(  "%8d getInt4 disable write", "pc"         );}
+        Ports ports() {return new Ports(ints, null, false);}                                                            // Only lowers the write enable
        };
       return r;
      }
@@ -1121,27 +1850,30 @@ public class Program extends Test
       final Memory bits = bitMemory();                                                                                  // Integer memory
       final boolean   x = !immediate();                                                                                 // The integer and bit memories are not created during immediate execution
 
-      I.T(); J.S();                                                                                                     // Retrieve value of the indexing integers from the memory that holds integers so it can be used to index this memory for the desired bit.  Obviously at some point these instructions should be executed in parallel as we have enough read ports to do so
+      loads(() -> {I.T(); J.S();});                                                                                     // Retrieve value of the indexing integers from the memory that holds integers so it can be used to index this memory for the desired bit addressing the second while waiting for the first
 
       new I()                                                                                                           // Set the target index to read from this memory
-       {void   a() {        read0IntIndex        =     ints. read0Int;       read0BitIndex        =     ints. read1Int;       jTrace(f("%8d getBit1 Get index %8d.%8d",  currentPc(), ints. read0Int,   ints. read1Int ));}
+       {void   a() {        read0IntIndex        =     ints. read0Int;       read0BitIndex        =     ints. read1Int;       jTrace(  "%8d getBit1 Get index %8d.%8d",  currentPc(), ints. read0Int,   ints. read1Int );}
         String v() {return vRead0IntIndex() + " <= " + ints.vRead0Int()+";"+vRead0BitIndex() + " <= " + ints.vRead1Int()+"; "+vTrace(  "%8d getBit1 Get index %8d.%8d", "pc",         ints.vRead0Int(), ints.vRead1Int());}
        };
 
       final I i = new I()                                                                                               // Prepare to write the result read from this memory back into the memory used to hold bits
-       {void   a() {       bits. read0IntIndex        =  r.id;                               jTrace(f("%8d getBit2 Set write index %8d",  currentPc(), r.id)                );}
+       {void   a() {       bits. read0IntIndex        =  r.slot;                             jTrace(  "%8d getBit2 Set write index %8d",  currentPc(), r.slot              );}
         String v() {return bits.vRead0IntIndex() + " <= arrayData_pcConstant;" + vTrace(  "%8d getBit2 Set write index %8d", "pc",        "arrayData_pcConstant");}
+        Ports ports() {return new Ports(null, null, false);}                                                            // Reads no memory output
        };
-      pcConstant(i, r.id);
+      pcBit(i, r, true);
 
       new I()                                                                                                           // Write bit obtained from this memory back into the memory that holds bits
-       {void   a() {read0Int = (r.i = Test.getBit(units[I.i], J.i)) ? 1 : 0; r.v = true; bits. writeInt        =      read0Int;       bits. writeIntEnable        = true; jTrace(f("%8d getBit3 save %8d = %8d",  currentPc(), bits. read0IntIndex,    read0Int ));}
+       {void   a() {read0Int = (r.i = Test.getBit(unit(I.i), J.i)) ? 1 : 0; r.v = true; bits. writeInt        =      read0Int;       bits. writeIntEnable        = true; jTrace(  "%8d getBit3 save %8d = %8d",  currentPc(), bits. read0IntIndex,    read0Int );}
         String v() {return                                                               bits.vWriteInt() + " <= " + vRead0Bit()+"; "+bits.vWriteIntEnable() + " <= 1;" + vTrace(  "%8d getBit3 save %8d = %8d", "pc",         bits.vRead0IntIndex(), vRead0Bit());}
+        Ports ports() {return new Ports(null, bits, true);}                                                             // Raises the write enable
        };
 
       new I()                                                                                                           // Complete write
-       {void   a() {if (x) bits.units[r.id] = r.i ? 1 : 0; bits. writeIntEnable        = false; jTrace(f("%8d getBit4 disable write",  currentPc()));}
+       {void   a() {if (x) bits.register(r.slot, r.i ? 1 : 0); bits. writeIntEnable        = false; jTrace(  "%8d getBit4 disable write",  currentPc());}
         String v() {return                                 bits.vWriteIntEnable() + " <= 0;" +  vTrace(  "%8d getBit4 disable write", "pc"         );}
+        Ports ports() {return new Ports(bits, null, false);}                                                            // Only lowers the write enable
        };
       return r;
      }
@@ -1152,19 +1884,17 @@ public class Program extends Test
      {final Int I = Index, J = Value;                                                                                   // Load the index and the value
       final Memory ints = intMemory();
 
-      I.S(); J.S2();                                                                                                    // Load integer values from the integers memory. Improvement: perform these operations in parallel
+      loads(() -> {I.S(); J.S2();});                                                                                    // Load integer values from the integers memory addressing the value while waiting for the index
 
-      new I()                                                                                                           // Set target index of memory to be written while waiting for last read to complete
-       {void   a() {read0IntIndex = ints.read1Int;                           jTrace(f("%8d putInt2 Index %8d",  currentPc(), ints. read1Int ));}
-        String v() {return vRead0IntIndex() + " <= " + ints.vRead1Int()+"; "+vTrace(  "%8d putInt2 Index %8d", "pc",         ints.vRead1Int());}
-       };
-      new I()                                                                                                           // Integer to write
-       {void   a() {        writeInt        =     ints. read2Int;        writeIntEnable        = true; jTrace(f("%8d putInt3 Value %8d",  currentPc(), ints. read2Int ));}
-        String v() {return vWriteInt() + " <= " + ints.vRead2Int()+"; "+vWriteIntEnable() + " <= 1;" + vTrace(  "%8d putInt3 Value %8d", "pc",         ints.vRead2Int());}
+      new I()                                                                                                           // Set the index and the value to write and enable the write in one cycle as the memory module writes at the end of the next one
+       {void   a() {read0IntIndex = ints.read1Int; writeInt = ints.read2Int; writeIntEnable = true;                          jTrace(  "%8d putInt2 Index %8d Value %8d",  currentPc(), ints. read1Int,   ints. read2Int );}
+        String v() {return vRead0IntIndex() + " <= " + ints.vRead1Int()+"; "+vWriteInt() + " <= " + ints.vRead2Int()+"; "+vWriteIntEnable() + " <= 1;" + vTrace(  "%8d putInt2 Index %8d Value %8d", "pc",         ints.vRead1Int(), ints.vRead2Int());}
+        Ports ports() {return new Ports(null, Memory.this, true);}                                                      // Raises the write enable
        };
       new I()                                                                                                           // Finish write
-       {void   a() {units[I.i] = J.i;  writeIntEnable        = false; jTrace(f("%8d putInt4 Finish",  currentPc()));}
-        String v() {return            vWriteIntEnable() + " <= 0;" +  vTrace(  "%8d putInt4 Finish", "pc"         );}
+       {void   a() {unit(I.i, J.i);  writeIntEnable        = false; jTrace(  "%8d putInt3 Finish",  currentPc());}
+        String v() {return            vWriteIntEnable() + " <= 0;" +  vTrace(  "%8d putInt3 Finish", "pc"         );}
+        Ports ports() {return new Ports(Memory.this, null, false);}                                                     // Only lowers the write enable
        };
       return this;
      }
@@ -1174,19 +1904,17 @@ public class Program extends Test
       final Memory bits = bitMemory();
       final Memory ints = intMemory();
 
-      K.S(); I.S(); J.S2();                                                                                             // Retrieve the value of the bit from the bit memory and the values of the integers from the integer memory.  Improvement: these instructions should be in parallel
+      loads(() -> {K.S(); I.S(); J.S2();});                                                                             // Retrieve the value of the bit from the bit memory and the values of the integers from the integer memory addressing each while waiting for the one before
 
-      new I()                                                                                                           // Set target index of memory to be written
-       {void   a() {        read0IntIndex        =     ints. read1Int;        read0BitIndex        =     ints.read2Int;        jTrace(f("%8d putBit2 Index %8d.%8d",  currentPc(), ints. read1Int,   ints.read2Int  ));}
-        String v() {return vRead0IntIndex() + " <= " + ints.vRead1Int()+"; "+vRead0BitIndex() + " <= " + ints.vRead2Int()+"; "+vTrace(  "%8d putBit2 Index %8d.%8d", "pc",         ints.vRead1Int(), ints.vRead2Int());}
-       };
-      new I()                                                                                                           // Integer to write
-       {void   a() {        writeBit        =     bits. read1Int != 0;   writeIntEnable        =       writeBitEnable        = true; jTrace(f("%8d putBit3 Value %8d",  currentPc(), bits. read1Int ));}
-        String v() {return vWriteBit() + " <= " + bits.vRead1Int()+"; "+vWriteIntEnable() + " <= 1; "+vWriteBitEnable() + " <= 1;" + vTrace(  "%8d putBit3 Value %8d", "pc",         bits.vRead1Int());}
+      new I()                                                                                                           // Set the index and the bit to write and enable the write in one cycle
+       {void   a() {        read0IntIndex        =     ints. read1Int;        read0BitIndex        =     ints.read2Int;        writeBit        =     bits. read1Int != 0;   writeIntEnable        =       writeBitEnable        = true; jTrace(  "%8d putBit2 Index %8d.%8d Value %8d",  currentPc(), ints. read1Int,   ints.read2Int,   bits. read1Int );}
+        String v() {return vRead0IntIndex() + " <= " + ints.vRead1Int()+"; "+vRead0BitIndex() + " <= " + ints.vRead2Int()+"; "+vWriteBit() + " <= " + bits.vRead1Int()+"; "+vWriteIntEnable() + " <= 1; "+vWriteBitEnable() + " <= 1;" + vTrace(  "%8d putBit2 Index %8d.%8d Value %8d", "pc",         ints.vRead1Int(), ints.vRead2Int(), bits.vRead1Int());}
+        Ports ports() {return new Ports(null, Memory.this, true);}                                                      // Raises the write enable
        };
       new I()                                                                                                           // Finish write
-       {void   a() {units[I.i] = setBit(units[I.i], J.i, K.i);  writeIntEnable        =        writeBitEnable        = false; jTrace(f("%8d putBit4 Finish",  currentPc()));}
-        String v() {return                                     vWriteIntEnable() + " <= 0;" + vWriteBitEnable() + " <= 0;" +  vTrace(  "%8d putBit4 Finish", "pc"         );}
+       {void   a() {unit(I.i, setBit(unit(I.i), J.i, K.i));  writeIntEnable        =        writeBitEnable        = false; jTrace(  "%8d putBit3 Finish",  currentPc());}
+        String v() {return                                     vWriteIntEnable() + " <= 0;" + vWriteBitEnable() + " <= 0;" +  vTrace(  "%8d putBit3 Finish", "pc"         );}
+        Ports ports() {return new Ports(Memory.this, null, false);}                                                     // Only lowers the write enable
        };
       return this;
      }
@@ -1212,7 +1940,7 @@ public class Program extends Test
       Ref      putBit (Int I, Bit K)         {m.putBit(        I.Add(offset.Mul(Integer.SIZE)), K); return this;}       // Set the bit at the bit indexed position
       Ref        step (int Width)            {return new Ref(offset.Add(Width));}                                       // Step up from an existing ref to make a new one - only while not executing
 
-      int      getInt (int I) {                                        return units[I+offset.i];}                       // Get an integer immediately when debugging
+      int      getInt (int I) {                                        return unit(I+offset.i);}                        // Get an integer immediately when debugging
       boolean  getBit (int I) {final int i = getInt(I / Integer.SIZE); return Test.getBit(i, I % Integer.SIZE);}        // Get a boolean  immediately when debugging
 
       public String toString () {final StringBuilder s = saySb("Ref: " , offset.i()); return ""+s;}                     // Print memory reference
@@ -1222,7 +1950,7 @@ public class Program extends Test
 
     public String toString ()                                                                                           // Print memory
      {final StringBuilder s = new StringBuilder();
-      for (int i = 0, N = size(); i < N; i++) s.append(f("%4d %3d\n", i, units[i]));
+      for (int i = 0, N = size(); i < N; i++) s.append(f("%4d %3d\n", i, unit(i)));
       return ""+s;
      }
 
@@ -1239,7 +1967,7 @@ public class Program extends Test
       for (int i = 0; i < size(); i++)                                                                                  // Memory values
        {if (i % N == 0)                          s.append(f("%08d ", i));
 
-        final int b = units[i];
+        final int b = unit(i);
         if (b != 0) s.append(f("%4d ", b)); else s.append("     ");
         if ((i + 1) % N == 0)                    s.append("\n");
        }
@@ -1249,7 +1977,7 @@ public class Program extends Test
 
     String save ()                                                                                                      // Save memory to a string representation
      {final ByteBuffer b = ByteBuffer.allocate(ib(size()));
-      for (int i : units) b.putInt(i);
+      for (int i = 0, N = size(); i < N; i++) b.putInt(unit(i));
       return Base64.getEncoder().encodeToString(b.array());
      }
 
@@ -1259,7 +1987,79 @@ public class Program extends Test
        {stop("Mismatched reloaded memory length in bytes for memory:", id, "expected:", b.length, "got:", ib(size()));
        }
       final ByteBuffer B = ByteBuffer.wrap(b);
-      for (int i = 0; i < size(); i++) units[i] = B.getInt();
+      for (int i = 0; i < size(); i++) unit(i, B.getInt());
+     }
+
+//D3 Mapped                                                                                                             // Memory backed by a file mapped into the address space
+
+    Memory map (String File)                                                                                            // Back this memory with a file. If the file already holds an image of this memory the image becomes the content of the memory without being read, else the current content is written to the file
+     {final int N = size(), B = ib(N);
+      try (FileChannel c = FileChannel.open(Path.of(File), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE))
+       {final boolean image = c.size() == B;                                                                            // The file already holds an image of this memory
+        if (c.size() > B) c.truncate(B);                                                                                // Discard excess content
+        final MappedByteBuffer f = c.map(FileChannel.MapMode.READ_WRITE, 0, B);                                         // The mapping remains valid after the channel is closed
+        final IntBuffer        m = f.asIntBuffer();
+        if (!image) for (int i = 0; i < N; i++) m.put(i, unit(i));                                                      // Save the current content into the new file
+        file = f; mapped = m; units = null;                                                                             // Release the heap copy
+       }
+      catch (IOException e) {stop("Unable to map memory:", id, "to file:", File, e);}
+      return this;
+     }
+
+    void sync () {if (file != null) file.force();}                                                                      // Write any changes to the mapped file back to the storage device
+
+    Memory unmap ()                                                                                                     // Copy the mapped content back onto the heap and release the file
+     {if (mapped == null) return this;
+      sync();
+      final int[]u = new int[size()];
+      mapped.get(0, u);
+      units = u; file = null; mapped = null; image = null;
+      return this;
+     }
+
+    void snapshot ()                                                                                                    // Record the content of a mapped memory at the start of execution so that every execution of the code, whether in Java or in Verilog, starts from the same content
+     {image = null;
+      if (mapped == null) return;
+      image = new int[size()];
+      for (int i = 0; i < image.length; i++) image[i] = unit(i);
+     }
+
+    void restore () {if (image != null) for (int i = 0; i < image.length; i++) unit(i, image[i]);}                      // Restore the content of a mapped memory recorded at the start of execution
+
+    FileNames imageFile () {return verilogTestIncludesFolder.same(m()+"_image");}                                       // File containing the image of a mapped memory in hexadecimal
+
+    private String loadImage ()                                                                                         // Write the image of a mapped memory in hexadecimal and return the Verilog to load it, or return the empty string if the memory is not mapped
+     {if (image == null) return "";
+      final StringBuilder s = new StringBuilder();
+      for (int u : image) s.append(f("%8x\n", u));
+      writeFile(imageFile().v$(), s);
+      return f("    $readmemh(\"%s\", memory, 0, %d);\n", imageFile().minus(verilogTestFolder).v$(), image.length - 1);
+     }
+
+//D3 Checkpoint                                                                                                         // Write the blocks changed since the last checkpoint
+
+    void allDirty ()                                                                                                    // Mark every block as dirty
+     {dirty = new long[(size() + 64 * dirtyBlock - 1) / (64 * dirtyBlock)];
+      Arrays.fill(dirty, -1L);
+     }
+
+    int dirtyBlocks ()                                                                                                  // Number of blocks written since the last checkpoint
+     {int n = 0;
+      for (int b = 0, N = (size() + dirtyBlock - 1) / dirtyBlock; b < N; b++) if ((dirty[b >>> 6] & 1L << b) != 0) ++n;
+      return n;
+     }
+
+    int checkpoint (DataOutputStream Out) throws IOException                                                            // Write each dirty block as its memory id, start, length and units then mark all the blocks clean. Returns the number of blocks written
+     {int n = 0;
+      for (int b = 0, N = (size() + dirtyBlock - 1) / dirtyBlock; b < N; b++)
+       {if ((dirty[b >>> 6] & 1L << b) == 0) continue;
+        final int s = b * dirtyBlock, e = min(size(), s + dirtyBlock);
+        Out.writeInt(id); Out.writeInt(s); Out.writeInt(e - s);
+        for (int i = s; i < e; i++) Out.writeInt(unit(i));
+        ++n;
+       }
+      Arrays.fill(dirty, 0L);
+      return n;
      }
 
 //D3 Verilog                                                                                                            // Verilog representation of memory
@@ -1282,6 +2082,30 @@ public class Program extends Test
   input  reg[31:0] read0BitIndex,                                                                                       // Read first  boolean address
   input  reg[31:0] read1BitIndex,                                                                                       // Read second boolean address
   input  reg[31:0] read2BitIndex,                                                                                       // Read second boolean address
+  input  reg[31:0]   blockSource,                                                                                       // Index of the next unit to be copied by the block engine
+  input  reg[31:0]   blockTarget,                                                                                       // Index of the next unit to be written by the block engine
+  input  integer      blockCount,                                                                                       // Units still to be moved by the block engine
+  input  wire        blockEnable,                                                                                       // Move the next units of a block
+  input  wire         blockClear,                                                                                       // Write zeros rather than copying
+  input  wire          blockDown,                                                                                       // Move the highest units first
+  input  reg[31:0]    generation,                                                                                       // Current generation of a generational memory
+  input  wire         scanEnable,                                                                                       // Priority encode a bit set
+  input  reg[31:0]      scanBase,                                                                                       // Unit holding the first bit of the bit set
+  input  integer        scanFrom,                                                                                       // Index of the first bit to examine
+  input  integer        scanSize,                                                                                       // Number of bits in the bit set
+  input  wire            scanOne,                                                                                       // Value of the bit sought
+  input  wire             scanUp,                                                                                       // Search towards higher indices
+  output integer       scanIndex,                                                                                       // Index of the bit found or -1
+  input  wire        matchEnable,                                                                                       // Compare the key against every used slot
+  input  reg[31:0]     matchBase,                                                                                       // Base of the slots being searched
+  input  integer        matchKey,                                                                                       // Key being searched for
+  input  integer      matchOrder,                                                                                       // Offset from the base of the slots to keys array
+  input  integer       matchUsed,                                                                                       // Offset from the base of the bits showing which slots are in use
+  input  integer       matchKeys,                                                                                       // Offset from the base of the keys
+  input  integer      matchCount,                                                                                       // Number of slots to compare
+  output integer       matchSlot,                                                                                       // Slot found by the search
+  output reg          matchLower,                                                                                       // Search key is less than or equal to the key in the found slot
+  output reg         matchHigher,                                                                                       // Search key is greater than or equal to the key in the found slot
   output reg[31:0]      read0Int,                                                                                       // Integer data read from first memory port
   output reg[31:0]      read1Int,                                                                                       // Integer data read from second memory port
   output reg[31:0]      read2Int,                                                                                       // Integer data read from third memory port
@@ -1289,26 +2113,75 @@ public class Program extends Test
   output reg            read1Bit,                                                                                       // Boolean data read from second memory port
   output reg            read2Bit);                                                                                      // Boolean data read from third memory port
 `ifdef __ICARUS__
-  integer memory [0:{size}-1];
-  integer i;                                                                                                            // Index
+  {type} memory [0:{size}-1];
+{tags}  integer i;                                                                                                            // Index
+  integer j, ge, last;                                                                                                  // Comparator index, lowest used slot whose key is not less than the search key and highest used slot
+  integer k, f, found;                                                                                                  // Encoder input, first bit examined and index of the first bit found by the priority encoder
+
+  initial begin                                                                                                         // Clear memory to zeros at start then load the image of a mapped memory
+    for (i = 0; i < {size}; i = i + 1) begin memory[i] = 0;{tag0} end
+{image}  end
 
-  initial for (i = 0; i < {size}; i = i + 1) memory[i] = 0;                                                             // Clear memory to zeros at start
+  function integer unit(input integer I);                                                                               // Content of a unit{stale}
+    unit = {unit};
+  endfunction
 
   always @(posedge clock) begin                                                                                         // Synchronous memory access
-    if      (writeBitEnable) memory[read0IntIndex][read0BitIndex] <= writeBit;                                          // Write a bit using the first read port index as the write address
-    else if (writeIntEnable) memory[read0IntIndex]                <= writeInt;                                          // Write an integer using the first read port index as the write address
+    if      (writeBitEnable) begin                                                                                      // Write a bit using the first read port index as the write address
+      memory[read0IntIndex] <= unit(read0IntIndex) & ~(1 << read0BitIndex) | writeBit << read0BitIndex;{tagWrite}
+    end
+    else if (writeIntEnable) begin                                                                                      // Write an integer using the first read port index as the write address
+      {writeInt};{tagWrite}
+    end
+    else if (blockEnable) begin                                                                                         // Move up to {width} units of a block using values from before the edge so overlapping moves are safe
+      for (i = 0; i < {width}; i = i + 1)
+        if (i < blockCount) begin memory[blockTarget + (blockDown ? blockCount - 1 - i : i)] <= blockClear ? 0 : unit(blockSource + (blockDown ? blockCount - 1 - i : i));{tagBlock} end
+    end
     else begin                                                                                                          // Read data from three ports simultaneously
-             read0Int <= memory[read0IntIndex];
-             read1Int <= memory[read1IntIndex];
-             read2Int <= memory[read2IntIndex];
-             read0Bit <= memory[read0IntIndex][read0BitIndex];
-             read1Bit <= memory[read1IntIndex][read1BitIndex];
-             read2Bit <= memory[read2IntIndex][read2BitIndex];
+             read0Int <= {read0Int};
+             read1Int <= {read1Int};
+             read2Int <= {read2Int};
+             read0Bit <= unit(read0IntIndex) >> read0BitIndex;
+             read1Bit <= unit(read1IntIndex) >> read1BitIndex;
+             read2Bit <= unit(read2IntIndex) >> read2BitIndex;
+    end
+    if (scanEnable) begin                                                                                               // Priority encode up to {scan} bits at once to find the first bit with the sought value
+      f = scanUp ? (scanFrom < 0 ? 0 : scanFrom) : (scanFrom >= scanSize ? scanSize - 1 : scanFrom);
+      found = -1;
+      for (j = 0; j < {scan}; j = j + 1) begin
+        k = scanUp ? f + j : f - j;
+        if (found < 0 && k >= 0 && k < scanSize && (unit(scanBase + k / 32) >> (k % 32) & 1) == scanOne) found = k;
+      end
+      scanIndex <= found;
+    end
+    if (matchEnable) begin                                                                                              // Compare the key against up to {match} slots at once and encode the lowest used slot whose key is not less than it
+      ge = -1; last = -1;
+      for (j = 0; j < {match}; j = j + 1)
+        if (j < matchCount && (unit(matchBase + matchUsed + j / 32) >> (j % 32) & 1)) begin
+          if (ge < 0 && unit(matchBase + matchKeys + unit(matchBase + matchOrder + j)) >= matchKey) ge = j;
+          last = j;
+        end
+      if      (ge   >= 0) begin matchSlot <= ge;   matchLower <= 1; matchHigher <= unit(matchBase + matchKeys + unit(matchBase + matchOrder + ge)) == matchKey; end
+      else if (last >= 0) begin matchSlot <= last; matchLower <= 0; matchHigher <= 1; end
+      else                begin matchSlot <= 0;    matchLower <= 0; matchHigher <= 0; end
     end
   end
 `endif
 endmodule
-""", "name", m(), "size", ""+size()));
+""", "name", m(), "size", ""+size(), "width", ""+blockWidth(), "match", ""+matchWidth, "scan", ""+scanWidth,
+        "type",     width < Integer.SIZE ? f("reg [%d:0]", width - 1) : "integer",
+        "writeInt", packed ? "memory[read0IntIndex / 32] <= unit(read0IntIndex / 32) & ~(1 << read0IntIndex % 32) | (writeInt != 0 ? 1 : 0) << read0IntIndex % 32" :
+                             "memory[read0IntIndex] <= writeInt",
+        "read0Int", packed ? "unit(read0IntIndex / 32) >> read0IntIndex % 32 & 1" : "unit(read0IntIndex)",
+        "read1Int", packed ? "unit(read1IntIndex / 32) >> read1IntIndex % 32 & 1" : "unit(read1IntIndex)",
+        "read2Int", packed ? "unit(read2IntIndex / 32) >> read2IntIndex % 32 & 1" : "unit(read2IntIndex)",
+        "tags",     generational() ? "  integer tags   [0:"+size()+"-1];                                                       // Generation in which each unit was last written\n" : "",
+        "tag0",     generational() ? " tags[i] = 0;" : "",
+        "image",    loadImage(),
+        "stale",    generational() ? " or zero if it was written in an earlier generation" : "",
+        "unit",     generational() ? "tags[I] == generation ? memory[I] : 0" : "memory[I]",
+        "tagWrite", generational() ? " tags[read0IntIndex] <= generation;" : "",
+        "tagBlock", generational() ? " tags[blockTarget + (blockDown ? blockCount - 1 - i : i)] <= generation;" : ""));
 
       final FileNames f = blackBoxFolder.same(m());
       writeFile(f.v$(), ""+s);
@@ -1336,6 +2209,30 @@ endmodule
       s.append("  reg[31:0] "+  vRead2BitIndex() +"; initial "+  vRead2BitIndex() + "= 0;\n");                          // Index within third integer from which to get a bit
       s.append("  reg       "+ vWriteIntEnable() +"; initial "+ vWriteIntEnable() + "= 0;\n");                          // Write enable when writing integer data into memory
       s.append("  reg       "+ vWriteBitEnable() +"; initial "+ vWriteBitEnable() + "= 0;\n");                          // Write enable when writing boolean data into memory
+      s.append("  reg[31:0] "+    vBlockSource() +"; initial "+    vBlockSource() + "= 0;\n");                          // Index of the next unit to be copied by the block engine
+      s.append("  reg[31:0] "+    vBlockTarget() +"; initial "+    vBlockTarget() + "= 0;\n");                          // Index of the next unit to be written by the block engine
+      s.append("  integer   "+     vBlockCount() +"; initial "+     vBlockCount() + "= 0;\n");                          // Units still to be moved by the block engine
+      s.append("  reg       "+    vBlockEnable() +"; initial "+    vBlockEnable() + "= 0;\n");                          // Block engine running
+      s.append("  reg       "+     vBlockClear() +"; initial "+     vBlockClear() + "= 0;\n");                          // Block engine writing zeros
+      s.append("  reg       "+      vBlockDown() +"; initial "+      vBlockDown() + "= 0;\n");                          // Block engine moving the highest units first
+      s.append("  reg[31:0] "+     vGeneration() +"; initial "+     vGeneration() + "= 0;\n");                          // Current generation of the memory
+      s.append("  reg       "+     vScanEnable() +"; initial "+     vScanEnable() + "= 0;\n");                          // Priority encode a bit set at the next clock edge
+      s.append("  reg[31:0] "+       vScanBase() +"; initial "+       vScanBase() + "= 0;\n");                          // Unit holding the first bit of the bit set
+      s.append("  integer   "+       vScanFrom() +"; initial "+       vScanFrom() + "= 0;\n");                          // Index of the first bit to examine
+      s.append("  integer   "+       vScanSize() +"; initial "+       vScanSize() + "= 0;\n");                          // Number of bits in the bit set
+      s.append("  reg       "+        vScanOne() +"; initial "+        vScanOne() + "= 0;\n");                          // Value of the bit sought
+      s.append("  reg       "+         vScanUp() +"; initial "+         vScanUp() + "= 0;\n");                          // Search towards higher indices
+      s.append("  integer   "+      vScanIndex() +";\n");                                                               // Index of the bit found or -1
+      s.append("  reg       "+    vMatchEnable() +"; initial "+    vMatchEnable() + "= 0;\n");                          // Compare every key at the next clock edge
+      s.append("  reg[31:0] "+      vMatchBase() +"; initial "+      vMatchBase() + "= 0;\n");                          // Base of the slots being searched
+      s.append("  integer   "+       vMatchKey() +"; initial "+       vMatchKey() + "= 0;\n");                          // Key being searched for
+      s.append("  integer   "+     vMatchOrder() +"; initial "+     vMatchOrder() + "= 0;\n");                          // Offset of the slots to keys array
+      s.append("  integer   "+      vMatchUsed() +"; initial "+      vMatchUsed() + "= 0;\n");                          // Offset of the bits showing which slots are in use
+      s.append("  integer   "+      vMatchKeys() +"; initial "+      vMatchKeys() + "= 0;\n");                          // Offset of the keys
+      s.append("  integer   "+     vMatchCount() +"; initial "+     vMatchCount() + "= 0;\n");                          // Number of slots to compare
+      s.append("  integer   "+      vMatchSlot() +";\n");                                                               // Slot found by the search
+      s.append("  reg       "+     vMatchLower() +";\n");                                                               // Search key is less than or equal to the key in the found slot
+      s.append("  reg       "+    vMatchHigher() +";\n");                                                               // Search key is greater than or equal to the key in the found slot
       s.append("  "+ connectMemoryModule());                                                                            // Connect to memory module
       return ""+s;
      }
@@ -1355,6 +2252,30 @@ endmodule
     .read0BitIndex   ({n}_read0BitIndex  ),                                                                             // Read first boolean address
     .read1BitIndex   ({n}_read1BitIndex  ),                                                                             // Read second boolean address
     .read2BitIndex   ({n}_read2BitIndex  ),                                                                             // Read second boolean address
+    .blockSource     ({n}_blockSource    ),                                                                             // Index of the next unit to be copied by the block engine
+    .blockTarget     ({n}_blockTarget    ),                                                                             // Index of the next unit to be written by the block engine
+    .blockCount      ({n}_blockCount     ),                                                                             // Units still to be moved by the block engine
+    .blockEnable     ({n}_blockEnable    ),                                                                             // Block engine running
+    .blockClear      ({n}_blockClear     ),                                                                             // Block engine writing zeros
+    .blockDown       ({n}_blockDown      ),                                                                             // Block engine moving the highest units first
+    .generation      ({n}_generation     ),                                                                             // Current generation of the memory
+    .scanEnable      ({n}_scanEnable     ),                                                                             // Priority encode a bit set
+    .scanBase        ({n}_scanBase       ),                                                                             // Unit holding the first bit of the bit set
+    .scanFrom        ({n}_scanFrom       ),                                                                             // Index of the first bit to examine
+    .scanSize        ({n}_scanSize       ),                                                                             // Number of bits in the bit set
+    .scanOne         ({n}_scanOne        ),                                                                             // Value of the bit sought
+    .scanUp          ({n}_scanUp         ),                                                                             // Search towards higher indices
+    .scanIndex       ({n}_scanIndex      ),                                                                             // Index of the bit found or -1
+    .matchEnable     ({n}_matchEnable    ),                                                                             // Compare every key
+    .matchBase       ({n}_matchBase      ),                                                                             // Base of the slots being searched
+    .matchKey        ({n}_matchKey       ),                                                                             // Key being searched for
+    .matchOrder      ({n}_matchOrder     ),                                                                             // Offset of the slots to keys array
+    .matchUsed       ({n}_matchUsed      ),                                                                             // Offset of the bits showing which slots are in use
+    .matchKeys       ({n}_matchKeys      ),                                                                             // Offset of the keys
+    .matchCount      ({n}_matchCount     ),                                                                             // Number of slots to compare
+    .matchSlot       ({n}_matchSlot      ),                                                                             // Slot found by the search
+    .matchLower      ({n}_matchLower     ),                                                                             // Search key is less than or equal to the key in the found slot
+    .matchHigher     ({n}_matchHigher    ),                                                                             // Search key is greater than or equal to the key in the found slot
     .read0Int        ({n}_read0Int       ),                                                                             // First integer data read
     .read1Int        ({n}_read1Int       ),                                                                             // Second integer data read
     .read2Int        ({n}_read2Int       ),                                                                             // Third integer data read
@@ -1368,7 +2289,12 @@ endmodule
 
     String dumpJava ()    {return dumpAsDecimal();}
     String dumpVerilog () {return dumpVerilogMemoryInDecimalName()+"();";}
-    String memory(String Index) {return substitute("{n}.memory[{i}]", "n", n(), "i", Index);}                           // Verilog to get the indexed location in memory
+    String memory(String Index)                                                                                         // Verilog to get the indexed location in memory
+     {return substitute(generational() ? "({n}.tags[{i}] == {n}.generation ? {n}.memory[{i}] : 32'd0)" : "{n}.memory[{i}]", "n", n(), "i", Index);
+     }
+    String register(String Index)                                                                                       // Verilog to get the indexed register which is a bit within a unit when the memory is packed
+     {return packed ? substitute("(({m} >> (({i}) % 32)) & 1)", "m", memory("("+Index+") / 32"), "i", Index) : memory(Index);
+     }
 
    } // Memory
 
@@ -1389,14 +2315,51 @@ endmodule
     for (int i = 0; i < Dump.length; ++i) memories().elementAt(i).reload(Dump[i]);                                      // Reload each memory
    }
 
+  void mapMemories (String Folder)                                                                                      // Map each memory other than the integer and boolean registers to a file in the named folder so that its content persists between runs
+   {makePath(Folder);
+    for (Memory m : memories()) if (m != intMemory() && m != bitMemory()) m.map(fn(Folder, m.n()+".data"));
+   }
+
+  int checkpoint (String File)                                                                                          // Append the blocks of memory changed since the last checkpoint to a file so that the cost of a checkpoint follows the volume of writes rather than the size of memory. Returns the number of blocks written
+   {try (DataOutputStream o = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(File, true))))
+     {int n = 0;
+      for (Memory m : memories()) n += m.checkpoint(o);
+      o.writeInt(-1);                                                                                                   // End of checkpoint
+      return n;
+     }
+    catch (IOException e) {stop("Unable to write checkpoint to file:", File, e); return 0;}
+   }
+
+  int replayCheckpoints (String File)                                                                                   // Replay the checkpoints in a file in order. The first checkpoint written after memory was allocated is complete so the deltas that follow it need no other starting point. Returns the number of checkpoints replayed
+   {final ByteBuffer b;
+    try {b = ByteBuffer.wrap(Files.readAllBytes(Path.of(File)));}
+    catch (IOException e) {stop("Unable to read checkpoints from file:", File, e); return 0;}
+
+    int n = 0;
+    while (b.hasRemaining())
+     {final int id = b.getInt();
+      if (id == -1) {++n; continue;}                                                                                    // End of checkpoint
+      final int s = b.getInt(), N = b.getInt();
+      if (id >= memories().size() || s + N > memories().elementAt(id).size())
+       {stop("Checkpoint block does not fit memory:", id, "start:", s, "length:", N);
+       }
+      final Memory m = memories().elementAt(id);
+      for (int i = 0; i < N; i++) m.unit(s + i, b.getInt());
+     }
+    for (Memory m : memories()) Arrays.fill(m.dirty, 0L);                                                               // Memory now matches the last checkpoint
+    return n;
+   }
+
+  void syncMemories () {for (Memory m : memories()) m.sync();}                                                          // Write the content of any mapped memories back to their files
+
 //D1 Machine Code                                                                                                       // Generate machine code instructions to implement the program
 
 //D2 Instruction                                                                                                        // An instruction represents code to be executed by a process in a single clock cycle == process step
 
   abstract class I                                                                                                      // Instructions implement the action of a program
-   {final int instructionNumber = program().code.size();                                                                // The number of this instruction
-    final String      traceBack = suppressTraceComments ?  null : traceBack();                                          // Line at which this instruction was created - suppressible because it imposes a lot of extra processing
-    final String       traceSub = subsTrace;                                                                            // Sub during which this instruction was created
+   {int       instructionNumber = program().code.size();                                                                // The number of this instruction - renumbered if the optimization passes remove instructions or -1 once this instruction has been removed
+    String            traceBack = suppressTraceComments ?  null : traceBack();                                          // Line at which this instruction was created - suppressible because it imposes a lot of extra processing
+    String             traceSub = subsTrace;                                                                            // Sub during which this instruction was created
     final boolean        noJump;                                                                                        // The instruction will handle setting the program counter  if false
 
     I (boolean NoJump)                                                                                                  // Add this instruction to the code for the process
@@ -1418,12 +2381,23 @@ endmodule
 
     I () {this(true);}                                                                                                  // Add this instruction to the process's code assuming it will not jump
 
+    I (I First, I Second)                                                                                               // Pack two instructions into one clock cycle that replaces the first instruction in the code
+     {noJump           = Second.noJump;
+      instructionNumber = First.instructionNumber;
+      traceBack        = First.traceBack == null ? Second.traceBack : Second.traceBack == null ? First.traceBack :      // Locate both halves
+                         First.traceBack + "\n" + Second.traceBack;
+      traceSub         = enclosingSub(First.traceSub, Second.traceSub);                                                 // Attribute the cycle to the sub that encloses both halves
+     }
+
 //D3 Overrides                                                                                                          // Methods that modify the behaviour of an instruction
 
     abstract void a ();                                                                                                 // The action to be performed by the instruction
     String        v () {return "";};                                                                                    // Verilog code
     int      traces () {return 1;}                                                                                      // Number of trace records expected
     boolean   trace () {return true;}                                                                                   // Enable tracing
+    Op           op () {return new Op(trace() ? Opcode.act : Opcode.quiet, this);}                                      // Compile this instruction into an operation record for the compiled execution engine
+    Ports     ports () {return null;}                                                                                   // The memory ports used by this instruction or null if they have not been declared, which excludes the instruction from packing
+    int      target () {return pcConstant().get(instructionNumber);}                                                    // The target of this jump as recorded against it rather than its label so that an optimization pass can retarget one jump without moving a label that other jumps share
 
     String instructionLocation () {return traceBack != null ? traceBack : traceSub  != null ? traceSub : "";}           // Trace the location at which the instruction was generated
     String instructionLocationAsComment ()                                                                              // Trace the location at which the instruction was generated as a comment
@@ -1468,10 +2442,42 @@ endmodule
   final class Label                                                                                                     // Label jump targets in the program
    {int offset;                                                                                                         // The instruction location to which this label applies
     Label ()    {set(); program().labels.push(this);}                                                                   // A label assigned to an instruction location
+    Label (int Offset) {this(); offset = Offset;}                                                                       // A label assigned to the specified instruction location
     void set () {offset = program().code.size();}                                                                       // Reassign the label to an instruction
    } // Label
 
-  void appendJavaTrace(String Message) {appendFile(traceFiles.java$(), Message);}                                       // Append to the Java trace file
+  final class JavaTrace                                                                                                 // The Java trace file is held open and buffered while the program executes rather than being opened and closed for each message
+   {private Writer writer = null;                                                                                       // Buffered writer while executing else null
+    private String   file = null;                                                                                       // File being written
+
+    void open () {open(traceFiles.java$());}                                                                            // Open the trace file for buffered appends
+
+    void open (String File)                                                                                             // Open the specified trace file for buffered appends
+     {close();
+      file = File;
+      try
+       {makePath(folderName(file));
+        writer = Files.newBufferedWriter(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        filesWritten.add(file);
+       }
+      catch (Exception e) {stop("Cannot open trace file", file, e);}
+     }
+
+    void append (String Message)                                                                                        // Append to the trace file
+     {if (writer == null) {appendFile(traceFiles.java$(), Message); return;}                                            // Not executing so write directly
+      try {writer.write(Message);}
+      catch (Exception e) {stop("Cannot append to trace file", file, e);}
+     }
+
+    void close ()                                                                                                       // Flush and close the trace file
+     {if (writer == null) return;
+      try {writer.close();}
+      catch (Exception e) {stop("Cannot close trace file", file, e);}
+      writer = null;
+     }
+   } // JavaTrace
+
+  void appendJavaTrace(String Message) {program().javaTrace.append(Message);}                                           // Append to the Java trace file
 
   void jTrace (String Message)                                                                                          // Trace a Java instruction by writing a message to the Java trace file unless the instruction has suppressed tracing
    {++program().jtrace;                                                                                                 // Count trace records written
@@ -1480,6 +2486,13 @@ endmodule
     appendJavaTrace(Message+"\n");                                                                                      // Write tracing message
    }
 
+  void jTrace (String Format, Object...Args)                                                                            // Trace a Java instruction formatting the message only if it is actually going to be written
+   {++program().jtrace;                                                                                                 // Count trace records written
+    if (suppressInstructionTracing) return;                                                                             // Suppress instruction tracing
+    if (!executing().trace()) return;                                                                                   // Not tracing this instruction
+    appendJavaTrace(f(Format, Args)+"\n");                                                                              // Write tracing message
+   }
+
   String vTrace (String Format, String...Message)                                                                       // Generate Verilog code to write a message to the Verilog trace log
    {++program().vtrace;
     if (!compiling().trace()) return "";                                                                                // Suppress tracing for this instruction
@@ -1497,43 +2510,45 @@ endmodule
 
     if (codeSize() == 0)        stop("No code to execute");                                                             // Complain if there is no code to execute
     else if (!generateVerilog) say(f("            Code size: %,12d", codeSize()));                                      // Code size check unless we are executing Verilog in which case the code size will be printed after the preparation of the Verilog equivalent so that the uncompressed code size can be compared with the compressed code size
+    program().javaTrace.close();                                                                                        // Flush any immediate trace
     traceFiles.delete_java();                                                                                           // Clear Java trace file
     dumpProgramState("Finished");                                                                                       // Dump program state at end of execution
 
     currentPc   = pc = 0;                                                                                               // Reset program counter to start of program
-    final int N = codeSize();                                                                                           // Number of instructions
-
-    intMemory().reallocate(nextIntId);                                                                                  // Resize integer memory now we know how big to make it
-    bitMemory().reallocate(nextBitId);                                                                                  // Resize boolean memory now we know how big to make it
+    if (optimize && !optimized) optimize();                                                                             // Remove instructions that do not contribute to the result
+    if (allocateRegisters && intRegisters < 0) allocateRegisters();                                                     // Share registers between variables whose live ranges do not overlap
+    if (inferWidths) inferWidths();                                                                                     // Narrow the integer memory to the widest register
+    intMemory().reallocate(intRegisters());                                                                             // Resize integer memory now we know how big to make it
+    bitMemory().reallocate(bitRegisters());                                                                             // Resize boolean memory now we know how big to make it
 
+    for (Memory m : memories()) m.snapshot();                                                                           // Record the starting content of mapped memories
     initializeJavaMemory();                                                                                             // Initialize memory
     initializeJavaVars();                                                                                               // Initialize variables
 
-    for(steps = 0; steps < maxSteps && pc >= 0 && pc < N; ++steps)                                                      // Execute each instruction within a specified number of steps
-     {final I i = code.elementAt(pc);
-      try
-       {currentPc = pc++;                                                                                               // This is the anticipated next instruction, but the instruction can set it to effect a branch in execution flow
-        executing = i;                                                                                                  // Currently executing instruction
-        jtrace = 0;
-        i.a();
-        if (i.trace())                                                                                                  // Check tracing
-         {if (jtrace != i.traces())                                                                                     // Wrong number of trace calls
-           {stop("Wrong number of Java traces generated, got:", jtrace, "expected:", i.traces(),
-                 "at:", i.instructionLocation());
-           }
-          if (jtrace == 0) jTrace(f("%8d Location: %s", currentPc, i.instructionLocationAsComment()));                  // Append location to Java trace log as no tracing was performed
-         }
-
-        executing = null;                                                                                               // Show no instruction currently being executed
+    program().javaTrace.open();                                                                                         // Buffer the Java trace while executing
+    try
+     {stateHash = 0;
+      profile = profiling ? new int[codeSize()] : null;                                                                 // Fresh execution counts
+      latencyTables();                                                                                                  // Fresh latency histograms
+      if (hashWindow > 0 && engine != Engine.interpreter)                                                               // Hashing windows fall at exact step counts which only the interpreter observes
+       {stop("State hashes can only be taken by the interpreter, not by the", engine, "engine");
        }
-      catch(Exception e)
-       {if (executing == null) stop("Exception:", e, "while executing:", traceBack(e));
-        else stop("Exception:", e, "\nin instruction:", executing.traceBack, "\nwhile executing:", traceBack(e));
+      if ((profiling || measureLatency) && engine != Engine.interpreter && engine != Engine.compiled)                   // Profiles and latencies are counted one instruction at a time
+       {stop("Profiles and latencies can only be counted by the interpreter or the compiled engine, not by the", engine, "engine");
+       }
+      switch (engine)                                                                                                   // Run the code with the selected execution engine
+       {case interpreter -> interpret();
+        case compiled    -> executeCompiled(compile());
+        case jit         -> executeJit(compile());
+        case verify      -> verifyEngines(Engine.compiled);
+        case differential-> verifyEngines(Engine.jit);
        }
      }
+    finally {program().javaTrace.close();}                                                                              // Complete the Java trace so it can be compared with the Verilog trace
 
     if (steps >= maxSteps) stop("Out of steps after step:", steps);                                                     // Show ran out of steps
     else if (!generateVerilog) say(f("            Execution: %,12d", steps));                                           // Show number of steps unless we are going to print this in during the Verilog process
+    if (profiling) writeProfile();                                                                                      // Write the execution profile
 
     if (generateVerilog)                                                                                                // Run Verilog
      {final GenerateVerilog g = new GenerateVerilog();                                                                  // Generate corresponding Verilog code and run it
@@ -1584,7 +2599,14 @@ cd {f}; yosys -q {y}
         message.append(f(" %11.2f seconds for: %s",                    x.timer.seconds(), x.command));                  // Execution time of command in message
         json   .append(f(", \"seconds\": %11.2f, \"command\": \"%s\"", x.timer.seconds(), x.command));                  // Execution time of command in json
 
-        ok(readFileAsString(traceFiles.v$()).equals(readFileAsString(traceFiles.java$())));                             // Compare corresponding Java and Verilog trace files -  says failed if it fails and provides a traceback
+        compareTraces();                                                                                                // Compare corresponding Java and Verilog trace files -  says failed if it fails and provides a traceback
+        if (measureLatency)                                                                                             // Latencies during Verilog simulation
+         {verilogLatency = verilogLatencies(readFileAsString(latencyFiles.log$()));
+          json.append(", \"verilogLatency\": "+latencyJson(verilogLatency));
+          if (!ok(latencyJson(verilogLatency), latencyJson(javaLatency)))                                               // The simulation takes as many cycles per operation as Java counted
+           {say("Verilog latencies differ from Java latencies, see:", latencyFiles.log$());
+           }
+         }
 
         if (github_actions && runSiliconCompiler)                                                                       // Run synthesis in a podman container containing silicon compiler and the associated tools needed for ASIC
          {final ExecCommand X = new ExecCommand(scCmd);                                                                 // Execute silicon compiler commands
@@ -1600,23 +2622,367 @@ cd {f}; yosys -q {y}
          }
        }
 
+      if (measureLatency) json.append(", \"javaLatency\": "+latencyJson(javaLatency));                                 // Latencies during Java execution
+      if (optimized)      json.append(", \"passes\": "+passesJson());                                                   // Instructions removed by each optimization pass
       say(message);                                                                                                     // Report Verilog statistics
       appendFile(verilogLogFolder.log$(),  message+ "\n");                                                              // Log in text format
       appendFile(verilogLogFolder.json$(), "{"+json+"}\n");                                                             // Log in json format
      }
    }
 
-  void variableNotSet (String Type, String Name)                                                                        // Variable not yet set message
-   {final I i = executing();
-    final String m = (Name != null ? '"'+Name+'"'+", " : "") + "has not been set yet";
-    if (i != null) stop(Type, m, i.traceBack, "====");                                                                  // With traceback on failing instruction if possible
-    else           stop(Type, m);                                                                                       // No traceback available
-   }
-
-//D2 Dump                                                                                                               // Dump the state of the program at requested locations during execution of both Java and Verilog so that the evolution of memories, variables, registers can be confirmed
+  void interpret ()                                                                                                     // Interpret the code one instruction at a time by fetching each instruction from the code stack
+   {final int N = codeSize();                                                                                           // Number of instructions
+    for(steps = 0; steps < maxSteps && pc >= 0 && pc < N; ++steps)                                                      // Execute each instruction within a specified number of steps
+     {final I i = code.elementAt(pc);
+      if (hashWindow > 0 && steps % hashWindow == 0) hashJavaWindow();                                                 // Periodic state hash
+      if (profile != null) profile[pc]++;                                                                               // Count executions of this instruction
+      if (latencyStarts != null) latencyStep(pc, steps);                                                                // Operation boundaries
+      try
+       {currentPc = pc++;                                                                                               // This is the anticipated next instruction, but the instruction can set it to effect a branch in execution flow
+        executing = i;                                                                                                  // Currently executing instruction
+        jtrace = 0;
+        i.a();
+        if (i.trace())                                                                                                  // Check tracing
+         {if (jtrace != i.traces())                                                                                     // Wrong number of trace calls
+           {stop("Wrong number of Java traces generated, got:", jtrace, "expected:", i.traces(),
+                 "at:", i.instructionLocation());
+           }
+          if (jtrace == 0) jTrace("%8d Location: %s", currentPc, i.instructionLocationAsComment());                     // Append location to Java trace log as no tracing was performed
+         }
 
-  class DumpLocations                                                                                                   // Create a dump location definition to write the title of the dump without having to use string parameters which do not seem to work on icarus Verilog
-   {final Stack<Location> locations = new Stack<>();                                                                    // Locations in the code at which dumps have been requested
+        executing = null;                                                                                               // Show no instruction currently being executed
+       }
+      catch(Exception e)
+       {if (executing == null) stop("Exception:", e, "while executing:", traceBack(e));
+        else stop("Exception:", e, "\nin instruction:", executing.traceBack, "\nwhile executing:", traceBack(e));
+       }
+     }
+    if (latencyStarts != null) latencyStep(pc, steps);                                                                  // Operations finishing at the end of the program
+   }
+
+//D2 Compiled execution                                                                                                 // Freeze the code into a flat table of operation records dispatched by a switch rather than fetching each instruction from the code stack
+
+  enum Engine {interpreter, compiled, jit, verify, differential}                                                        // Interpret the code stack, execute the compiled operation table, execute JVM bytecode generated from the code, or execute the interpreter and then the compiled table (verify) or the bytecode (differential) and confirm that they reach the same final state
+
+  enum Opcode                                                                                                           // Traced action, untraced action, unconditional jump, jump if bit is false, jump if bit is true, jump if integer greater than or equal, traced action that enters a routine, and the specialized forms of the commonest traced actions: address an integer, load its value, write an integer, finish the write
+   {act, quiet, jump, jumpFalse, jumpTrue, jumpGe, call, address, load, write, finish;
+
+    boolean jumps ()                                                                                                    // Whether the operation transfers control to its target
+     {return switch(this) {case jump, jumpFalse, jumpTrue, jumpGe, call -> true; default -> false;};
+     }
+
+    boolean straight ()                                                                                                 // Whether the operation is a traced action that always continues with the next instruction
+     {return switch(this) {case act, address, load, write, finish -> true; default -> false;};
+     }
+   }
+
+  final class Op                                                                                                        // An instruction frozen into an operation record
+   {final Opcode opcode;                                                                                                // Operation to perform
+    final I           i;                                                                                                // Instruction from which this operation was compiled
+    final int    target;                                                                                                // Jump target taken from the program counter constants
+    final int    traces;                                                                                                // Number of trace records the instruction is expected to write
+    final Bit       bit;                                                                                                // Condition tested by a conditional jump
+    final Int      left;                                                                                                // Left  operand of a comparison jump
+    final Int     right;                                                                                                // Right operand of a comparison jump
+    final Memory memory;                                                                                                // Memory addressed by a specialized action
+    final int      port;                                                                                                // Read port of the memory addressed by a specialized action
+    final String format;                                                                                                // Format of the trace record written by a specialized action
+    final boolean located;                                                                                              // A jump that writes its location to the Java trace just as the interpreter does
+
+    Op (Opcode Code, I I, Bit Bit, Int Left, Int Right, Memory Memory, int Port, String Format)                         // Compile an instruction into an operation
+     {opcode = Code; i = I; bit = Bit; left = Left; right = Right; memory = Memory; port = Port; format = Format;
+      traces = I.traces();
+      final Integer t = pcConstant().get(I.instructionNumber);                                                          // Jump target if any
+      target = t != null ? t : -1;
+      if (Code.jumps() && t == null) stop("No target for jump at:", I.instructionNumber);                               // Jumps must have a resolved target
+      located = Code.jumps() && Code != Opcode.call && I.trace() && traces == 0;                                        // A traced jump writes no record of its own so the interpreter writes its location instead
+     }
+
+    Op (Opcode Code, I I)                   {this(Code, I, null, null, null, null, 0, null);}                           // Action or unconditional jump
+    Op (Opcode Code, I I, Bit Bit)          {this(Code, I, Bit,  null, null, null, 0, null);}                           // Jump on a bit
+    Op (Opcode Code, I I, Int Left, Int Right) {this(Code, I, null, Left, Right, null, 0, null);}                       // Jump on a comparison
+    Op (Opcode Code, I I, Int Int, Memory Memory, int Port, String Format) {this(Code, I, null, Int, null, Memory, Port, Format);} // Specialized action on an integer variable through a port of its memory
+
+    void address (int Pc)                                                                                               // Address the integer variable through the port
+     {memory.index(port, left.slot);
+      if (!suppressInstructionTracing) appendJavaTrace(f(format, Pc, left.slot)+"\n");
+     }
+
+    void load (int Pc)                                                                                                  // Load the value of the integer variable through the port
+     {checkRegister(left);
+      final int v = loaded(left);
+      memory.value(port, v);
+      if (!suppressInstructionTracing) appendJavaTrace(f(format, Pc, v)+"\n");
+     }
+
+    void write (int Pc)                                                                                                 // Write the integer variable from the write register of the memory
+     {left.i = memory.writeInt; memory.writeIntEnable = true;
+      if (!suppressInstructionTracing) appendJavaTrace(f(format, Pc, memory.read0IntIndex, memory.writeInt)+"\n");
+     }
+
+    void finish (int Pc)                                                                                                // Store the written value into the memory and lower the write enable
+     {memory.unit(memory.read0IntIndex, memory.writeInt); memory.writeIntEnable = false;
+      if (!suppressInstructionTracing) appendJavaTrace(f(format, Pc)+"\n");
+     }
+
+    void locate (int Pc)                                                                                                // Write the location of a jump to the Java trace
+     {if (!suppressInstructionTracing) appendJavaTrace(f("%8d Location: %s", Pc, i.instructionLocationAsComment())+"\n");
+     }
+   } // Op
+
+  Op[] compile ()                                                                                                       // Freeze the code into an array of operations now that all the labels have been resolved
+   {final int  N = codeSize();
+    final Op[] o = new Op[N];
+    for (int i = 0; i < N; ++i) o[i] = code.elementAt(i).op();
+    return o;
+   }
+
+  void executeCompiled (Op[] Code)                                                                                      // Execute compiled code
+   {final Op[] c = Code;
+    final int  N = c.length, M = maxSteps;
+    int        p = 0, s = 0;                                                                                            // Local program counter and step count
+    final int[]f = profile;                                                                                             // Execution counts if profiling
+    try
+     {for(; s < M && p >= 0 && p < N; ++s)                                                                              // Execute each operation within the specified number of steps
+       {final Op o = c[p];
+        if (f != null) f[p]++;                                                                                          // Count executions of this operation
+        if (latencyStarts != null) latencyStep(p, s);                                                                   // Operation boundaries
+        switch (o.opcode)                                                                                               // Only the general actions see the program counter as they might read or set it
+         {case address   -> {o.address(p); ++p;}
+          case load      -> {o.load   (p); ++p;}
+          case write     -> {o.write  (p); ++p;}
+          case finish    -> {o.finish (p); ++p;}
+          case jump      -> {if (o.located) o.locate(p); p = o.target;}
+          case jumpFalse -> {final boolean b = !o.bit.b();                if (o.located) o.locate(p); p = b ? o.target : p + 1;}
+          case jumpTrue  -> {final boolean b =  o.bit.b();                if (o.located) o.locate(p); p = b ? o.target : p + 1;}
+          case jumpGe    -> {final boolean b =  o.left.i() >= o.right.i(); if (o.located) o.locate(p); p = b ? o.target : p + 1;}
+          case quiet     -> {currentPc = p; pc = p + 1; executing = o.i; o.i.a(); executing = null; p = pc;}          // Untraced actions may still jump, for example the dump instructions
+          case act, call ->
+           {currentPc = p; pc = p + 1;                                                                                  // Anticipated next instruction
+            executing = o.i; jtrace = 0;
+            o.i.a();
+            if (jtrace != o.traces)                                                                                     // Wrong number of trace calls
+             {stop("Wrong number of Java traces generated, got:", jtrace, "expected:", o.traces,
+                   "at:", o.i.instructionLocation());
+             }
+            if (jtrace == 0) jTrace("%8d Location: %s", currentPc, o.i.instructionLocationAsComment());                 // Append location to Java trace log as no tracing was performed
+            executing = null; p = pc;                                                                                   // The action might have set the program counter
+           }
+         }
+       }
+     }
+    catch(Exception e)
+     {final I i = executing != null ? executing : p >= 0 && p < N ? c[p].i : null;                                      // The specialized actions do not record the executing instruction
+      if (i == null) stop("Exception:", e, "while executing:", traceBack(e));
+      else stop("Exception:", e, "\nin instruction:", i.traceBack, "\nwhile executing:", traceBack(e));
+     }
+    pc = p; steps = s;
+    if (latencyStarts != null) latencyStep(pc, steps);                                                                  // Operations finishing at the end of the program
+   }
+
+  void resetJavaState ()                                                                                                // Restore the state at the start of execution so that the code can be executed again
+   {currentPc = pc = 0;
+    stateHash = 0;
+    initializeJavaMemory();
+    initializeJavaVars();
+   }
+
+  String javaState ()                                                                                                   // The state of the memories and variables at the end of an execution
+   {final StringBuilder s = new StringBuilder(saveMemories());
+    for (Int i : ints()) s.append(f(" %d%s", i.i, i.v ? "" : "?"));
+    for (Bit b : bits()) s.append(f(" %s%s", b.i ? 1 : 0, b.v ? "" : "?"));
+    return ""+s;
+   }
+
+  void verifyEngines (Engine E)                                                                                         // Execute the code with the interpreter and then with the specified engine and confirm they reach the same final state in the same number of steps
+   {final Op[]   c = compile();
+    interpret();
+    final String i = javaState();                                                                                       // State after interpretation
+    final int    s = steps;
+
+    program().javaTrace.close();                                                                                        // Restart from the same initial state
+    traceFiles.delete_java();
+    program().javaTrace.open();
+    resetJavaState();
+
+    if (E == Engine.jit) executeJit(c); else executeCompiled(c);
+    ok(steps, s);                                                                                                       // Same number of steps
+    ok(javaState().equals(i));                                                                                          // Same final state
+   }
+
+//D2 Just in time compilation                                                                                           // Translate the compiled operations into JVM bytecode so that HotSpot can optimize the straight line blocks between jumps
+
+  interface Jitted {int run(int Pc);}                                                                                   // A range of the code translated to bytecode: executes from the specified instruction until control leaves the range and returns the next instruction
+
+  final static int jitChunk = 512;                                                                                      // Instructions per generated method - keeps each method well below the 64K bytecode limit
+  final static int jitGroup = 32;                                                                                       // Methods per generated class - keeps each constant pool well below its 64K entry limit
+
+  int jitStep (Op O, int Pc)                                                                                            // Execute one instruction on behalf of generated code and return the next instruction
+   {currentPc = Pc; pc = Pc + 1;
+    executing = O.i;
+    if (O.opcode.straight() || O.opcode == Opcode.call)                                                                 // Traced action
+     {jtrace = 0;
+      O.i.a();
+      if (jtrace != O.traces)                                                                                           // Wrong number of trace calls
+       {stop("Wrong number of Java traces generated, got:", jtrace, "expected:", O.traces,
+             "at:", O.i.instructionLocation());
+       }
+      if (jtrace == 0) jTrace("%8d Location: %s", currentPc, O.i.instructionLocationAsComment());                       // Append location to Java trace log as no tracing was performed
+     }
+    else                                                                                                                // Untraced action or jump
+     {O.i.a();
+      if (O.located) O.locate(Pc);                                                                                      // Traced jumps write their location as the interpreter does
+     }
+    executing = null;
+    return pc;
+   }
+
+  String jitAction (Op O, int K)                                                                                        // Java source that performs a specialized action in line or by a direct call on its final operation class where it touches the private value of a variable
+   {final String x = "o["+K+"]", m = x+".memory.";
+    if (!suppressInstructionTracing) return x+"."+O.opcode+"("+K+"); ";                                                 // The operation writes its own trace record
+    return switch(O.opcode)
+     {case address -> m+"read"+O.port+"IntIndex = "+x+".left.slot; ";
+      case finish  -> m+"unit("+m+"read0IntIndex, "+m+"writeInt); "+m+"writeIntEnable = false; ";
+      default      -> x+"."+O.opcode+"("+K+"); ";
+     };
+   }
+
+  String jitSource (Op[] Code, boolean[] Leader, int Group)                                                             // Java source for the class that executes the specified group of chunks
+   {final int N = Code.length, G = jitChunk * jitGroup;
+    final int lo = Group * G, hi = min(N, lo + G);
+    final StringBuilder s = new StringBuilder();
+    s.append("package com.AppaApps.Silicon;\n");
+    s.append("final class Jit"+Group+" implements Program.Jitted\n");
+    s.append(" {final Program p; final Program.Op[] o;\n");
+    s.append("  Jit"+Group+"(Program P, Program.Op[] O) {p = P; o = O;}\n");
+    s.append("  public int run(int pc)\n   {switch((pc - "+lo+") / "+jitChunk+")\n     {");
+    for (int c = lo; c < hi; c += jitChunk) s.append("case "+(c-lo)/jitChunk+": return c"+c+"(pc);\n      ");
+    s.append("default: return pc;\n     }\n   }\n");
+
+    for (int c = lo; c < hi; c += jitChunk)                                                                             // Each chunk becomes a method containing a loop over a switch on the basic blocks in the chunk
+     {final int e = min(hi, c + jitChunk);
+      s.append("  int c"+c+"(int pc)\n   {final int M = p.maxSteps;\n    for(;;)\n     {if (p.steps >= M) return pc;\n      switch(pc)\n       {");
+      for (int b = c; b < e;)                                                                                           // Each basic block
+       {int n = b + 1; while (n < e && !Leader[n]) ++n;                                                                 // End of block
+        s.append("case "+b+": {if (p.steps > M - "+(n-b)+") return pc; ");                                             // Leave the remainder of the steps to be taken one at a time if the whole block would exceed them
+        boolean jumped = false;
+        for (int k = b; k < n; ++k)                                                                                     // Each instruction in the block
+         {final Op o = Code[k];
+          final String t = ""+o.target, f = ""+(k+1), x = "o["+k+"]";
+          if (o.located && !suppressInstructionTracing) s.append(x+".locate("+k+"); ");                                 // Traced jumps write their location as the interpreter does
+          switch (o.opcode)
+           {case jump      -> {s.append("pc = "+t+"; ");                                                     jumped = true;}
+            case jumpFalse -> {s.append("pc = "+x+".bit.b() ? "+f+" : "+t+"; ");                             jumped = true;}
+            case jumpTrue  -> {s.append("pc = "+x+".bit.b() ? "+t+" : "+f+"; ");                             jumped = true;}
+            case jumpGe    -> {s.append("pc = "+x+".left.i() >= "+x+".right.i() ? "+t+" : "+f+"; ");         jumped = true;}
+            case address, load, write, finish -> s.append(jitAction(o, k));
+            default        ->
+             {if (o.i.noJump) s.append(           "p.jitStep("+x+", "+k+"); ");
+              else           {s.append("pc = p.jitStep("+x+", "+k+"); "); jumped = true;}                               // An action that sets the program counter itself
+             }
+           }
+         }
+        if (!jumped) s.append("pc = "+n+"; ");
+        s.append("p.steps += "+(n-b)+"; break;}\n        ");                                                           // Charge the steps once the block has been executed
+        b = n;
+       }
+      s.append("default: return pc;\n       }\n      if (pc < "+c+" || pc >= "+e+") return pc;\n     }\n   }\n");
+     }
+    s.append(" }\n");
+    return ""+s;
+   }
+
+  Jitted[] jit (Op[] Code)                                                                                              // Translate the compiled operations into hidden classes or return null if there is no Java compiler available
+   {final int N = Code.length, G = jitChunk * jitGroup, C = (N + G - 1) / G;
+    final boolean[] leader = new boolean[N+1];                                                                          // Instructions that start a basic block
+    for (int i = 0; i < N; i++)
+     {final Op o = Code[i];
+      if (i % jitChunk == 0)                                 leader[i]   = true;                                        // Each method starts with a block
+      if (!o.i.noJump)                                       leader[i+1] = true;                                        // Instruction after a jump
+      if (o.opcode.jumps() && o.target >= 0 && o.target <= N)  leader[o.target] = true;                                 // Target of a jump
+     }
+
+    final String[] source = new String[C];                                                                              // Source of each class
+    final Stack<JavaFileObject> sources = new Stack<>();                                                                // Sources that have not been compiled before
+    for (int g = 0; g < C; ++g)
+     {final String t = source[g] = jitSource(Code, leader, g);
+      if (jitClasses.containsKey(t)) continue;                                                                          // Compiled by an earlier execution of the same code
+      sources.push(new SimpleJavaFileObject(java.net.URI.create("string:///Jit"+g+".java"), JavaFileObject.Kind.SOURCE)
+       {public CharSequence getCharContent(boolean Ignore) {return t;}
+       });
+     }
+    if (sources.size() > 0 && !jitCompile(sources, source)) return null;                                               // No compiler available
+
+    final Jitted[] j = new Jitted[C];                                                                                   // Construct each class on the operations of this execution
+    try {for (int g = 0; g < C; ++g) j[g] = (Jitted)jitClasses.get(source[g]).invoke(this, Code);}
+    catch(Throwable e) {stop("Unable to construct generated code:", e);}
+    return j;
+   }
+
+  boolean jitCompile (Stack<JavaFileObject> Sources, String[] Source)                                                   // Compile the specified sources in memory, load them as hidden classes and save their constructors by source or return false if there is no Java compiler available
+   {final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();                                                    // Compile the generated source in memory
+    if (javac == null) return false;                                                                                    // Running on a runtime without the compiler
+    final TreeMap<String,ByteArrayOutputStream> classes = new TreeMap<>();                                              // Compiled classes by name
+    final JavaFileManager files = new ForwardingJavaFileManager<JavaFileManager>(javac.getStandardFileManager(null, null, null))
+     {public JavaFileObject getJavaFileForOutput(Location L, String Name, JavaFileObject.Kind K, FileObject F)
+       {final ByteArrayOutputStream b = new ByteArrayOutputStream();
+        classes.put(Name.replaceAll(".*\\.", ""), b);
+        return new SimpleJavaFileObject(java.net.URI.create("bytes:///"+Name), K)
+         {public OutputStream openOutputStream() {return b;}
+         };
+       }
+     };
+    final StringWriter errors = new StringWriter();
+    final List<String> options = List.of("-g:none", "-nowarn", "-classpath", System.getProperty("java.class.path"));
+    if (!javac.getTask(errors, files, null, options, null, Sources).call()) stop("Unable to compile generated code:\n", errors);
+
+    try                                                                                                                 // Load each class as a hidden class in this package
+     {for (int g = 0; g < Source.length; ++g)
+       {final ByteArrayOutputStream b = classes.get("Jit"+g);
+        if (b == null) continue;                                                                                        // Compiled before
+        final MethodHandles.Lookup l = MethodHandles.lookup().defineHiddenClass(b.toByteArray(), true);
+        jitClasses.put(Source[g], l.findConstructor(l.lookupClass(), MethodType.methodType(void.class, Program.class, Op[].class)));
+       }
+     }
+    catch(Throwable e) {stop("Unable to load generated code:", e);}
+    return true;
+   }
+
+  void executeJit (Op[] Code)                                                                                           // Translate the compiled operations into bytecode and execute them
+   {final Jitted[] J = jit(Code);
+    if (J == null)                                                                                                      // No compiler available so execute the same operations from the table
+     {say("No Java compiler available to translate the code to bytecode so executing the compiled table instead");
+      executeCompiled(Code);
+      return;
+     }
+    final int      N = Code.length, G = jitChunk * jitGroup;
+    int p = 0;
+    steps = 0;
+    try
+     {while (steps < maxSteps && p >= 0 && p < N)
+       {int q = J[p / G].run(p);
+        if (q == p && steps < maxSteps) {q = jitStep(Code[p], p); ++steps;}                                            // Entered part way through a block after an action set the program counter, or the block would exceed the steps remaining, so execute one step at a time until a block can be run
+        p = q;
+       }
+     }
+    catch(Exception e)
+     {if (executing == null) stop("Exception:", e, "while executing:", traceBack(e));
+      else stop("Exception:", e, "\nin instruction:", executing.traceBack, "\nwhile executing:", traceBack(e));
+     }
+    pc = p;
+   }
+
+  void variableNotSet (String Type, String Name)                                                                        // Variable not yet set message
+   {final I i = executing();
+    final String m = (Name != null ? '"'+Name+'"'+", " : "") + "has not been set yet";
+    if (i != null) stop(Type, m, i.traceBack, "====");                                                                  // With traceback on failing instruction if possible
+    else           stop(Type, m);                                                                                       // No traceback available
+   }
+
+//D2 Dump                                                                                                               // Dump the state of the program at requested locations during execution of both Java and Verilog so that the evolution of memories, variables, registers can be confirmed
+
+  class DumpLocations                                                                                                   // Create a dump location definition to write the title of the dump without having to use string parameters which do not seem to work on icarus Verilog
+   {final Stack<Location> locations = new Stack<>();                                                                    // Locations in the code at which dumps have been requested
     final TreeSet<String>   defined = new TreeSet<>();                                                                  // Location dump routines defined
 
     class Location                                                                                                      // Create a dump location definition to write the title of the dump without having to use string parameters which do not seem to work on icarus Verilog
@@ -1647,24 +3013,29 @@ cd {f}; yosys -q {y}
      } //Location
    } //DumpLocations
 
-  void initializeJavaMemory () {for(Memory m : memories()) for (int i = 0, N = m.size(); i < N;++i) m.units[i] = 0;}    // Clear all of memory to zero
-  void dumpJavaMemories ()     {for(Memory m : memories()) appendJavaTrace(m.dumpJava());}                              // Dump all the memories
+  void initializeJavaMemory ()                                                                                          // Clear all of memory to zero except mapped memory which starts from the content of its file at the start of execution
+   {for(Memory m : memories()) if (!m.mapped()) {m.generation = 0; for (int i = 0, N = m.size(); i < N;++i) m.unit(i, 0);} else m.restore();
+   }
+  void dumpJavaMemories ()                                                                                              // Dump all the memories
+   {if (hashWindow > 0) hashJavaState(); else for(Memory m : memories()) appendJavaTrace(m.dumpJava());
+   }
 
   void initializeJavaVars()                                                                                             // Initialize Java variables so that they start with a known value despite being invalid because the valid bit is not tracked in the Verilog version
    {for (Int i : ints()) {i.i = 0;     i.v = false;}
     for (Bit b : bits()) {b.i = false; b.v = false;}
+    rsp = 0;                                                                                                            // Empty return stack
    }
 
   void dumpJavaVariables ()                                                                                             // Dump all memories and variables to the Java trace file
    {final StringBuilder s = new StringBuilder();
     for (Int  i  : ints())                                                                                              // Dump ints
-     {s.append(f("Int  %8d ==    %8d", i.id, i.i));
+     {s.append(f("Int  %8d ==    %8d", i.id, intRegisters < 0 ? i.i : intMemory().unit(i.slot)));                 // Once registers are shared the register holds the value of whichever variable wrote it last
       if (i.name != null) s.append(" "+i.name);
       s.append('\n');
      }
     for (Bit b : bits())                                                                                                // Dump bools
      {if (b.nd) continue;                                                                                               // Omit bools that were created as a result of testing the validity of an Int because the Verilog code does not retain this information
-      s.append(f("Bit  %8d ==    %8d", b.id, b.i ? 1 : 0));
+      s.append(f("Bit  %8d ==    %8d", b.id, bitRegisters < 0 ? b.i ? 1 : 0 : bitMemory().register(b.slot)));
       if (b.name != null) s.append(" "+b.name);
       s.append('\n');
      }
@@ -1678,7 +3049,8 @@ cd {f}; yosys -q {y}
    }
 
   void dumpJava ()                                                                                                      // Dump all memories and variables to the Java trace file
-   {dumpJavaMemories();
+   {if (hashWindow > 0) {hashJavaState(); return;}                                                                      // The memories include the variables
+    dumpJavaMemories();
     dumpJavaVariables();
     dumpJavaRegisters();
    }
@@ -1724,6 +3096,580 @@ cd {f}; yosys -q {y}
      };
    }
 
+//D2 State hashes                                                                                                       // Compare the Java and Verilog versions by rolling hashes of their memories rather than by full text traces
+
+  final static long hashPrime = 1099511628211L;                                                                         // Multiplier for the rolling hash: the 64 bit FNV prime
+
+  void hashJavaState ()                                                                                                 // Fold every unit of every memory into the rolling hash and trace the result
+   {long h = stateHash;
+    for (Memory m : memories()) for (int i = 0, N = m.size(); i < N; i++) h = h * hashPrime + (m.unit(i) & 0xffffffffL);                            // Units are unsigned 32 bit values in Verilog
+    stateHash = h;
+    appendJavaTrace(f("hash %8d %016x\n", steps, h));
+   }
+
+  void hashJavaWindow () {appendJavaTrace("Window\n"); hashJavaState();}                                                // Periodic state hash
+
+  String hashVerilogStateName () {return "hashState";}                                                                  // Name of the Verilog task that hashes the memories
+
+  String hashVerilogState ()                                                                                            // Verilog task to fold every unit of every memory into the rolling hash and trace the result
+   {final StringBuilder s = new StringBuilder();
+    for (Memory m : memories())
+     {s.append(substitute("""
+      for (i = 0; i < {size}; i = i + 1) stateHash = stateHash * 64'd{prime} + {32'd0, {unit}};
+""", "size", ""+m.size(), "prime", ""+hashPrime, "unit", m.memory("i")));
+     }
+    return substitute("""
+
+  task {name};                                                                                                          // Hash the memories
+    integer i;
+    begin
+`ifndef SYNTHESIS
+{hash}      $fwrite(traceFile, "hash %8d %h\\n", steps, stateHash);
+      $fflush(traceFile);
+`endif
+    end
+  endtask
+""", "name", hashVerilogStateName(), "hash", ""+s);
+   }
+
+  static int firstDivergence (List<String> A, List<String> B)                                                           // Index of the first hash that differs between two lists of rolling hashes found by bisection as once they diverge they stay diverged, or -1 if they agree
+   {if (A.equals(B)) return -1;
+    final int N = min(A.size(), B.size());
+    if (N == 0 || !A.get(0).equals(B.get(0))) return 0;
+    if (A.get(N-1).equals(B.get(N-1))) return N;                                                                        // Agree as far as the shorter one goes
+    int l = 0, h = N-1;                                                                                                 // Agree at l, disagree at h
+    while (h - l > 1)
+     {final int m = (l + h) / 2;
+      if (A.get(m).equals(B.get(m))) l = m; else h = m;
+     }
+    return h;
+   }
+
+  static Stack<String> hashLines (String Trace)                                                                         // The hash lines in a trace
+   {final Stack<String> s = new Stack<>();
+    for (String l : Trace.split("\n")) if (l.startsWith("hash ")) s.push(l);
+    return s;
+   }
+
+  void compareTraces ()                                                                                                 // Compare the Java and Verilog traces
+   {final String v = readFileAsString(traceFiles.v$()), j = readFileAsString(traceFiles.java$());
+    if (hashWindow <= 0) {ok(v.equals(j)); return;}                                                                     // Full text comparison
+    final Stack<String> V = hashLines(v), J = hashLines(j);
+    final int d = firstDivergence(J, V);
+    ok(d < 0);
+    if (d < 0) return;
+    final int from = d == 0 ? 0 : Integer.parseInt(J.get(d-1).trim().split(" +")[1]);                                   // Steps at the last agreement
+    final int   to = d < J.size() ? Integer.parseInt(J.get(d).trim().split(" +")[1]) : steps;                           // Steps at the first disagreement
+    say("State hashes diverge at hash", d, "between steps", from, "and", to, "see:", traceWindow.java$());
+    replayWindow(from, to);
+   }
+
+  void replayWindow (int From, int To)                                                                                  // Execute the code again writing the full state at the start and end of the specified window and the location of each instruction executed in it
+   {final Op[] c = compile();
+    final int   w = hashWindow;
+    resetJavaState();
+    hashWindow = 0;                                                                                                     // Full dumps
+    program().javaTrace.open(traceWindow.java$());
+    try
+     {for (steps = 0; steps < To && pc >= 0 && pc < c.length; ++steps)
+       {if (steps == From) {appendJavaTrace(f("Window start at step %d\n", steps)); dumpJava();}
+        if (steps >= From) appendJavaTrace(f("%8d %8d %s\n", steps, pc, c[pc].i.instructionLocation()));
+        pc = jitStep(c[pc], pc);
+       }
+      appendJavaTrace(f("Window end at step %d\n", steps)); dumpJava();
+     }
+    finally
+     {program().javaTrace.close();
+      hashWindow = w;
+     }
+   }
+
+//D2 Optimization                                                                                                       // Passes over the code after the labels have been fixed and before the code is executed or converted to Verilog
+
+  final class IntOp                                                                                                     // The instructions generated by an integer operation recorded so that the optimization passes can reason about them
+   {final Int.Ops     op;                                                                                               // Operation
+    final Int     target;                                                                                               // Integer written by the operation
+    final Int     source;                                                                                               // Integer read by the operation or null
+    Integer     constant;                                                                                               // Constant used by the operation or substituted for the source by constant propagation
+    Int            bound;                                                                                               // End of the loop whose guard keeps the incremented target below it or null
+    final int      first = codeSize();                                                                                  // First instruction generated by the operation
+    I[]             code;                                                                                               // Instructions generated by the operation
+    I[]            loads;                                                                                               // Instructions that load the source or null
+    I             action;                                                                                               // Instruction that performs the operation
+
+    IntOp (Int.Ops Op, Int Target, Int Source, Integer Constant) {op = Op; target = Target; source = Source; constant = Constant;}
+
+    I[] code (int Start)                                                                                                // Instructions generated from the specified instruction onwards
+     {final int N = codeSize();
+      final I[] c = new I[Math.max(0, N - Start)];
+      for (int i = Start; i < N; i++) c[i - Start] = program().code.elementAt(i);
+      return c;
+     }
+
+    void record () {if (!immediate()) {code = code(first); intOps.push(this);}}                                         // Record the operation for the optimization passes
+    int  last   () {return code[code.length-1].instructionNumber;}                                                      // Last instruction of the operation
+    boolean defines () {return (op == Int.Ops.set || op == Int.Ops.del) && source != target;}                           // Overwrites its target without reading it
+   }
+
+  abstract class Pass                                                                                                   // An optimization pass that marks the instructions it wants removed
+   {final String name;                                                                                                  // Name of the pass
+    int       removed = 0;                                                                                              // Number of instructions removed by this pass
+    Pass (String Name) {name = Name;}
+    abstract void run (boolean[]Remove);                                                                                // Mark the instructions to be removed
+   }
+
+  Stack<Pass> standardPasses ()                                                                                         // The optimization passes in the order they are run
+   {final Stack<Pass> p = new Stack<>();
+    p.push(new Pass("Constant propagation")   {void run(boolean[]R) {constantPropagation(R);}});
+    p.push(new Pass("Dead store elimination") {void run(boolean[]R) {deadStores         (R);}});
+    p.push(new Pass("Jump threading")         {void run(boolean[]R) {jumpThreading      (R);}});
+    p.push(new Pass("Unreachable blocks")     {void run(boolean[]R) {unreachable        (R);}});
+    p.push(new Pass("Instruction packing")    {void run(boolean[]R) {pack               (R);}});
+    return p;
+   }
+
+  void optimize ()                                                                                                      // Run each optimization pass and remove the instructions it marks
+   {optimized = true;
+    int n = 0;
+    for (Pass p : passes)
+     {final boolean[]r = new boolean[codeSize()];
+      p.run(r);
+      n += p.removed = removeInstructions(r);
+     }
+    if (n > 0 && !generateVerilog) say(f("            Optimized: %,12d", n));                                           // Instructions removed
+   }
+
+  String passesReport ()                                                                                                // Instructions removed by each pass
+   {final StringBuilder s = new StringBuilder();
+    for (Pass p : passes) s.append(f("%,8d  %s\n", p.removed, p.name));
+    return ""+s;
+   }
+
+  String passesJson ()                                                                                                  // Instructions removed by each pass in json
+   {final StringJoiner j = new StringJoiner(", ", "{", "}");
+    for (Pass p : passes) j.add(f("\"%s\": %d", p.name, p.removed));
+    return ""+j;
+   }
+
+  int removeInstructions (boolean[]Remove)                                                                              // Remove the marked instructions and renumber everything that refers to an instruction by its program counter
+   {final int   N = codeSize();
+    final int[] n = new int[N+1];                                                                                       // New program counter of each instruction or of the following surviving instruction if it is removed
+    int k = 0;
+    for (int i = 0; i < N; i++) {n[i] = k; if (!Remove[i]) k++;}
+    n[N] = k;
+    if (k == N) return 0;
+
+    final Stack<I> c = new Stack<>();
+    for (int i = 0; i < N; i++)
+     {final I x = code.elementAt(i);
+      if (Remove[i]) x.instructionNumber = -1; else {x.instructionNumber = n[i]; c.push(x);}
+     }
+    for (I x : c) if (x instanceof Pack p) p.number();                                                                  // The halves of a pack live at the program counter of the pack
+    code.clear(); code.addAll(c);
+
+    for (Label l : labels) l.offset = n[l.offset];
+    renumber(pcConstant, n, Remove); renumber(pcInts,  n, Remove); renumber(pcBits,  n, Remove);
+    renumber(pcJumps,    n, Remove); renumber(pcLabels, n, Remove);
+    renumber(pcDefs,     n, Remove); renumber(pcReads,  n, Remove); renumber(pcOperator, n, Remove);
+    for (int i = 1; i < operands.length; i++)                                                                           // Source operands
+     {final Operands o = operands[i];
+      renumber(o.rom, n, Remove); renumber(o.ints, n, Remove); renumber(o.bits, n, Remove);
+     }
+    for (Map.Entry<Integer,Integer> e : pcJumps.entrySet())                                                             // Jump targets
+     {e.setValue(n[e.getValue()]);
+      pcConstant.put(e.getKey(), e.getValue());
+     }
+    renumber(pcReturns, n, Remove);
+    for (Map.Entry<Integer,Label> e : pcReturns.entrySet()) pcConstant.put(e.getKey(), e.getValue().offset);           // Return addresses
+
+    final Stack<Operation> o = new Stack<>();                                                                           // Operations being timed
+    for (Operation x : operations) {x.start = n[x.start]; x.finish = n[x.finish]; if (x.finish > x.start) o.push(x);}
+    operations.clear(); operations.addAll(o);
+
+    final Stack<IntOp> I = new Stack<>();                                                                               // Integer operations that still perform an action
+    for (IntOp x : intOps)
+     {if (x.action.instructionNumber < 0) continue;
+      x.code = Arrays.stream(x.code).filter(i -> i.instructionNumber >= 0).toArray(I[]::new);
+      if (x.loads != null && Arrays.stream(x.loads).anyMatch(i -> i.instructionNumber < 0)) x.loads = null;
+      I.push(x);
+     }
+    intOps.clear(); intOps.addAll(I);
+    return N - k;
+   }
+
+  static <V> void renumber (TreeMap<Integer,V> Map, int[]N, boolean[]Remove)                                            // Renumber the keys of a map indexed by program counter
+   {final TreeMap<Integer,V> m = new TreeMap<>();
+    for (Map.Entry<Integer,V> e : Map.entrySet()) if (!Remove[e.getKey()]) m.put(N[e.getKey()], e.getValue());
+    Map.clear(); Map.putAll(m);
+   }
+
+  static void renumber (TreeSet<Integer> Set, int[]N, boolean[]Remove)                                                  // Renumber a set of program counters
+   {final TreeSet<Integer> s = new TreeSet<>();
+    for (int i : Set) if (!Remove[i]) s.add(N[i]);
+    Set.clear(); Set.addAll(s);
+   }
+
+  void constantPropagation (boolean[]Remove)                                                                            // Replace a variable that is only ever set from one literal by that literal wherever it is the source of an integer operation
+   {final IntOp[]store = new IntOp[nextIntId];                                                                          // The only store into each variable
+    final boolean[]many = new boolean[nextIntId];                                                                       // Stored more than once or written by other means
+    for (IntOp o : intOps)
+     {final int t = o.target.id;
+      if (o.op == Int.Ops.set && o.source == null && o.constant != null && !o.target.in && store[t] == null && !many[t]) store[t] = o;
+      else many[t] = true;
+     }
+    for (Int i : ints) if (i.stored) many[i.id] = true;                                                                 // Written by instructions other than integer operations
+    for (Map.Entry<Integer,Int> e : pcInts.entrySet())                                                                  // Every other reference must only read the variable
+     {final int t = e.getValue().id;
+      if (store[t] == null || pcReads.contains(e.getKey()) || store[t].code[0].instructionNumber == e.getKey()) continue;
+      many[t] = true;
+     }
+    for (IntOp o : intOps)
+     {if (o.source == null || o.loads == null || o.constant != null) continue;
+      final int s = o.source.id;
+      if (store[s] == null || many[s]) continue;
+      switch (o.op) {case set, add, sub, mul, div, mod, add2 -> {} default -> {continue;}}                              // Operations that have a constant form
+      o.constant = store[s].constant;
+      pcConstant(o.action, o.constant);
+      for (I i : o.loads) Remove[i.instructionNumber] = true;
+     }
+   }
+
+  void deadStores (boolean[]Remove)                                                                                     // Remove an integer operation whose result is overwritten by a later operation in the same straight line sequence of integer operations before it is read
+   {final int N = codeSize();
+    final IntOp[]cover = new IntOp[N];                                                                                  // Integer operation generating each instruction
+    for (IntOp o : intOps) for (I i : o.code) cover[i.instructionNumber] = o;
+    for (IntOp o : intOps)
+     {final Int t = o.target;
+      if (t.in) continue;                                                                                               // Input wires keep their initialization
+      for (int p = o.last() + 1; p < N && cover[p] != null;)                                                            // Follow the straight line sequence of integer operations
+       {final IntOp q = cover[p];
+        if (q.source == t || pcJumps.containsKey(p)) break;                                                             // Read
+        if (q.target == t)
+         {if (q.defines()) for (I i : o.code) Remove[i.instructionNumber] = true;                                       // Overwritten before being read
+          break;
+         }
+        p = q.last() + 1;
+       }
+     }
+   }
+
+  Opcode[] opcodes ()                                                                                                   // The kind of each instruction
+   {final int N = codeSize();
+    final Opcode[] o = new Opcode[N];
+    for (int i = 0; i < N; i++) o[i] = code.elementAt(i).op().opcode;
+    return o;
+   }
+
+  void jumpThreading (boolean[]Remove)                                                                                  // Jump directly to the final target of a chain of unconditional jumps and remove jumps to the following instruction
+   {final int    N = codeSize();
+    final Opcode[]o = opcodes();
+    for (Map.Entry<Integer,Integer> e : pcJumps.entrySet())
+     {final int j = e.getKey();
+      int t = e.getValue();
+      for (int h = 0; h < N && t < N && t != j && o[t] == Opcode.jump; h++) t = pcJumps.get(t);                         // Follow the chain of unconditional jumps
+      if (t == e.getValue() || t == j) continue;
+      e.setValue(t); pcConstant.put(j, t); pcLabels.put(j, new Label(t));                                               // Retarget this jump alone as its label may be shared with other jumps or mark the entry to a routine
+     }
+    for (int j : pcJumps.descendingKeySet())                                                                            // Jumps to the next surviving instruction
+     {int n = j + 1;
+      while (n < N && Remove[n]) n++;
+      if (pcJumps.get(j) == n || pcJumps.get(j) > j && pcJumps.get(j) < n) Remove[j] = true;
+     }
+   }
+
+  void unreachable (boolean[]Remove)                                                                                    // Remove instructions that cannot be reached from the start of the program
+   {final int    N = codeSize();
+    final Opcode[]o = opcodes();
+    final boolean[]r = new boolean[N];
+    final Stack<Integer> s = new Stack<>();
+    s.push(0);
+    while (s.size() > 0)
+     {final int p = s.pop();
+      if (p < 0 || p >= N || r[p]) continue;
+      r[p] = true;
+      if (o[p] != Opcode.jump) s.push(p + 1);                                                                           // Fall through
+      if (o[p].jumps()) s.push(pcJumps.get(p));                                                                         // Jump
+     }
+    for (int i = 0; i < N; i++) Remove[i] = !r[i];
+   }
+
+  final class Pack extends I                                                                                            // Two instructions executed in the same clock cycle: the first only lowers write enables so the second cannot observe it
+   {final I first, second;                                                                                              // The instructions in the order in which they are interpreted
+    Pack (I First, I Second) {super(First, Second); first = First; second = Second; number();}
+    void number() {first.instructionNumber = second.instructionNumber = instructionNumber;}                             // Number the halves as the pack
+    void    a () {first.a(); second.a();}                                                                               // Interpret the packed instructions in order so the Java traces match the Verilog
+    String  v () {return first.v() + " " + second.v();}                                                                 // Both sets of non blocking assignments happen on the same clock edge
+    int traces() {return first.traces() + second.traces();}
+   }
+
+  final class Ports                                                                                                     // The memory ports an instruction uses, declared on the instruction so that the packing pass does not have to parse its Verilog
+   {final Memory finishes;                                                                                              // Memory whose write the instruction finishes by lowering its write enable and doing nothing else, or null
+    final Memory   starts;                                                                                              // Memory whose write enable the instruction raises, or null
+    final boolean   reads;                                                                                              // Whether the instruction reads a value presented by a memory module, which would arrive a cycle later than it expects were it packed
+    Ports (Memory Finishes, Memory Starts, boolean Reads) {finishes = Finishes; starts = Starts; reads = Reads;}
+   }
+
+  boolean pcKeyed (int P)                                                                                               // Whether anything is recorded against the specified program counter
+   {if (pcConstant.containsKey(P) || pcInts.containsKey(P) || pcBits.containsKey(P) || pcReturns.containsKey(P)) return true;
+    if (pcOperator.containsKey(P)) return true;
+    if (pcDefs.contains(P) || pcReads.contains(P)) return true;
+    for (int i = 1; i < operands.length; i++) if (operands[i].rom.containsKey(P)) return true;
+    return false;
+   }
+
+  void movePc (int From, int To)                                                                                        // Move everything recorded against one program counter to another
+   {move(pcConstant, From, To); move(pcInts, From, To); move(pcBits, From, To); move(pcReturns, From, To);
+    move(pcOperator, From, To);
+    if (pcDefs .remove(From)) pcDefs .add(To);
+    if (pcReads.remove(From)) pcReads.add(To);
+    for (int i = 1; i < operands.length; i++)
+     {final Operands o = operands[i];
+      move(o.rom, From, To); move(o.ints, From, To); move(o.bits, From, To);
+     }
+   }
+
+  static <V> void move (TreeMap<Integer,V> Map, int From, int To)                                                      // Move the entry for one program counter to another
+   {final V v = Map.remove(From);
+    if (v != null) Map.put(To, v);
+   }
+
+  void pack (boolean[]Remove)                                                                                           // Pack each instruction that follows an instruction that only finishes a memory write into the same clock cycle when the pair touch disjoint ports. This is a peephole over one pair of instructions, not a scheduler of basic blocks
+   {final int    N = codeSize();
+    final Opcode[]o = opcodes();
+    final boolean[]fixed = new boolean[N+1];                                                                            // Instructions that are jumped or returned to or that delimit a timed operation
+    for (Label     l : labels)     if (l.offset >= 0 && l.offset < N) fixed[l.offset] = true;
+    for (Operation x : operations) {fixed[x.start] = true; fixed[x.finish] = true;}
+    final IdentityHashMap<I,I> packed = new IdentityHashMap<>();                                                        // The pack that absorbed each instruction
+    for (int a = 1; a + 1 < N; a++)                                                                                     // Each instruction that might finish a write
+     {final int b = a + 1;
+      if (fixed[a] || fixed[b] || !o[a].straight() || !o[b].straight() || !o[a-1].straight()) continue;                  // Straight line traced code only
+      if (pcKeyed(a)) continue;
+      final I A = code.elementAt(a), B = code.elementAt(b), P = code.elementAt(a-1);
+      if (!A.noJump || !B.noJump) continue;                                                                             // Neither half may set the program counter
+      final Ports x = A.ports(), y = B.ports(), w = P.ports();
+      if (x == null || y == null || w == null || x.finishes == null) continue;                                          // Only instructions that declare their ports and a first instruction that only finishes a write
+      if (w.starts != null && w.starts != x.finishes) continue;                                                         // No other write remains pending after it
+      if (y.reads) continue;                                                                                            // Reads a memory whose output would arrive a cycle later than it expects
+      if (y.starts == x.finishes || y.finishes == x.finishes) continue;                                                 // Touches the write enable being lowered
+      final Pack p = new Pack(A, B);
+      code.set(a, p);
+      packed.put(A, p); packed.put(B, p);
+      movePc(b, a);
+      Remove[b] = true;
+      o[b] = Opcode.quiet;                                                                                              // Not available to the next pair
+      a++;
+     }
+    if (packed.size() > 0) for (IntOp x : intOps)                                                                       // Integer operations refer to the pack rather than to the instructions it absorbed
+     {x.action = packed.getOrDefault(x.action, x.action);
+      x.code   = repack(x.code, packed);
+      if (x.loads != null) x.loads = repack(x.loads, packed);
+     }
+   }
+
+  static I[] repack (I[]Code, IdentityHashMap<I,I> Packed)                                                              // Replace each packed instruction by its pack
+   {return Arrays.stream(Code).map(i -> Packed.getOrDefault(i, i)).distinct().toArray(I[]::new);
+   }
+
+//D2 Widths                                                                                                             // Infer the number of bits needed to hold each integer register by interval analysis over the integer operations
+
+  long[] intRanges = null;                                                                                              // Lowest and highest value of each Int by id as pairs after interval analysis
+
+  static int width (long Lo, long Hi) {return Lo < 0 ? Integer.SIZE : max(1, Long.SIZE - Long.numberOfLeadingZeros(Hi));} // Bits needed to hold the values in a range as an unsigned number or all of them if the range includes negative values
+
+  int width (Int I)                                                                                                     // Bits needed to hold an integer after the interval analysis
+   {if (intRanges == null) return Integer.SIZE;
+    return width(intRanges[2*I.id], intRanges[2*I.id+1]);
+   }
+
+  long[] range (IntOp O, long A, long B, long[]R, boolean[]Full)                                                        // Range of values written by an integer operation given the range A to B of its target and the ranges of the other variables or null if it is unknown
+   {final long a = A, b = B;                                                                                            // Target
+    long c = 0, d = 0;                                                                                                  // Source
+    if (O.constant != null) c = d = O.constant;
+    else if (O.source != null)
+     {final int s = O.source.id;
+      if (Full[s]) return null;
+      c = R[2*s]; d = R[2*s+1];
+     }
+    switch (O.op)
+     {case set, del -> {return new long[]{c, d};}
+      case add      -> {return new long[]{a + c, b + d};}
+      case add2     -> {return new long[]{a + 2*c, b + 2*d};}
+      case sub      -> {return new long[]{a - d, b - c};}
+      case dec      -> {return new long[]{a - 1, b - 1};}
+      case neg      -> {return new long[]{-b, -a};}
+      case abs      -> {return corners(a < 0 && b > 0 ? 0 : Math.abs(a), Math.abs(a), Math.abs(b), Math.abs(b));}
+      case mul      -> {return corners(a*c, a*d, b*c, b*d);}
+      case div      -> {return c <= 0 && d >= 0 ? null : corners(a/c, a/d, b/c, b/d);}
+      case mod      -> {return a >= 0 && c > 0 ? new long[]{0, Math.min(b, d - 1)} : null;}
+      case inc      ->
+       {if (O.bound == null) return new long[]{a + 1, b + 1};
+        final int e = O.bound.id;                                                                                       // The guard of the loop only lets the index be incremented while it is below the end
+        if (Full[e]) return null;
+        return new long[]{a + 1, max(a + 1, R[2*e+1])};
+       }
+      default       -> {return null;}
+     }
+   }
+
+  static long[] corners (long A, long B, long C, long D)                                                                // Range spanned by four values
+   {return new long[]{Math.min(Math.min(A, B), Math.min(C, D)), max(A, B, C, D)};
+   }
+
+  void inferWidths ()                                                                                                   // Find the range of values each Int can hold, narrow each integer register to the widest of its variables and the integer memory to the widest register
+   {final int N = nextIntId;
+    final long[]r = new long[2*N];                                                                                      // Every variable starts at zero
+    final boolean[]full = new boolean[N];                                                                               // Variables that can hold any value
+    final IntOp[]ops = intOps.toArray(new IntOp[0]);
+    final int    M = ops.length;
+    final int[]writes = new int[N];                                                                                     // Integer operations writing each variable
+    for (IntOp o : ops) writes[o.target.id]++;
+    final TreeSet<Integer> entries = new TreeSet<>();                                                                   // Instructions that can be reached other than from the preceding instruction
+    for (Label l : labels) entries.add(l.offset);
+    final int[]prev = new int[M];                                                                                       // The preceding operation if it writes the same target and nothing can enter the code between them else -1
+    for (int k = 0; k < M; k++)
+     {prev[k] = -1;
+      if (k == 0 || ops[k-1].target != ops[k].target || ops[k-1].code.length == 0 || ops[k].code.length == 0) continue;
+      final int a = ops[k-1].code[0].instructionNumber, b = ops[k].code[0].instructionNumber;
+      if (a < b && entries.subSet(a, false, b, true).isEmpty()) prev[k] = k-1;
+     }
+    for (Int i : ints) if (i.in || i.stored) full[i.id] = true;                                                         // Input wires can be driven with any value as can variables written by instructions other than integer operations
+    for (IntOp o : ops)                                                                                                 // A loop guard only bounds an index that is written by nothing else but its initialization
+     {if (o.bound != null && writes[o.target.id] > 2) o.bound = null;
+     }
+
+    final long[][]out = new long[M][];                                                                                  // Range of the values written by each operation
+    for (int round = 0, changed = 1; changed > 0; round++)                                                              // Widen the ranges until they stop changing
+     {changed = 0;
+      for (int k = 0; k < M; k++)
+       {final IntOp o = ops[k];
+        final int   t = o.target.id;
+        if (full[t]) continue;
+        final long[]p = prev[k] >= 0 ? out[prev[k]] : null;                                                             // The target was just written by the preceding operation
+        final long[]v = range(o, p != null ? p[0] : r[2*t], p != null ? p[1] : r[2*t+1], r, full);
+        if (v == null || v[0] < Integer.MIN_VALUE || v[1] > Integer.MAX_VALUE) {full[t] = true; changed++; continue;}
+        final long[]w = out[k];
+        if (w != null && w[0] <= v[0] && v[1] <= w[1]) continue;
+        if (round > 8) {full[t] = true; changed++; continue;}                                                           // A range still growing after several rounds is growing in a loop
+        out[k] = w == null ? v : new long[]{Math.min(w[0], v[0]), max(w[1], v[1])};
+        r[2*t] = Math.min(r[2*t], out[k][0]); r[2*t+1] = max(r[2*t+1], out[k][1]);
+        changed++;
+       }
+     }
+    for (int i = 0; i < N; i++) if (full[i]) {r[2*i] = Integer.MIN_VALUE; r[2*i+1] = Integer.MAX_VALUE;}
+    intRanges = r;
+
+    final int[]u = new int[intRegisters()];                                                                             // Width of each register: the widest of the variables sharing it
+    Arrays.fill(u, 1);
+    for (Int i : ints) u[i.slot] = max(u[i.slot], width(i));
+    int w = 1;
+    for (int x : u) w = max(w, x);
+    intMemory().width(w).unitWidths(u);                                                                                 // The Verilog holds every register in the widest width while Java checks each register against its own width
+   }
+
+//D2 Register allocation                                                                                                // Share registers between variables whose live ranges do not overlap
+
+  int intRegisters () {return intRegisters < 0 ? nextIntId : intRegisters;}                                             // Number of integer registers
+  int bitRegisters () {return bitRegisters < 0 ? nextBitId : bitRegisters;}                                             // Number of boolean registers
+
+  void checkRegister (Int I)                                                                                            // Confirm that the register of an integer still holds its value when it is loaded, which it would not if register allocation had overlapped two live ranges
+   {if (intRegisters < 0 || !I.v || immediate()) return;
+    final int r = intMemory().unit(I.slot);
+    if (r != I.i) stop("Register", I.slot, "of Int", I.id, I.name, "holds", r, "not", I.i);
+   }
+
+  void checkRegister (Bit B)                                                                                            // Confirm that the register of a boolean still holds its value when it is loaded
+   {if (bitRegisters < 0 || !B.v || immediate()) return;
+    final int r = bitMemory().register(B.slot);
+    if (r != (B.i ? 1 : 0)) stop("Register", B.slot, "of Bit", B.id, B.name, "holds", r, "not", B.i);
+   }
+
+  int     loaded (Int I) {return intRegisters < 0 || I.v || immediate() ? I.i : intMemory().unit(I.slot);}            // The value seen by a load of an integer: one that has not been set yet sees whatever its shared register holds, just as it does in Verilog
+  boolean loaded (Bit B) {return bitRegisters < 0 || B.v || immediate() ? B.i : bitMemory().register(B.slot) != 0;}  // The value seen by a load of a boolean
+
+  static final int writeBack = 4;                                                                                       // Instructions after a variable is addressed during which its register is still in use: the value arrives, the operation runs, the result is written and the write is released
+
+  void allocateRegisters ()                                                                                             // Allocate registers by linear scan over the live range of each variable extended over any loop it is live across
+   {final int N = codeSize();
+    final int[]loop = new int[N+1];                                                                                     // Innermost loop containing each instruction as an index into the loop starts and ends or -1
+    final Stack<int[]> loops = new Stack<>();                                                                           // Loops as: start, end, parent
+    Arrays.fill(loop, -1);
+    final ArrayList<int[]> back = new ArrayList<>();                                                                    // Backward jumps: target, jump
+    final Opcode[]op = opcodes();
+    for (Map.Entry<Integer,Integer> e : pcJumps.entrySet())                                                             // A call enters a routine rather than repeating a loop
+     {if (e.getValue() <= e.getKey() && op[e.getKey()] != Opcode.call) back.add(new int[]{e.getValue(), e.getKey()});
+     }
+    back.sort((a, b) -> a[1] - a[0] != b[1] - b[0] ? (b[1] - b[0]) - (a[1] - a[0]) : a[0] - b[0]);                      // Outermost first so inner loops overwrite them
+    for (int[]b : back)
+     {final int l = loops.size();
+      loops.push(new int[]{b[0], b[1], loop[b[0]]});
+      for (int i = b[0]; i <= b[1]; i++) loop[i] = l;
+     }
+
+    final ArrayList<int[]> intRefs = new ArrayList<>(), bitRefs = new ArrayList<>();                                    // Instruction and variable of each reference through any operand
+    for (Operands o : operands)
+     {for (Map.Entry<Integer,Int> e : o.ints.entrySet()) intRefs.add(new int[]{e.getKey(), e.getValue().id});
+      for (Map.Entry<Integer,Bit> e : o.bits.entrySet()) bitRefs.add(new int[]{e.getKey(), e.getValue().id});
+     }
+    final int[]ints = allocateRegisters(nextIntId, intRefs, loop, loops, Int.class);
+    final int[]bits = allocateRegisters(nextBitId, bitRefs, loop, loops, Bit.class);
+    for (Int i : ints()) i.slot = ints[i.id];
+    for (Bit b : bits()) b.slot = bits[b.id];
+    for (Operands o : operands)                                                                                         // Rewrite the operands
+     {for (Map.Entry<Integer,Int> e : o.ints.entrySet()) o.rom.put(e.getKey(), e.getValue().slot);
+      for (Map.Entry<Integer,Bit> e : o.bits.entrySet()) o.rom.put(e.getKey(), e.getValue().slot);
+     }
+    intRegisters = ints[nextIntId]; bitRegisters = bits[nextBitId];
+   }
+
+  private int[] allocateRegisters (int Variables, List<int[]> Refs, int[]Loop, Stack<int[]> Loops, Class<?> Type)     // Register for each variable followed by the number of registers
+   {final int[]start = new int[Variables], end = new int[Variables];
+    Arrays.fill(start, Integer.MAX_VALUE); Arrays.fill(end, -1);
+    final boolean[]pinned = new boolean[Variables];
+    final boolean[]initial = new boolean[Variables];                                                                    // Variables whose value is defined before any instruction writes them
+    for (Int i : ints()) if (Type == Int.class && (i.name != null || i.in || i.out)) pinned[i.id] = true;               // Named variables keep a register of their own
+    for (Bit b : bits()) if (Type == Bit.class && (b.name != null || b.in || b.out)) pinned[b.id] = true;
+    for (Int i : ints()) if (Type == Int.class && i.in) initial[i.id] = true;                                           // Input variables
+    for (Bit b : bits()) if (Type == Bit.class && b.in) initial[b.id] = true;
+    for (Routine r : routines) for (int[]e : Refs) if (r.contains(e[0])) pinned[e[1]] = true;                           // The variables of a routine are live at each of its call sites so they keep a register of their own
+    for (int[]e : Refs)                                                                                                 // Range of instructions referring to each variable
+     {final int pc = e[0], v = e[1];
+      start[v] = Math.min(start[v], pc); end[v] = Math.max(end[v], pc + writeBack);                                     // Allow for the instructions that write the result back after the operand has been addressed
+     }
+
+    final Integer[]order = new Integer[Variables];
+    for (int v = 0; v < Variables; v++)
+     {order[v] = v;
+      if (end[v] < 0) {pinned[v] = true; continue;}                                                                     // Unreferenced variables keep a register of their own
+      final boolean def = pcDefs.contains(start[v]);                                                                    // Each iteration of a loop overwrites a variable that is first addressed to be overwritten
+      if (!def && initial[v]) start[v] = 0;                                                                             // A variable that is loaded before it is written observes its initial value only if it has one: any other variable has no value to preserve until it is written, so its register is free until then
+      for (boolean changed = true; changed;)                                                                            // Extend the range over each loop it is live across
+       {changed = false;
+        for (int p : new int[]{start[v], Math.min(end[v], Loop.length-1)})
+          for (int l = Loop[p]; l >= 0; l = Loops.get(l)[2])
+           {final int[]L = Loops.get(l);
+            final boolean inside = L[0] <= start[v] && end[v] <= L[1];
+            if (inside && def) continue;
+            if (L[0] < start[v] || L[1] > end[v]) {start[v] = Math.min(start[v], L[0]); end[v] = Math.max(end[v], L[1]); changed = true;}
+           }
+       }
+     }
+
+    final int[]r = new int[Variables+1];
+    int registers = 0;
+    for (int v = 0; v < Variables; v++) if (pinned[v]) r[v] = registers++;
+    Arrays.sort(order, (a, b) -> start[a] - start[b]);
+    final PriorityQueue<int[]> active = new PriorityQueue<>((a, b) -> a[0] - b[0]);                                     // End and register of each live variable
+    final Stack<Integer>         free = new Stack<>();
+    for (int v : order)
+     {if (pinned[v]) continue;
+      while (!active.isEmpty() && active.peek()[0] < start[v]) free.push(active.poll()[1]);                             // Release the registers of variables that are no longer live
+      r[v] = free.isEmpty() ? registers++ : free.pop();
+      active.add(new int[]{end[v], r[v]});
+     }
+    r[Variables] = registers;
+    return r;
+   }
+
 //D2 Instruction counts                                                                                                 // Count the number of instructions in each subroutine minus the instructions supplied by called subroutines
 
   int codeSize () {return program().code.size();}                                                                       // Number of instructions in current program
@@ -1744,6 +3690,7 @@ cd {f}; yosys -q {y}
   static void subFinish ()                                                                                              // Finish a subroutine definition
    {if (subs.size() == 0) stop("No matching subStart()");
     subs.pop();
+    subsTrace = subs.size() > 0 ? joinStrings(subs, "\n") : null;                                                       // Instructions generated from now on belong to the enclosing sub
    }
 
   static String subPrint ()                                                                                             // Print instruction counts
@@ -1756,7 +3703,184 @@ cd {f}; yosys -q {y}
      {s.append(f("%,12d  %s\n", e.getValue(), e.getKey()));
       N += e.getValue();
      }
-    s.append(f("%,8d  Total\n", N));
+    s.append(f("%,8d  Total\n", N));
+    return ""+s;
+   }
+
+//D2 Profile                                                                                                            // Fold the number of times each instruction was executed into the subroutines that generated it
+
+  static String enclosingSub (String A, String B)                                                                      // The innermost sub that encloses the subs during which two instructions were created
+   {if (A == null || B == null) return null;
+    final String[]a = A.split("\n"), b = B.split("\n");
+    int n = 0;
+    while (n < a.length && n < b.length && a[n].equals(b[n])) n++;
+    return n > 0 ? String.join("\n", Arrays.copyOf(a, n)) : null;
+   }
+
+  static String[] profileStack (I Instruction)                                                                          // The subroutines active when an instruction was generated, outermost first
+   {final String t = Instruction.traceSub;
+    return t == null || t.isEmpty() ? new String[]{"program"} : t.split("\n");
+   }
+
+  TreeMap<String,long[]> profileSubs ()                                                                                 // Self and inclusive cycles for each subroutine
+   {final TreeMap<String,long[]> p = new TreeMap<>();
+    for (int pc = 0; pc < profile.length; pc++)
+     {final int c = profile[pc]; if (c == 0) continue;
+      final String[]s = profileStack(code.elementAt(pc));
+      for (String n : new TreeSet<>(Arrays.asList(s))) p.computeIfAbsent(n, k -> new long[2])[1] += c;                  // Inclusive - count recursive subroutines once
+      p.get(s[s.length-1])[0] += c;                                                                                     // Self
+     }
+    return p;
+   }
+
+  String profileReport ()                                                                                               // Subroutines in descending order of self cycles
+   {final StringBuilder s = new StringBuilder(f("%12s  %12s  %s\n", "Self", "Inclusive", "Subroutine"));
+    profileSubs().entrySet().stream()
+      .sorted((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]))
+      .forEach(e -> s.append(f("%,12d  %,12d  %s\n", e.getValue()[0], e.getValue()[1], e.getKey())));
+    return ""+s;
+   }
+
+  String profileCollapsed ()                                                                                            // Collapsed stacks: one line per distinct stack of subroutines followed by the cycles spent in it
+   {final TreeMap<String,Long> c = new TreeMap<>();
+    for (int pc = 0; pc < profile.length; pc++)
+     {if (profile[pc] > 0) c.merge(String.join(";", profileStack(code.elementAt(pc))), (long)profile[pc], Long::sum);
+     }
+    final StringBuilder s = new StringBuilder();
+    for (Map.Entry<String,Long> e : c.entrySet()) s.append(e.getKey()+" "+e.getValue()+"\n");
+    return ""+s;
+   }
+
+  String profileJson ()                                                                                                 // Profile of subroutines and hot instructions in json
+   {final StringJoiner u = new StringJoiner(", "), i = new StringJoiner(", ");
+    for (Map.Entry<String,long[]> e : profileSubs().entrySet())
+     {u.add(f("{\"name\": %s, \"self\": %d, \"inclusive\": %d}", q(e.getKey()), e.getValue()[0], e.getValue()[1]));
+     }
+    for (int pc = 0; pc < profile.length; pc++)
+     {if (profile[pc] > 0) i.add(f("{\"pc\": %d, \"count\": %d}", pc, profile[pc]));
+     }
+    return f("{\"testName\": %s, \"steps\": %d, \"subroutines\": [%s], \"instructions\": [%s]}\n", q(testName()), steps, u, i);
+   }
+
+  void writeProfile ()                                                                                                  // Write the profile as json and as collapsed stacks for flame graph tools
+   {writeFile(profileFiles.json$(), profileJson());
+    writeFile(fe(profileFiles.folder, profileFiles.file, "folded"), profileCollapsed());
+   }
+
+//D2 Latency                                                                                                            // Cycles taken by each call of an operation
+
+  final class Operation                                                                                                 // The range of instructions generated by one call of an operation
+   {final String   name;                                                                                                // Name of the operation
+    int           start = codeSize();                                                                                   // Program counter of the first instruction of the operation
+    int          finish = -1;                                                                                           // Program counter of the instruction following the operation
+    int          opened = -1;                                                                                           // Step at which the current execution of the operation started or -1 if it is not executing
+    Operation (String Name) {name = Name;}
+   }
+
+  Operation operationStart (String Name) {return new Operation(Name);}                                                  // Mark the start of the code generated by an operation
+
+  void operationFinish (Operation O)                                                                                    // Mark the end of the code generated by an operation
+   {if (immediate()) return;                                                                                            // Latency is measured by the delayed engines
+    O.finish = codeSize();
+    if (O.finish > O.start) operations().push(O);                                                                       // Operations that generate no code take no time
+   }
+
+  Stack<Operation> operations () {return program().operations;}                                                         // Operations in the program
+
+  static class Histogram                                                                                                // Log linear histogram of cycle counts accurate to about three percent in the manner of HdrHistogram
+   {final TreeMap<Integer,Long> buckets = new TreeMap<>();                                                              // Count of values in each bucket keyed by the lowest value in the bucket
+    long count = 0, total = 0;                                                                                          // Number and sum of recorded values
+    int  max   = 0;                                                                                                     // Largest recorded value
+
+    static int bucket (int V)                                                                                           // Lowest value in the bucket containing a value: values below 64 are exact, above that the leading six bits are kept so each bucket is no wider than one part in 32 of its values
+     {if (V < 64) return V;
+      final int s = 26 - Integer.numberOfLeadingZeros(V);
+      return V >>> s << s;
+     }
+
+    void record (int V) {buckets.merge(bucket(V), 1L, Long::sum); count++; total += V; max = Math.max(max, V);}         // Record a value
+
+    int percentile (double P)                                                                                           // Lowest value in the bucket containing the specified percentile
+     {final long n = Math.max(1, (long)Math.ceil(P / 100 * count));
+      long c = 0;
+      for (Map.Entry<Integer,Long> e : buckets.entrySet()) if ((c += e.getValue()) >= n) return e.getKey();
+      return max;
+     }
+
+    String json ()                                                                                                      // Summary of the histogram in json
+     {return f("{\"count\": %d, \"mean\": %.1f, \"p50\": %d, \"p99\": %d, \"max\": %d}",
+                count, count == 0 ? 0d : (double)total / count, percentile(50), percentile(99), max);
+     }
+   }
+
+  void latencyTables ()                                                                                                 // Index the operations by the program counters at which they start and finish
+   {latencyStarts = latencyFinishes = null;
+    javaLatency   = new TreeMap<>();
+    if (!measureLatency) return;
+    final int N = codeSize() + 1;                                                                                       // An operation can finish at the end of the program
+    final ArrayList<ArrayList<Operation>> s = new ArrayList<>(), f = new ArrayList<>();
+    for (int i = 0; i < N; i++) {s.add(new ArrayList<>()); f.add(new ArrayList<>());}
+    for (Operation o : operations()) {o.opened = -1; s.get(o.start).add(o); f.get(o.finish).add(o);}
+    latencyStarts = new Operation[N][]; latencyFinishes = new Operation[N][];
+    for (int i = 0; i < N; i++)
+     {latencyStarts  [i] = s.get(i).toArray(new Operation[0]);
+      latencyFinishes[i] = f.get(i).toArray(new Operation[0]);
+     }
+   }
+
+  static void latencyEvent (Operation O, boolean Start, int Steps, TreeMap<String,Histogram> H)                         // Open an operation at its start unless it is already open as happens when a loop returns to its first instruction, or record the cycles it took when it finishes
+   {if (Start) {if (O.opened < 0) O.opened = Steps; return;}
+    if (O.opened < 0) return;
+    H.computeIfAbsent(O.name, k -> new Histogram()).record(Steps - O.opened);
+    O.opened = -1;
+   }
+
+  void latencyStep (int Pc, int Steps)                                                                                  // Record the operations finishing and starting at a program counter before the instruction there executes
+   {if (Pc < 0 || Pc >= latencyStarts.length) return;
+    for (Operation o : latencyFinishes[Pc]) latencyEvent(o, false, Steps, javaLatency);
+    for (Operation o : latencyStarts  [Pc]) latencyEvent(o, true,  Steps, javaLatency);
+   }
+
+  TreeMap<String,Histogram> verilogLatencies (String Events)                                                            // Latencies from the start and finish events written by the Verilog simulation
+   {final TreeMap<String,Histogram> h = new TreeMap<>();
+    for (Operation o : operations()) o.opened = -1;
+    for (String l : Events.split("\n"))
+     {final String[]w = l.trim().split(" +");
+      if (w.length != 3) continue;
+      latencyEvent(operations().elementAt(Integer.parseInt(w[1])), w[0].equals("start"), Integer.parseInt(w[2]), h);
+     }
+    return h;
+   }
+
+  static String latencyJson (TreeMap<String,Histogram> H)                                                               // Latency histograms in json
+   {final StringJoiner j = new StringJoiner(", ");
+    for (Map.Entry<String,Histogram> e : H.entrySet()) j.add(q(e.getKey())+": "+e.getValue().json());
+    return "{"+j+"}";
+   }
+
+  String latencyReport ()                                                                                               // Latency of each operation in Java
+   {final StringBuilder s = new StringBuilder(f("%-24s %8s %8s %8s %8s\n", "Operation", "Calls", "p50", "p99", "Max"));
+    for (Map.Entry<String,Histogram> e : javaLatency.entrySet())
+     {final Histogram h = e.getValue();
+      s.append(f("%-24s %8d %8d %8d %8d\n", e.getKey(), h.count, h.percentile(50), h.percentile(99), h.max));
+     }
+    return ""+s;
+   }
+
+  String latencyVerilog ()                                                                                              // Write the start and finish events of the operations during Verilog simulation
+   {final TreeMap<Integer,StringBuilder> e = new TreeMap<>();
+    final Stack<Operation> O = operations();
+    for (int i = 0; i < O.size(); i++)                                                                                  // Finish events come before start events at the same program counter
+     {e.computeIfAbsent(O.elementAt(i).finish, k -> new StringBuilder()).append(f("$fwrite(latencyFile, \"finish %d %%0d\\n\", steps); ", i));
+     }
+    for (int i = 0; i < O.size(); i++)
+     {e.computeIfAbsent(O.elementAt(i).start,  k -> new StringBuilder()).append(f("$fwrite(latencyFile, \"start %d %%0d\\n\", steps); ", i));
+     }
+    final StringBuilder s = new StringBuilder("`ifndef SYNTHESIS\n"+f("%-120s// Operation boundaries\n", "    case(pc)"));
+    for (Map.Entry<Integer,StringBuilder> x : e.entrySet())
+     {s.append(f("      %4d: begin %s$fflush(latencyFile); end\n", x.getKey(), x.getValue()));
+     }
+    s.append("      default: begin end\n    endcase\n`endif\n");
     return ""+s;
    }
 
@@ -1774,10 +3898,10 @@ cd {f}; yosys -q {y}
     final String                       codeFile = verilogTestFolder.v$();                                               // Code file
     final String                         indent = " ".repeat(6);                                                        // Indentation for Verilog code
     final int                        sizeMemory = unitMemory != null ? unitMemory.size() : 0;                           // Size of memory
-    final int                      numberOfInts = nextIntId;                                                            // Number of integers needed
-    final int                      numberOfBits = nextBitId;                                                            // Number of booleans needed
-    final String                  dimensionInts = ""+(nextIntId-1);                                                     // Number of integers needed
-    final String                  dimensionBits = ""+(nextBitId-1);                                                     // Number of booleans needed
+    final int                      numberOfInts = intRegisters();                                                       // Number of integers needed
+    final int                      numberOfBits = bitRegisters();                                                       // Number of booleans needed
+    final String                  dimensionInts = ""+(numberOfInts-1);                                                  // Number of integers needed
+    final String                  dimensionBits = ""+(numberOfBits-1);                                                  // Number of booleans needed
     final InstructionMatches instructionMatches = new InstructionMatches();                                             // Mapping from instructions to blocks of matching instructions
     final VerilogArrays.Array   pcConstantArray;                                                                        // Instruction to variable or memory used by the instruction. Mapped to read only memory so that Yosys does not expand them into registers. Prefetched one instruction in advance to keep the main instruction loop fully occupied except at branches where a one instruction wait has to be inserted to allow the prefetch loop to get ahead again.
     final VerilogArrays.Array   pcMatchSetArray;                                                                        // Constants in instructions identified by program counter as above.
@@ -1820,6 +3944,11 @@ cd {f}; yosys -q {y}
 
       for(I i : code) {compiling(i); instructionMatches.add(i);}                                                        // Match instructions
       pcConstantArray = verilogArrays().new Array("pcConstant", pcConstant());                                          // Instruction to variable or memory used by the instruction. Defined here so that the state enum can be generated
+      for (int i = 1; i < operands.length; i++)                                                                         // Source operands of the instructions that address several variables at once
+       {final Operands o = operands[i];
+        if (o.rom.size() > 0) verilogArrays().new Array(o.name, o.rom);
+       }
+      if (pcOperator.size() > 0) verilogArrays().new Array("pcOperator", pcOperator);                                   // Operators of the instructions that share an arm
       pcMatchSetArray = verilogArrays().new Array("pcMatchSet", instructionMatches.pcMatchSet());                       // Translate instruction numbers to first instances of that instruction to compress labels on execution loop case statement
 
       try {out = Files.newBufferedWriter(Path.of(codeFile));}
@@ -1851,11 +3980,21 @@ module {name};
 `endif
   integer                pc;                                                                                            // Program counter for stepping through user code
   integer         traceFile;                                                                                            // Write Verilog trace records to this file
+`ifndef SYNTHESIS
+  integer             steps;                                                                                            // Number of instructions executed so far
+  reg[63:0]       stateHash;                                                                                            // Rolling hash of the memories
+  integer       latencyFile;                                                                                            // Write the start and finish of each operation to this file
+`endif
 `ifdef SYNTHESIS
   assign o_pc = pc[31:0];                                                                                               // Prevent Yosys collapsing the chip to nothing
 `endif
 """);
 
+      if (returns != null) put("""
+  integer               rsp;                                                                                            // Return stack pointer: the number of return addresses on the return stack
+  reg        returnOverflow;                                                                                            // Set by a call made with the return stack already full: the return address is not written
+""");
+
       for(VerilogArrays.Array a : verilogArrays.arrays()) put(a.connectModule());                                       // Connect to Verilog array modules
       for(Memory m              : memories              ) put(m.instantiateModule());                                   // Instantiate each memory
 
@@ -1871,6 +4010,20 @@ module {name};
 `else                                                                                                                   // Clock - only needed during icarus Verilog simulation not during synthesis
   always_ff @(posedge clock) begin                                                                                      // Decode and execute instructions by iterating a case statement
 `endif                                                                                                                  // Clock - only needed during icarus Verilog simulation not during synthesis
+""");
+
+      if (hashWindow > 0) put(substitute("""
+`ifndef SYNTHESIS
+    if (steps % {window} == 0 && pc >= 0 && pc < {size}) begin $fwrite(traceFile, "Window\\n"); {hash}(); end          // Periodic state hash while still executing
+`endif
+""", "window", ""+hashWindow, "hash", hashVerilogStateName(), "size", ""+codeSize));
+
+      if (measureLatency) put(latencyVerilog());                                                                        // Write operation boundaries
+
+      if (hashWindow > 0 || measureLatency) put("""
+`ifndef SYNTHESIS
+    steps <= steps + 1;
+`endif
 """);
 
       if (!compressInstructions || !compressInstructionLabels)                                                          // No compression of instruction labels
@@ -1908,6 +4061,9 @@ module {name};
       /* Execute default*/put("""
       default: begin
 `ifndef SYNTHESIS
+""");
+      if (returns != null) put(pad("        if (returnOverflow) $display(\"Return stack overflow: more than "+returnStackDepth+" nested calls\");", 120)+"// Report a call that could not save its return address\n");
+      put("""
         $fclose(traceFile);                                                                                             // Close trace file
         $finish(0);
 `endif
@@ -1920,8 +4076,17 @@ module {name};
 
   initial begin                                                                                                         // Clear registers
     pc           = 0;
+`ifndef SYNTHESIS
+    steps        = 0;
+    stateHash    = 0;
+`endif
 """));
 
+      if (returns != null) put("""
+    rsp            = 0;                                                                                                 // Empty return stack
+    returnOverflow = 0;                                                                                                 // No call has overflowed the return stack yet
+""");
+
       /*Open trace file*/put(substitute("""
 
 `ifndef SYNTHESIS
@@ -1936,12 +4101,22 @@ module {name};
       $finish;
     end
 `endif
-  end
 """, "traceFile", traceFile));
 
+      if (measureLatency) put(substitute("""
+`ifndef SYNTHESIS
+    latencyFile = $fopen("{latencyFile}", "w");                                                                         // Start and finish of each operation
+`endif
+""", "latencyFile", latencyFiles.log()));
+
+      put("""
+  end
+""");
+
       for(Memory                 m : memories())                put(dumpVerilogMemoryInDecimal(m));                     // Dump memories in Verilog
       for(DumpLocations.Location d : dumpLocations().locations) put(d.define());                                        // Locations in program that have requested dumps
 
+      if (hashWindow > 0) put(hashVerilogState());                                                                      // Hash the state of the memories
       put(dumpVerilogVariables());                                                                                      // Dump Verilog variables task
       put(dumpVerilogRegisters());                                                                                      // Dump Verilog variables task
       /*End*/put("""
@@ -1983,7 +4158,7 @@ endmodule
       begin
         if (i % N == 0)               $fwrite(traceFile, "%08d ", i);
 
-        I = {memoryName}.memory[i];
+        I = {unit};
 
         if (I != 0)                   $fwrite(traceFile, "%4d ", I);
         else                          $fwrite(traceFile, "     ");
@@ -1996,7 +4171,7 @@ endmodule
 `endif
     end
   endtask
-""", "memoryName", M.n(), "size", ""+M.size());
+""", "unit", M.memory("i"), "size", ""+M.size());
 
      return h + m + t;
     }
@@ -2027,7 +4202,7 @@ endmodule
        } // Match
 
       void add(I I)                                                                                                     // Add an instruction
-       {final String v = I.interiorVerilog();
+       {final String v = arm(I.interiorVerilog());
         if (matches.containsKey(v))                                                                                     // Add to an existing set of matches
          {final Match m = matches.get(v);
           m.push(I);
@@ -2040,6 +4215,10 @@ endmodule
          }
        }
 
+      String arm(String Verilog)                                                                                        // Key on which instructions share an arm: when sharing arms, comments and spacing do not make otherwise identical instructions distinct
+       {return shareArms ? Verilog.replaceAll("(?s)/\\*.*?\\*/", " ").replaceAll("\\s+", " ").trim() : Verilog;
+       }
+
       Match firstMatch(I I)                                                                                             // Is this instruction the first of a match block of equivalent instructions
        {final Match m = inMatch.get(I.instructionNumber);
         return m.matches.firstElement() == I ? m : null;
@@ -2141,7 +4320,8 @@ check
 //D2 Dump Verilog                                                                                                       // Dump the state of the Verilog implementation of the bit machine into the trace file for comparison with the equivalent state of the Java implementation of the bit machine
 
   String dumpVerilog ()                                                                                                 // Dump Verilog memory and variables
-   {final StringBuilder s = new StringBuilder();
+   {if (hashWindow > 0) return hashVerilogStateName()+"(); ";                                                           // The memories include the variables
+    final StringBuilder s = new StringBuilder();
     s.append(dumpVerilogMemories());
     s.append(dumpVerilogVariablesName()+"(); ");
     s.append(dumpVerilogRegistersName()+"(); ");
@@ -2154,7 +4334,8 @@ check
    }
 
   String dumpVerilogMemories ()                                                                                         // Dump Verilog memories
-   {final StringBuilder s = new StringBuilder();
+   {if (hashWindow > 0) return hashVerilogStateName()+"(); ";
+    final StringBuilder s = new StringBuilder();
     for(Memory m : memories()) s.append(m.dumpVerilog()+" ");
     return ""+s;
    }
@@ -2179,20 +4360,20 @@ check
     for(Int i : ints)                                                                                                   // Dump integers
      {if (i.name != null) v.append(substitute("""
       $fdisplay(traceFile, "Int  %8d ==    %8d {name}", {id}, {v});
-""", "name", i.name, "id", ""+i.id, "v", intMemory().vMemory(i.id)));
+""", "name", i.name, "id", ""+i.id, "v", intMemory().vMemory(i.slot)));
       else v.append(substitute("""
       $fdisplay(traceFile, "Int  %8d ==    %8d",        {id}, {v});
-""",                 "id", ""+i.id, "v", intMemory().vMemory(i.id)));
+""",                 "id", ""+i.id, "v", intMemory().vMemory(i.slot)));
      }
 
     for(Bit b : bits)                                                                                                   // Dump booleans
      {if (b.nd) continue;                                                                                               // Omit bools that were created as a result of testing the validity of an Int because the Verilog code does not retain this information
       if (b.name != null) v.append(substitute("""
       $fdisplay(traceFile, "Bit  %8d ==    %8d {name}", {id}, {v});
-""", "name", b.name, "id", ""+b.id, "v", bitMemory().vMemory(b.id)));
+""", "name", b.name, "id", ""+b.id, "v", bitMemory().vMemory(b.slot)));
       else v.append(substitute("""
       $fdisplay(traceFile, "Bit  %8d ==    %8d",        {id}, {v});
-""",                 "id", ""+b.id, "v", bitMemory().vMemory(b.id)));
+""",                 "id", ""+b.id, "v", bitMemory().vMemory(b.slot)));
      }
 
     writeFile(includeFile.v$(), v);
@@ -3146,6 +5327,636 @@ Memory 2
               test_forLoops(false);
    }
 
+  static String test_engines(Engine E)                                                                                  // Execute the same program with the specified engine and report the results
+   {final StringBuilder s = new StringBuilder();
+    final Program P = new Program(new Build().immediate(false).engine(E).memory(8).generators(true))                    // Every engine must execute the code of every generator
+     {void code()
+       {new I() {void a() {s.setLength(0);} int traces() {return 0;}};                                                 // The verifying engine executes the code twice
+        final Int a = new Int("a").set(0);
+        final Int b = new Int("b", 1);
+        final Int c = new Int("c");
+        new For(new Int(10))
+         {void body(Int Index, Bit Continue)
+           {c.set(a); c.add(b); a.set(b); b.set(c);
+            new If (Index.lt(8)) {void Then() {unitMemory.putInt(Index, c);}};
+            new I() {void a() {s.append(""+c.i()+" ");} int traces() {return 0;}};
+            Continue.set(c.lt(50));
+           }
+         };
+        new ForCount(8) {void body(Int Index) {a.add(unitMemory.getInt(Index));}};
+        new I() {void a() {s.append(""+a.i());} int traces() {return 0;}};
+        execute();
+        s.append(" steps="+steps);
+       }
+     };
+    return ""+s;
+   }
+
+  static void test_engines()
+   {sayCurrentTestName();
+    final String i = test_engines(Engine.interpreter);
+    ok(i, "1 2 3 5 8 13 21 34 55 121 steps=877");
+    ok(test_engines(Engine.compiled), i);
+    ok(test_engines(Engine.verify),   i);
+    ok(test_engines(Engine.jit),      i);
+    ok(test_engines(Engine.differential), i);
+   }
+
+  static void test_jit()                                                                                                // The just in time compiler reuses the classes it generated for the same code and stops part way through a block at exactly the permitted number of steps
+   {sayCurrentTestName();
+    final Program P = new Program(new Build().immediate(false).engine(Engine.jit))
+     {void code()
+       {final Int a = new Int("a", 1);
+        new ForCount(8) {void body(Int Index) {a.add(Index);}};
+        execute();
+       }
+     };
+    final int  n = P.jitClasses.size(), s = P.steps;
+    final Op[] c = P.compile();
+    ok(n > 0);
+    for (int m = 1; m < s; m += 7)                                                                                      // Stop part way through blocks
+     {P.maxSteps(m);
+      P.resetJavaState(); P.interpret();   final String i = P.javaState(); ok(P.steps, m);
+      P.resetJavaState(); P.executeJit(c); ok(P.steps, m); ok(P.javaState(), i);
+     }
+    ok(P.jitClasses.size(), n);                                                                                         // Compiled only once
+   }
+
+  static void test_opcodes()                                                                                            // The compiled table uses the specialized forms of the commonest actions and locates its jumps in the Java trace as the interpreter does
+   {sayCurrentTestName();
+    final Program P = new Program(new Build().immediate(false).engine(Engine.compiled))
+     {void code()
+       {final Int a = new Int("a", 1);
+        new ForCount(4) {void body(Int Index) {a.add(Index);}};
+        execute();
+        a.ok(7);
+       }
+     };
+    final EnumMap<Opcode,Integer> n = new EnumMap<>(Opcode.class);
+    for (Op o : P.compile())
+     {n.merge(o.opcode, 1, Integer::sum);
+      if (o.opcode.jumps() && o.opcode != Opcode.call) ok(o.located);                                                   // Each jump writes its location just as the interpreter does
+     }
+    for (Opcode c : new Opcode[]{Opcode.address, Opcode.load, Opcode.write, Opcode.finish, Opcode.jump, Opcode.jumpGe}) ok(n.containsKey(c));
+    ok( Opcode.call.jumps());    ok(!Opcode.act.jumps());     ok(!Opcode.load.jumps());
+    ok( Opcode.finish.straight()); ok(!Opcode.quiet.straight()); ok(!Opcode.jump.straight());
+   }
+
+  static void test_engineOptions()                                                                                      // An engine that cannot honour an option stops rather than being replaced by another engine
+   {sayCurrentTestName();
+    sayThisOrStop("State hashes can only be taken by the interpreter, not by the compiled engine");
+    try
+     {new Program(new Build().immediate(false).engine(Engine.compiled))
+       {void code() {new Int("a", 1); hashWindow(4); execute();}
+       };
+     }
+    catch (Exception e) {}
+    ok(sayThisOrStop.size(), 0);
+
+    sayThisOrStop("Profiles and latencies can only be counted by the interpreter or the compiled engine, not by the jit engine");
+    try
+     {new Program(new Build().immediate(false).engine(Engine.jit))
+       {void code() {new Int("a", 1); latency(true); execute();}
+       };
+     }
+    catch (Exception e) {}
+    ok(sayThisOrStop.size(), 0);
+    sayThisOrStop.clear();
+   }
+
+  static Program test_stateHash(int Window)                                                                             // Run a program comparing by state hashes
+   {return new Program(new Build().immediate(false).memory(4))
+     {void code()
+       {final Int a = new Int("a", 1);
+        new ForCount(4) {void body(Int Index) {a.add(a); unitMemory.putInt(Index, a);}};
+        dumpProgramState("Loaded");
+        hashWindow(Window);
+        execute();
+       }
+     };
+   }
+
+  static void test_stateHash()
+   {sayCurrentTestName();
+    final Program P = test_stateHash(16);
+    final String  j = readFileAsString(P.traceFiles.java$());
+    final Stack<String> h = hashLines(j);
+    ok(h.size(), (P.steps + 15) / 16 + 2);                                                                              // One hash per window and one per dump
+    if (runVerilog)                                                                                                     // The simulation hashes the same state at the same step boundaries as Java
+     {final Stack<String> v = hashLines(readFileAsString(P.traceFiles.v$()));
+      ok(v.size(), h.size());
+      for (int i = 0; i < min(v.size(), h.size()); i++)
+       {final String[]a = h.get(i).trim().split(" +"), b = v.get(i).trim().split(" +");
+        ok(b[1], a[1]);                                                                                                 // Same step
+        ok(b[2], a[2]);                                                                                                 // Same hash
+       }
+     }
+    ok(j.contains("Loaded\nhash "));
+    ok(hashLines(readFileAsString(test_stateHash(16).traceFiles.java$())), h);                                         // Same program, same hashes
+    ok(test_stateHash(8).stateHash != P.stateHash);                                                                     // More windows fold the state more often
+
+    final Stack<String> a = new Stack<>(), b = new Stack<>();
+    for (int i = 0; i < 9; i++) {a.push("hash "+i); b.push("hash "+(i < 5 ? i : -i));}
+    ok(firstDivergence(a, a), -1);
+    ok(firstDivergence(a, b),  5);
+    b.setSize(4);
+    ok(firstDivergence(a, b),  4);
+   }
+
+  static Program test_mapped(String Folder, boolean Write)                                                              // Write through a memory mapped from a file, or read back what an earlier run wrote
+   {return new Program(new Build().immediate(false).memory(4))
+     {void code()
+       {mapMemories(Folder);
+        final Int a = new Int("a", 3);
+        if (Write) new ForCount(4) {void body(Int Index) {unitMemory.putInt(Index, a); a.add(a);}};
+        else       new ForCount(4) {void body(Int Index) {unitMemory.getInt(Index).ok(a); a.add(a);}};
+        execute();
+        syncMemories();
+       }
+     };
+   }
+
+  static void test_mapped()
+   {sayCurrentTestName();
+    final String f = fn(verilogTestsFolder.folder, "mappedMemories");                                                   // Not the folder of this test as that is cleared each time a program is constructed
+    deleteAllFiles(f, 9);                                                                                               // Start from an empty folder
+    final Program w = test_mapped(f, true);
+    ok(w.unitMemory.mapped());
+    ok(w.unitMemory.dumpAsDecimal(), w.unitMemory.unmap().dumpAsDecimal());                                             // Unmapping preserves content
+    final Program r = test_mapped(f, false);                                                                            // A new program sees the content without reloading it
+    ok(r.unitMemory.mapped());
+    ok(r.unitMemory.unit(3), 24);
+    ok(readFileAsString(r.unitMemory.imageFile().v$()), "       3\n       6\n       c\n      18");                      // The Verilog memory module starts from the same content as Java
+   }
+
+  static Program test_checkpoint(String File)                                                                           // Fill memory then take a complete checkpoint
+   {return new Program(new Build().immediate(false).memory(64))
+     {void code()
+       {new ForCount(64) {void body(Int Index) {unitMemory.putInt(Index, Index);}};
+        execute();
+        if (File != null) checkpoint(File);
+       }
+     };
+   }
+
+  static void test_checkpoint()
+   {sayCurrentTestName();
+    final String f = fn(verilogTestsFolder.folder, "checkpoints", "memory.data");
+    makePath(folderName(f)); deleteFile(f);
+    final Program P = test_checkpoint(f);
+    ok(P.unitMemory.dirtyBlocks(), 0);
+    ok(P.checkpoint(f), 0);                                                                                             // Nothing changed
+
+    final long l = new File(f).length();
+    P.unitMemory.unit(40, 7); P.unitMemory.unit(41, 8);
+    ok(P.unitMemory.dirtyBlocks(), 1);
+    ok(P.checkpoint(f), 1);                                                                                             // Only the changed block is written
+    ok(new File(f).length() - l, (long)Integer.BYTES * (3 + Memory.dirtyBlock + 1));                                     // Block header, block and end of checkpoint
+
+    final Program Q = test_checkpoint(null);
+    for (int i = 0; i < 64; i++) Q.unitMemory.unit(i, 0);
+    ok(Q.replayCheckpoints(f), 3);
+    ok(Q.saveMemories(), P.saveMemories());
+    ok(Q.unitMemory.dirtyBlocks(), 0);
+   }
+
+  static void test_profile()
+   {sayCurrentTestName();
+    final Stack<I> outer = new Stack<>(), after = new Stack<>();                                                        // Instructions generated after each subFinish
+    final Program P = new Program(new Build().immediate(false).memory(4).optimize(true))
+     {void code()
+       {profile(true);
+        final Int a = new Int("a", 1);
+        subStart("Outer");
+        new ForCount(4)
+         {void body(Int Index)
+           {subStart("Inner"); unitMemory.putInt(Index, a); subFinish();
+            final int s = codeSize();
+            a.inc();
+            for (int i = s; i < codeSize(); i++) outer.push(code.elementAt(i));
+           }
+         };
+        subFinish();
+        final int s = codeSize();
+        new ForCount(2) {void body(Int Index) {a.inc();}};
+        for (int i = s; i < codeSize(); i++) after.push(code.elementAt(i));
+        execute();
+       }
+     };
+    for (I i : outer) ok(String.join(";", profileStack(i)), "Outer");                                                   // Generated after Inner finished
+    for (I i : after) ok(String.join(";", profileStack(i)), "program");                                                 // Generated after Outer finished
+    ok(outer.size() > 0 && after.size() > 0);
+    int shared = 0;
+    for (I i : P.code)                                                                                                  // A packed cycle shared by Inner and Outer belongs to Outer
+     {if (!(i instanceof Pack q) || q.first.traceSub == null || q.second.traceSub == null) continue;
+      if (q.first.traceSub.equals(q.second.traceSub)) continue;
+      ok(String.join(";", profileStack(q)), "Outer"); ++shared;
+     }
+    ok(shared > 0);
+    final TreeMap<String,long[]> p = P.profileSubs();
+    long self = 0; for (long[]c : p.values()) self += c[0];
+    ok(self, (long)P.steps);                                                                                            // Every step is attributed to exactly one subroutine
+    ok(p.get("Inner")[0], p.get("Inner")[1]);                                                                           // Inner calls nothing
+    ok(p.get("Outer")[1], p.get("Outer")[0] + p.get("Inner")[1]);                                                       // Outer includes Inner
+    ok(p.get("Outer")[0] > 0);                                                                                          // The loop control belongs to Outer
+    ok(P.profileCollapsed().contains("Outer;Inner "+p.get("Inner")[0]+"\n"));
+    ok(readFileAsString(P.profileFiles.json$()).contains("\"name\": \"Inner\""));
+   }
+
+  static void test_latency()
+   {sayCurrentTestName();
+    final Program P = new Program(new Build().immediate(false))
+     {void code()
+       {latency(true);
+        final Int a = new Int("a", 1);
+        new ForCount(4)
+         {void body(Int Index)
+           {final Operation o = operationStart("Double");
+            a.add(a);
+            operationFinish(o);
+           }
+         };
+        execute();
+       }
+     };
+    final Histogram h = P.javaLatency.get("Double");
+    ok(h.count, 4L);
+    ok(h.percentile(50), h.max);                                                                                        // Every call takes the same number of cycles
+    ok(h.max > 0);
+    ok(P.latencyReport().contains("Double"));
+    if (runVerilog) ok(latencyJson(P.verilogLatency), latencyJson(P.javaLatency));                                      // The simulation measured the same latencies
+
+    final Histogram H = new Histogram();
+    for (int i = 1; i <= 100; i++) H.record(i);
+    ok(Histogram.bucket(63),   63);                                                                                     // Exact below 64
+    ok(Histogram.bucket(1010), 1008);                                                                                   // Leading six bits above that
+    ok(H.percentile(50), 50);
+    ok(H.percentile(99), 98);
+    ok(H.max,            100);
+   }
+
+  static void test_registers()
+   {sayCurrentTestName();
+    final Program P = new Program(new Build().immediate(false).allocateRegisters(true))
+     {void code()
+       {final Int a = new Int("a", 0);
+        final Int t = new Int(2);                                                                                       // Live across the loop
+        for (int i = 1; i <= 8; i++) a.add(new Int(i));                                                                 // Temporaries whose live ranges do not overlap
+        new ForCount(3)
+         {void body(Int Index)
+           {a.add(t);
+            final Int u = new Int(t); a.add(u);                                                                         // Copies are written before they are read so they are not live across the loop
+            final Int w = new Int(t); a.add(w);
+           }
+         };
+        execute();
+        ok(a.i, 54);
+       }
+     };
+    ok(P.intRegisters < P.nextIntId);
+    ok(P.intRegisters, 5);                                                                                              // The copies made in the loop share registers with the temporaries
+    final TreeSet<Integer> s = new TreeSet<>();
+    for (Int i : P.ints()) s.add(i.slot);
+    ok(s.size(), P.intRegisters);
+   }
+
+  static String test_optimize(boolean Optimize, Stack<Program> Programs)                                              // Run a program that each optimization pass can improve
+   {final StringBuilder s = new StringBuilder();
+    Programs.push(new Program(new Build().immediate(false))
+     {void code()
+       {optimize(Optimize);
+        final Int a = new Int("a", 0);
+        final Int k = new Int(3);                                                                                       // Only ever set from a literal
+        final Int c = new Int("c");
+        final Bit x = new Bit("x").set(), y = new Bit("y").clear();
+        new ForCount(4)
+         {void body(Int Index)
+           {c.set(1); c.set(Index);                                                                                     // The first store is dead
+            new If (x)
+             {void Then()
+               {new If (y) {void Then() {a.add(k);} void Else() {a.add(c);}};                                           // Jump to a jump
+               }
+             };
+           }
+         };
+        new I() {void a() {s.append(""+a.i()+" "+c.i());} int traces() {return 0;}};
+        execute();
+        s.append(" steps="+steps);
+       }
+     });
+    return ""+s;
+   }
+
+  static void test_optimize()
+   {sayCurrentTestName();
+    final Stack<Program> P = new Stack<>();
+    final String o = test_optimize(true, P), u = test_optimize(false, P);
+    ok(o.replaceAll(" steps=.*", ""), "6 3");
+    ok(u.replaceAll(" steps=.*", ""), "6 3");
+    final Program p = P.firstElement(), q = P.lastElement();
+    ok(p.optimized);
+    ok(!q.optimized);
+    ok(p.steps < q.steps);
+    int n = 0;
+    for (Pass x : p.passes) {ok(x.removed >= 0); n += x.removed;}
+    ok(p.codeSize(), q.codeSize() - n);
+    ok(p.passes.elementAt(0).removed > 0);                                                                              // Constant propagation
+    ok(p.passes.elementAt(1).removed > 0);                                                                              // Dead store elimination
+    ok(p.passes.elementAt(2).removed > 0);                                                                              // Jump threading
+    ok(p.passes.elementAt(4).removed > 0);                                                                              // Instruction packing
+    ok(p.passesReport().contains("Jump threading"));
+    for (Map.Entry<Integer,Integer> e : p.pcJumps.entrySet()) ok(p.pcLabels.get(e.getKey()).offset, e.getValue());  // Each jump is labelled with its target
+   }
+
+  static void test_packIntOp()                                                                                          // Pack an instruction of an integer operation into the cycle that finishes a memory write
+   {sayCurrentTestName();
+    final Program P = new Program(new Build().immediate(false).memory(4).optimize(true))
+     {void code()
+       {final Int i = new Int("i", 1), v = new Int("v", 7), a = new Int("a", 0);
+        new ForCount(3) {void body(Int Index) {unitMemory.putInt(i, v); a.inc();}};
+        execute();
+        ok(a.i, 3);
+       }
+     };
+    ok(P.passes.lastElement().removed > 0);                                                                             // Instructions were packed
+    int n = 0;
+    for (IntOp x : P.intOps)                                                                                            // Each integer operation refers to the instructions that are actually in the code
+     {for (I i : x.code) {ok(P.code.elementAt(i.instructionNumber) == i); if (i instanceof Pack) ++n;}
+      ok(P.code.elementAt(x.action.instructionNumber) == x.action);
+     }
+    ok(n > 0);                                                                                                          // Some of them were packed
+    for (int pc = 0; pc < P.codeSize(); pc++)                                                                           // The halves of each pack are numbered as the pack
+     {if (P.code.elementAt(pc) instanceof Pack p) {ok(p.first.instructionNumber, pc); ok(p.second.instructionNumber, pc);}
+     }
+    for (I i : P.code)                                                                                                  // Each pack finishes a write then does something that declares it reads no memory output and does not jump
+     {if (!(i instanceof Pack p)) continue;
+      ok(p.first.ports().finishes != null); ok(!p.second.ports().reads); ok(p.second.noJump);
+     }
+   }
+
+  static void test_fusedLoads()
+   {sayCurrentTestName();
+    final int[]n = new int[4];                                                                                          // Instructions generated by each memory access
+    new Program(new Build().immediate(false).memory(4).fuseLoads(true))
+     {int size (Runnable R) {final int s = codeSize(); R.run(); return codeSize() - s;}                                 // Instructions generated by the specified code
+      void code()
+       {final Int i = new Int("i", 2), j = new Int("j", 3), v = new Int("v", 7);
+        final Bit t = new Bit("t").set();
+        n[0] = size(() -> unitMemory.putInt(i, v));
+        n[1] = size(() -> unitMemory.putBit(i, j, t));
+        final Bit[]g = new Bit[1]; n[2] = size(() -> g[0] = unitMemory.getBit(i, j));
+        final Bit[]l = new Bit[1]; n[3] = size(() -> l[0] = i.lt(v));
+        final Int r = unitMemory.getInt(i);
+        execute();
+        ok(r.i, 7 | 1 << 3);
+        ok(g[0].i);
+        ok(l[0].i);
+       }
+     };
+    ok(n[0], 4);                                                                                                        // Two loads in two cycles, a single cycle store and its completion
+    ok(n[1], 4);                                                                                                        // Three loads in two cycles, a single cycle store and its completion
+    ok(n[2], 6 + 4);                                                                                                    // Two loads in two cycles then the read followed by the invalidation of the new bit
+    ok(n[3], 2 + 3 + 4);                                                                                                // Three loads in two cycles, the comparison, the write and its completion, then the invalidation of the new bit
+   }
+
+  static String test_routines(Engine Engine, int[]Sizes)                                                                // Call a routine that calls another routine from several call sites
+   {final StringBuilder s = new StringBuilder();
+    final Program P = new Program(new Build().immediate(false).engine(Engine).callRoutines(true).optimize(true))
+     {int size (Runnable R) {final int s = codeSize(); R.run(); return codeSize() - s;}                                 // Instructions generated by the specified code
+      void code()
+       {new I() {void a() {s.setLength(0);} int traces() {return 0;}};                                                 // The verifying engine executes the code twice
+        final Int a = new Int("a", 0), x = new Int("x", 0), y = new Int("y", 0);                                        // Accumulator, parameter, result
+        final Routine square = new Routine("square") {void body() {y.set(x); y.mul(x);}};                               // Square the parameter
+        final Routine twice  = new Routine("twice")  {void body() {square.call(); y.add(y);}};                          // Call a routine from a routine
+        for (int i = 1; i <= 3; i++)
+         {x.set(i);
+          Sizes[i-1] = size(() -> twice.call());
+          a.add(y);
+         }
+        new ForCount(2) {void body(Int Index) {x.set(Index); square.call(); a.add(y);}};                                // Call a routine from a loop
+        new I() {void a() {s.append(a.i()+" "+rsp);} int traces() {return 0;}};
+        execute();
+        s.append(" steps="+steps);
+        Sizes[3] = twice.sites; Sizes[4] = square.sites;
+       }
+     };
+    final Routine t = P.routines.lastElement(), q = P.routines.firstElement();                                          // Threading the calls of twice past the jump over the body of square leaves the entry of twice alone
+    ok(t.name, "twice"); ok(q.name, "square");
+    ok(t.contains(q.entry.offset));
+    return ""+s;
+   }
+
+  static void test_routines()
+   {sayCurrentTestName();
+    final int[]n = new int[5];
+    final String i = test_routines(Engine.interpreter, n);
+    ok(i.replaceAll(" steps=.*", ""), "29 0");
+    ok(test_routines(Engine.compiled,     n), i);
+    ok(test_routines(Engine.verify,       n), i);
+    ok(test_routines(Engine.jit,          n), i);
+    ok(test_routines(Engine.differential, n), i);
+    ok(n[0] > 2);                                                                                                       // The first call generates the body behind a jump
+    ok(n[1], 2);                                                                                                        // Each further call pushes its return address and enters the routine
+    ok(n[2], 2);
+    ok(n[3], 3);
+    ok(n[4], 2);
+   }
+
+  static void test_returnOverflow()                                                                                     // A call made with the return stack already full stops the program rather than overwriting a return address
+   {sayCurrentTestName();
+    for (Engine e : new Engine[]{Engine.interpreter, Engine.compiled})
+     {sayThisOrStop("Return stack overflow: more than "+returnStackDepth+" nested calls at instruction:",               // The overflow and then the engine reporting the instruction that stopped
+                    "Exception: java.lang.RuntimeException: Stopping after say an error message");
+      boolean stopped = false;
+      try
+       {new Program(new Build().immediate(false).engine(e).callRoutines(true))
+         {void code()
+           {final Int n = new Int("n", returnStackDepth + 4);
+            final Routine[]r = new Routine[1];
+            r[0] = new Routine("down") {void body() {n.dec(); new If (n.gt(0)) {void Then() {r[0].call();}};}};         // Call itself until the count runs out
+            r[0].call();
+            execute();
+           }
+         };
+       }
+      catch (Exception x) {stopped = true;}
+      ok(stopped);                                                                                                      // The overflow stopped the program
+      ok(sayThisOrStop.size(), 0);                                                                                      // With the expected message
+      sayThisOrStop.clear();
+     }
+   }
+
+  static String test_blocks(Engine Engine, boolean Immediate)                                                           // Copy, shift and clear blocks of units larger than the width of the block engine
+   {final StringBuilder s = new StringBuilder();
+    new Program(new Build().immediate(Immediate).engine(Engine).memory(16).blockUnits(4))
+     {void code()
+       {new I() {void a() {s.setLength(0);} int traces() {return 0;}};                                                 // The verifying engine executes the code twice
+        new ForCount(16) {void body(Int Index) {unitMemory.putInt(Index, Index);}};
+        unitMemory.copy (unitMemory, new Int(0), new Int(9), 5);                                                        // Disjoint
+        unitMemory.shift(new Int( 1), new Int(6),  1);                                                                  // Overlapping upwards
+        unitMemory.shift(new Int(10), new Int(5), -2);                                                                  // Overlapping downwards
+        unitMemory.clear(new Int(14), 2);
+        new I() {void a() {for (int i = 0; i < 16; i++) s.append(unitMemory.unit(i)+" ");} int traces() {return 0;}};
+        if (!Immediate) execute();
+       }
+     };
+    return ""+s;
+   }
+
+  static void test_blocks()
+   {sayCurrentTestName();
+    final String i = test_blocks(Engine.interpreter, false);
+    ok(i, "0 1 1 2 3 4 5 6 1 2 3 4 14 4 0 0 ");
+    ok(test_blocks(Engine.compiled,     false), i);
+    ok(test_blocks(Engine.verify,       false), i);
+    ok(test_blocks(Engine.jit,          false), i);
+    ok(test_blocks(Engine.differential, false), i);
+    ok(test_blocks(Engine.interpreter,  true),  i);
+   }
+
+  static String test_generations(Engine Engine, boolean Immediate)                                                      // Clear a generational memory by advancing its generation
+   {final StringBuilder s = new StringBuilder();
+    new Program(new Build().immediate(Immediate).engine(Engine).generationClears(true))
+     {void code()
+       {final Memory m = new Memory(8).generations();
+        new I() {void a() {s.setLength(0);} int traces() {return 0;}};                                                 // The verifying engine executes the code twice
+        new ForCount(8) {void body(Int Index) {m.putInt(Index, Index.Add(1));}};
+        m.clear();
+        m.putInt(new Int(2), new Int(5));
+        m.putBit(new Int(3), new Int(1), new Bit(true));                                                                // A bit written into a stale unit clears the rest of the unit
+        new I() {void a() {for (int i = 0; i < 8; i++) s.append(m.unit(i)+" ");} int traces() {return 0;}};
+        new ForCount(8) {void body(Int Index) {final Int v = m.getInt(Index); new I() {void a() {s.append(v.i+" ");} int traces() {return 0;}};}};
+        if (!Immediate) execute();
+       }
+     };
+    return ""+s;
+   }
+
+  static void test_generations()
+   {sayCurrentTestName();
+    final String i = test_generations(Engine.interpreter, false);
+    ok(i, "0 0 5 2 0 0 0 0 0 0 5 2 0 0 0 0 ");
+    ok(test_generations(Engine.compiled,     false), i);
+    ok(test_generations(Engine.verify,       false), i);
+    ok(test_generations(Engine.jit,          false), i);
+    ok(test_generations(Engine.differential, false), i);
+    ok(test_generations(Engine.interpreter,  true),  i);
+   }
+
+  static String test_packedBits(Engine Engine, boolean Immediate)                                                      // Hold many boolean registers in each unit of the boolean memory
+   {final StringBuilder s = new StringBuilder();
+    new Program(new Build().immediate(Immediate).engine(Engine).packBits(true))
+     {void code()
+       {final int N = 40;
+        final Bit[]b = new Bit[N];
+        final Int  c = new Int(0);
+        new I() {void a() {s.setLength(0);} int traces() {return 0;}};                                                 // The verifying engine executes the code twice
+        for (int i = 0; i < N; i++) b[i] = new Bit(i % 3 == 0);
+        for (int i = 0; i < N; i++) if (i % 5 == 0) b[i].flip();
+        for (int i = 0; i < N; i++) new If (b[i]) {void Then() {c.inc();}};
+        new I() {void a() {s.append(c.i+" "+(immediate() || bitMemory().size() == (bitRegisters() + 31) / 32));} int traces() {return 0;}};
+        if (!Immediate) execute();
+       }
+     };
+    return ""+s;
+   }
+
+  static void test_packedBits()
+   {sayCurrentTestName();
+    final String i = test_packedBits(Engine.interpreter, false);
+    ok(i, "16 true");
+    ok(test_packedBits(Engine.compiled,     false), i);
+    ok(test_packedBits(Engine.verify,       false), i);
+    ok(test_packedBits(Engine.jit,          false), i);
+    ok(test_packedBits(Engine.differential, false), i);
+    ok(test_packedBits(Engine.interpreter,  true),  i);
+   }
+
+  static String test_widths(Engine Engine)                                                                              // Narrow the integer memory to the widest value any register can hold
+   {final StringBuilder s = new StringBuilder();
+    new Program(new Build().engine(Engine).inferWidths(true).optimize(true))
+     {void code()
+       {final Int t = new Int(0), u = new Int(0);
+        new I() {void a() {s.setLength(0);} int traces() {return 0;}};                                                 // The verifying engine executes the code twice
+        new ForCount(new Int(0), new Int(10)) {void body(Int Index) {t.set(Index); t.mul(3); u.set(t.Mod(7));}};        // Unnamed limits are constants rather than input wires
+        new I() {void a() {s.append(t.i+" "+u.i+" "+width(t)+" "+width(u)+" "+intMemory().width);} int traces() {return 0;}};
+        execute();
+       }
+     };
+    return ""+s;
+   }
+
+  static void test_widths()
+   {sayCurrentTestName();
+    final String i = test_widths(Engine.interpreter);
+    ok(i, "27 6 5 5 5");                                                                                                // The remainder briefly holds a copy of its dividend
+    ok(test_widths(Engine.compiled),     i);
+    ok(test_widths(Engine.verify),       i);
+    ok(test_widths(Engine.jit),          i);
+    ok(test_widths(Engine.differential), i);
+
+    final Program P = new Program(new Build().immediate(false).memory(4).inferWidths(true))                             // A value read from memory could be anything
+     {void code()
+       {final Int v = unitMemory.getInt(new Int(1));
+        v.inc();
+        execute();
+        ok(width(v), 32);
+        ok(intMemory().width, 32);
+       }
+     };
+
+    new Program(new Build().immediate(false).inferWidths(true).optimize(true))                                          // Each register is narrowed to its own variables
+     {void code()
+       {final Int a = new Int(0), b = new Int(0);
+        new ForCount(new Int(0), new Int(4)) {void body(Int Index) {a.set(Index); b.set(Index); b.mul(100);}};
+        execute();
+        final Memory m = intMemory();
+        ok(m.unitWidth(a.slot), 3);                                                                                     // The index reaches its limit
+        ok(m.unitWidth(b.slot), 9);
+        ok(m.width, 9);
+
+        final int v = m.unit(a.slot);                                                                                   // A value too wide for its register is rejected before it is stored
+        sayThisOrStop("Value 8 does not fit in the 3 bits of unit");
+        try {m.unit(a.slot, 8);} catch (Exception e) {}
+        ok(sayThisOrStop.size(), 0);
+        ok(m.unit(a.slot), v);
+       }
+     };
+   }
+
+  static int test_shareArms(boolean Share)                                                                              // Case arms used by a program that combines and compares integers in every form
+   {final Program P = new Program(new Build().immediate(false).shareArms(Share))
+     {void code()
+       {final Int a = new Int("a", 7), b = new Int("b", 3), s = new Int("s", 100);
+        final Bit[]c = {a.lt(b), a.le(b), a.eq(b), a.ne(b), a.ge(b), a.gt(b), a.lt(7), a.le(7), a.eq(7), a.ne(7), a.ge(7), a.gt(7)};
+        s.add(a).sub(b).mul(b).div(b).mod(b).add(5).sub(1).mul(4).div(2).mod(9).add2(a);
+        execute();
+        final boolean[]e = {false, false, false, true, true, true, false, true, true, false, true, false};
+        for (int i = 0; i < c.length; i++) ok(c[i].i, e[i]);
+        ok(s.i, 17);
+       }
+     };
+    return P.new GenerateVerilog().instructionMatches.matches.size();
+   }
+
+  static void test_shareArms()
+   {sayCurrentTestName();
+    final int[]r = {-1, 0, 1};                                                                                          // Less, equal and greater
+    for (Int.Ops o : new Int.Ops[]{Int.Ops.lt, Int.Ops.le, Int.Ops.eq, Int.Ops.ne, Int.Ops.ge, Int.Ops.gt})             // The selector of each comparison gives its result for each ordering
+     {final int s = Int.sharedComparison(o, false);
+      for (int i : r)
+       {final boolean e = switch(o) {case lt -> i < 0; case le -> i <= 0; case eq -> i == 0; case ne -> i != 0; case ge -> i >= 0; default -> i > 0;};
+        ok(Test.getBit(s, i + 1), e);
+       }
+      ok(Int.sharedComparison(o, true), s | 8);
+     }
+    ok(Int.sharedOperator(Int.Ops.del, true), Int.sharedOperator(Int.Ops.set, true));                                   // Delete writes its constant as set does
+
+    final int n = test_shareArms(false), m = test_shareArms(true);
+    ok(n, 35);
+    ok(m, 13);                                                                                                          // The twelve comparisons share one arm and the twelve operations on a second operand share another
+   }
+
   static void oldTests()                                                                                                // Tests thought to be in good shape
    {test_ifThen();
     test_ifElse();
@@ -3171,6 +5982,26 @@ Memory 2
     test_boolean();
     test_ifInc();
     test_forLoops();
+    test_engines();
+    test_opcodes();
+    test_jit();
+    test_engineOptions();
+    test_stateHash();
+    test_mapped();
+    test_checkpoint();
+    test_profile();
+    test_latency();
+    test_registers();
+    test_optimize();
+    test_packIntOp();
+    test_fusedLoads();
+    test_routines();
+    test_returnOverflow();
+    test_blocks();
+    test_generations();
+    test_packedBits();
+    test_widths();
+    test_shareArms();
    }
 
   static void newTests()                                                                                                // Tests being worked on
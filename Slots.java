@@ -25,6 +25,7 @@ class Slots extends Program
   final static class Build                                                                                              // Specification of slots
    {boolean                     immediate = true;                                                                       // Immediate mode
     boolean                         trace = false;                                                                      // Trace execution
+    boolean                           cam = false;                                                                      // Find keys by comparing the search key with every key at once and locate slots with priority encoders in the memory module rather than by descending the ones trees
     int                      numberOfKeys = 2;                                                                          // Number of references in the slots
     Memory.Ref              unitMemoryRef;                                                                              // Program memory to be used
     Program                        parent;                                                                              // Parent program if any
@@ -35,6 +36,7 @@ class Slots extends Program
     Build memory       (Memory.Ref Ref)     {unitMemoryRef = Ref;          return this;}
     Build parent       (Program    Parent)  {parent        = Parent;       return this;}
     Build trace        (boolean     Trace)  {trace         = Trace;        return this;}
+    Build cam          (boolean       Cam)  {cam           = Cam;          return this;}
 
     Program.Build build()                                                                                               // Create a description of the needed containing program
      {subStart("Slots.build()");
@@ -50,8 +52,8 @@ class Slots extends Program
     final class MemoryPositions                                                                                         // Positions of fields in memory
      {final int N = numberOfSlotsToKeys();
       final int R = numberOfKeys();
-      final BitSet.Build        us = new BitSet.Build().bitSize(N);                                                     // Specification of bit set for used slots
-      final BitSet.Build        ur = new BitSet.Build().bitSize(R).count(true);                                         // Specification of bit set for references
+      final BitSet.Build        us = new BitSet.Build().bitSize(N).encoders(cam);                                       // Specification of bit set for used slots
+      final BitSet.Build        ur = new BitSet.Build().bitSize(R).count(true).encoders(cam);                           // Specification of bit set for references
 
       final int     posSlotsToKeys = 0;                                                                                 // Slots order the keys which are stored unordered.  Using one level of indirection to the keys speeds up insertions by allowing the narrower slot references to be moved rather than the wider keys
       final int     posKeysToSlots = posSlotsToKeys     + N;                                                            // Used keys to slot referencing the key
@@ -718,7 +720,8 @@ class Slots extends Program
      }
 
     Int insert(Int Key)                                                                                                 // Insert a key into the slots in light of the find result and return the slot chosen. The slots are assumed to be not empty.
-     {final Int  P = new Int();                                                                                         // The slot into which the key was inserted
+     {final Operation operation = operationStart("Slots.Find.insert");                                                  // Measure the latency of this operation
+      final Int  P = new Int();                                                                                         // The slot into which the key was inserted
       final Find f = this;                                                                                              // Find nearest existing key in slots
       final Bint K = usedKeys.firstZero();                                                                              // Position for key in key slots
       final Int  s = new Int(f.slot.i());     // Unwrap?                                                                // Nearest existing key slot
@@ -815,6 +818,7 @@ class Slots extends Program
          }
        };
 
+      operationFinish(operation);                                                                                       // End of the code generated by this operation
       return P;                                                                                                         // Slot into which the key was inserted
      }
 
@@ -828,7 +832,9 @@ class Slots extends Program
    }
 
   Find find (Int Key)                                                                                                   // Find a key in the slots
-   {final BitSet u = usedSlotsToKeys;
+   {if (build.cam) return findCam(Key);                                                                                 // Compare every key at once
+    final Operation operation = operationStart("Slots.find");                                                           // Measure the latency of this operation
+    final BitSet u = usedSlotsToKeys;
     final Find   f = new Find();
 //  f.slot.invalidate();                                                                                                // Show that nothing has been found yet
 
@@ -936,6 +942,18 @@ class Slots extends Program
          };
        }
      };
+    operationFinish(operation);                                                                                         // End of the code generated by this operation
+    return f;
+   }
+
+  Find findCam (Int Key)                                                                                                // Find a key in the slots by comparing it with the key of every used slot at once. When the key is absent the slot found is the one holding the next higher key if there is one else the highest key
+   {final Operation      operation = operationStart("Slots.findCam");                                                   // Measure the latency of this operation
+    final Build.MemoryPositions  m = build.memoryPositions;
+    final Memory.Match           r = unitMemoryRef.m.match(unitMemoryRef.offset, Key,
+      m.posSlotsToKeys, m.posUsedSlotsToKeys, m.posKeys, m.N);
+    final Find f = new Find();
+    f.set(r.slot, r.lower, r.higher);                                                                                   // Neither lower nor higher when the slots are empty
+    operationFinish(operation);                                                                                         // End of the code generated by this operation
     return f;
    }
 
@@ -1727,6 +1745,39 @@ Zero:
               test_find(false);
    }
 
+  static void test_findCam(boolean Ex)                                                                                  // Same as find but comparing every key at once
+   {sayCurrentTestName();
+    final Slots s = new Slots(new Build().numberOfKeys(8).immediate(Ex).cam(true))
+     {void slotsCode()
+       {if (Ex) check(find(new Int(5)).print(), "Find(slot=Bint(0), lower=false, higher=false, equal=false, empty=true)"); // Nothing to find
+        putSlotToKeys(new Int( 0), new Int(1));
+        putSlotToKeys(new Int( 2), new Int(3));
+        putSlotToKeys(new Int( 4), new Int(5));
+        putSlotToKeys(new Int(15), new Int(0));
+        putKey       (new Int( 1), new Int(11));
+        putKey       (new Int( 3), new Int(22));
+        putKey       (new Int( 5), new Int(33));
+        putKey       (new Int( 0), new Int(44));
+        maxSteps(9_999_999);
+        execute();
+        check(find(new Int( 5)).print(), "Find(slot=Bint(0), lower=true, higher=false, equal=false, empty=false)");
+        check(find(new Int(11)).print(), "Find(slot=Bint(0), lower=true, higher=true, equal=true, empty=false)");
+        check(find(new Int(15)).print(), "Find(slot=Bint(2), lower=true, higher=false, equal=false, empty=false)");
+        check(find(new Int(22)).print(), "Find(slot=Bint(2), lower=true, higher=true, equal=true, empty=false)");
+        check(find(new Int(25)).print(), "Find(slot=Bint(4), lower=true, higher=false, equal=false, empty=false)");
+        check(find(new Int(33)).print(), "Find(slot=Bint(4), lower=true, higher=true, equal=true, empty=false)");
+        check(find(new Int(35)).print(), "Find(slot=Bint(15), lower=true, higher=false, equal=false, empty=false)");
+        check(find(new Int(44)).print(), "Find(slot=Bint(15), lower=true, higher=true, equal=true, empty=false)");
+        check(find(new Int(45)).print(), "Find(slot=Bint(15), lower=false, higher=true, equal=false, empty=false)");
+       }
+     };
+   }
+
+  static void test_findCam()
+   {          test_findCam(true);
+              test_findCam(false);
+   }
+
   static void test_findRight(boolean Ex)                                                                                // Same as find but with the slots on the right
    {sayCurrentTestName();
     final Slots s = new Slots(new Build().numberOfKeys(8).immediate(Ex))
@@ -2407,6 +2458,7 @@ keys     :    0   0   0   0
     if (rtg(11)) test_mergeFromLeftOdd();
     if (rtg(12)) test_find();
     if (rtg(13)) test_findRight();
+    if (rtg(13)) test_findCam();
     if (rtg(14)) test_insert();
     if (rtg(15)) test_insert2();
     if (rtg(16)) test_findGe();
@@ -21,6 +21,9 @@ class Tree extends Program
   final Memory        mergePath;                                                                                        // Memory for the steps taken along the merge path - each integer corresponds to the location of a branch in the path from the root to the leaf that should contain the key
   final Memory     traverseNode;                                                                                        // Memory to hold outstanding branches and leaves during a traverse
   final Memory   traverseAction;                                                                                        // Memory to hold requested action against each branch during a traverse
+  private Memory       loadKeys;                                                                                        // Memory to hold the largest key beneath each node during a bulk load: only allocated when a tree is loaded
+  final Memory       cursorNode;                                                                                        // Memory to hold the branches stepped through by a cursor
+  final Memory       cursorSlot;                                                                                        // Memory to hold the slot used to step down through each branch by a cursor
 
 //D1 Construction                                                                                                       // Construct and layout a tree
 
@@ -33,6 +36,9 @@ class Tree extends Program
     Integer   maxBranchSize;
     Integer   numberOfNodes;
     Boolean         execute;
+    boolean           links;                                                                                            // Whether each leaf links to its siblings
+    boolean        encoders;                                                                                            // Whether the free chain is searched by the priority encoders of the memory module
+    Program.Build   program;                                                                                            // Code generators and engine of the program that executes the tree
     BitSet.Build  freeChain;
     Branch.Build     branch;
     Leaf  .Build       leaf;
@@ -45,12 +51,15 @@ class Tree extends Program
     Build maxBranchSize (int     MaxBranchSize) {maxBranchSize = MaxBranchSize; return this;}
     Build numberOfNodes (int     NumberOfNodes) {numberOfNodes = NumberOfNodes; return this;}
     Build       execute (boolean Execute      ) {execute       = Execute;       return this;}
+    Build         links (boolean Links        ) {links         = Links;         return this;}
+    Build      encoders (boolean Encoders     ) {encoders      = Encoders;      return this;}
+    Build       program (Program.Build Program) {program       = Program;       return this;}
 
     Program.Build build()                                                                                               // Describe the program used to execute the tree algorithm
-     {final Program.Build p = new Program.Build();                                                                      // Description of containing program
-      freeChain             = new BitSet .Build().bitSize(numberOfNodes); freeChain.build();                            // Size of free chain
+     {final Program.Build p = program != null ? program : new Program.Build();                                          // Description of containing program
+      freeChain             = new BitSet .Build().bitSize(numberOfNodes).encoders(encoders); freeChain.build();         // Size of free chain optionally located with a priority encoder
       branch                = new Branch .Build().maxSize(maxBranchSize); branch   .build();                            // Size of a branch
-      leaf                  = new Leaf   .Build().maxSize(maxLeafSize)  ; leaf     .build();                            // Size of a leaf
+      leaf                  = new Leaf   .Build().maxSize(maxLeafSize).links(links); leaf.build();                      // Size of a leaf including its sibling links if requested
       leafSize              = leaf.size();
       branchSize            = branch.size();
       nodeSize              = max(branchSize, leafSize);
@@ -100,9 +109,11 @@ class Tree extends Program
     refFreeChain   = unitMemoryRef.step(build.memoryPositions.posFreeChain);                                            // Memory for free chain
     refCount       = unitMemoryRef.step(build.memoryPositions.posCount);                                                // Memory for key count
 
-    mergePath      = new Memory(ib(mnl()));                                                                             // Memory for the steps taken along the merge path - each integer corresponds to the location of a branch in the path from the root to the leaf that should contain the key
-    traverseNode   = new Memory(ib(2*mnl()));                                                                           // Memory to hold outstanding branches and leaves in a traverse
-    traverseAction = new Memory(ib(2*mnl()));                                                                           // Memory to hold requested action against each branch in a traverse
+    mergePath      = new Memory(ib(mnl())).generations().width(width(0, numberOfNodes - 1));                            // Memory for the steps taken along the merge path - each integer corresponds to the location of a branch in the path from the root to the leaf that should contain the key so it only needs to be wide enough to hold a node index
+    traverseNode   = new Memory(ib(2*mnl())).generations();                                                             // Memory to hold outstanding branches and leaves in a traverse
+    traverseAction = new Memory(ib(2*mnl())).generations();                                                             // Memory to hold requested action against each branch in a traverse
+    cursorNode     = new Memory(ib(mnl()));                                                                             // Memory to hold the branches stepped through by a cursor
+    cursorSlot     = new Memory(ib(mnl()));                                                                             // Memory to hold the slot used to step down through each branch by a cursor
 
     freeChain  = new BitSet(build.freeChain.memory(refFreeChain).parent(this));                                         // Memory for free chain
     for (int i = 0, N = numberOfNodes; i < N; ++i) freeChain.set(new Int(i));                                           // Initial free chain with root as an allocated leaf. Each active leaf or branch resides in a node of the tree allocated from the free chain. Using a single node size greatly simplifies memory management which is crucial in long running processes like database systems.
@@ -116,14 +127,21 @@ class Tree extends Program
   int maxBranchSize () {return maxBranchSize;}                                                                          // Maximum size of a branch
   int numberOfNodes () {return numberOfNodes;}                                                                          // Maximum number of nodes in tree
   int           mnl () {return maximumNumberOfLevels;}                                                                  // Maximum number of levels
+  boolean     links () {return build.links;}                                                                            // Whether each leaf links to its siblings
+
+  private Int allocated;                                                                                                // Node allocated by the allocation routine
+  private final Routine allocateRoutine = new Routine("Tree.allocate")                                                  // Allocate a node: called from each call site rather than generated in line at each one
+   {void body()
+     {final Bint A = freeChain.firstOne();                                                                              // First element on free chain
+      A.elseStop("No more leaves or branches available for allocation");                                                // Out of memory check
+      allocated = new Int("allocated").set(A);                                                                          // First element on free chain
+      freeChain.clear(allocated);                                                                                       // Remove indexed node from free chain
+     }
+   };
 
   Int      allocate ()                                                                                                  // Allocate a leaf or a branch using the first free node on the free chain
-   {final Bint A = freeChain.firstOne();                                                                                // First element on free chain
-    A.elseStop("No more leaves or branches available for allocation");                                                  // Out of memory check
-    final Int a = new Int("index") .set(A);                                                                             // First element on free chain
-    freeChain.clear(a);                                                                                                 // Remove indexed node from free chain
-    final Int c = freeChain.count();
-    return a;
+   {allocateRoutine.call();
+    return new Int("index").set(allocated);                                                                             // Copy the node out of the routine as each call site keeps its own
    }
 
   void free (Locatable Free)                                                                                            // Free a leaf or a branch and invalidate its contents
@@ -245,13 +263,14 @@ class Tree extends Program
 
   Bint find (Int Key)                                                                                                   // Find the data associated with the specified key in the tree
    {subStart("Tree.find");
+    final Operation operation = operationStart("Tree.find");                                                            // Measure the latency of this operation
     final FindLeaf l = findLeaf(Key);                                                                                   // Find leaf that should contain the key
     final Bint  data = new Bint();
 
     new If (l.valid)
      {void Then()
        {final Leaf       L = leaf(l.leaf);                                                                              // Load leaf
-        final Slots.Find f = L.slots.find(Key);                                                                         // Search for key in root
+        final Slots.Find f = findInLeaf(L, l.leaf, Key);                                                                 // Search for key in leaf
         new If (f.equal)
          {void Then()                                                                                                   // Key exists in leaf
            {final Int k = L.slots.getSlotToKeyIndex(f.slot.i());                                                        // Key slot
@@ -261,13 +280,29 @@ class Tree extends Program
        }
      };
 
+    operationFinish(operation);                                                                                         // End of the code generated by this operation
     return data;                                                                                                        // Will be set to invalid unless the key was found in which case it will contain the data associated with the key
    }
 
   final class FindLeaf                                                                                                  // Find results
-   {Bit valid = new Bit("valid");                                                                                       // Whether the search results are valid
-    Int  key   = new Int ("key");                                                                                       // Search key
-    Int  leaf  = new Int ("leaf index");                                                                                // Leaf that should contain the key
+   {final Bit valid;                                                                                                    // Whether the search results are valid
+    final Int  key;                                                                                                     // Search key
+    final Int  leaf;                                                                                                    // Leaf that should contain the key
+
+    FindLeaf()                                                                                                          // Results of the find leaf routine
+     {valid = new Bit("valid");
+      key   = new Int ("key");
+      leaf  = new Int ("leaf index");
+     }
+
+    FindLeaf(FindLeaf Source)                                                                                           // Copy the results of a find so that they outlive the next find
+     {valid = new Bit();
+      key   = new Int();
+      leaf  = new Int();
+      valid.set(Source.valid);
+      key  .set(Source.key);
+      leaf .set(Source.leaf);
+     }
 
     void start(Int Key) {key.set(Key); valid.clear();}                                                                  // Start the find operation
 
@@ -287,11 +322,18 @@ class Tree extends Program
      }
    }
 
+  private FindLeaf found;                                                                                               // Results of the find leaf routine shared by each of its call sites
+  private final Routine findLeafRoutine = new Routine("Tree.findLeaf") {void body() {findLeaf(found);}};                // Find the leaf that should contain a key: called from each call site rather than generated in line at each one
+
   FindLeaf findLeaf(Int Key)                                                                                            // Find the specified key in a leaf in the tree
-   {subStart("Tree.findLeaf");
-    final Int      p = root();                                                                                          // Start at root
-    final FindLeaf f = new FindLeaf();                                                                                  // Find results
-    f.start(Key);
+   {if (found == null) found = new FindLeaf();                                                                          // Find results
+    found.start(Key);
+    findLeafRoutine.call();
+    return new FindLeaf(found);                                                                                         // Copy the results out of the routine as each call site keeps its own
+   }
+
+  private void findLeaf(FindLeaf f)                                                                                     // Step down from the root to the leaf that should contain the key of the find results
+   {final Int p = root();                                                                                               // Start at root
 
     new For(mnl())                                                                                                      // Step down from branch to branch
      {void body(Int Index, Bit Continue)
@@ -300,7 +342,7 @@ class Tree extends Program
            {f.set(p);                                                                                                   // Show the key and matching leaf
            }
           void Else()                                                                                                   // On a branch
-           {final Branch.StepDown d = branch(p).stepDown(Key);                                                          // Step down details
+           {final Branch.StepDown d = stepDown(p, f.key);                                                               // Step down details
             p.set(d.node);                                                                                              // Step down to next level
             Continue.set();                                                                                             // Continue search
            }
@@ -309,7 +351,35 @@ class Tree extends Program
      };
 
     if (immediate && !f.valid.b()) stop("Find fell off the end of tree after this many searches:", mnl());
-    subFinish();
+   }
+
+  private Int stepDownNode, stepDownKey;                                                                                // Parameters of the step down routine
+  private Branch.StepDown stepped;                                                                                      // Results of the step down routine shared by each of its call sites
+  private final Routine stepDownRoutine = new Routine("Tree.stepDown")                                                  // Step down through a branch: the branch is located by the node parameter so every branch shares one body
+   {void body() {stepped = branch(stepDownNode).stepDown(stepDownKey);}
+   };
+
+  Branch.StepDown stepDown(Int Node, Int Key)                                                                           // Step down through the indexed branch with the specified key
+   {if (stepDownNode == null) {stepDownNode = new Int("stepDownNode"); stepDownKey = new Int("stepDownKey");}
+    stepDownNode.set(Node);
+    stepDownKey .set(Key);
+    stepDownRoutine.call();
+    return stepped.copy();                                                                                              // Copy the results out of the routine as each call site keeps its own
+   }
+
+  private Int findInLeafNode, findInLeafKey;                                                                            // Parameters of the find in leaf routine
+  private Slots.Find foundInLeaf;                                                                                       // Results of the find in leaf routine shared by each of its call sites
+  private final Routine findInLeafRoutine = new Routine("Tree.findInLeaf")                                              // Find a key in a leaf: the leaf is located by the node parameter so every leaf shares one body
+   {void body() {foundInLeaf = leaf(findInLeafNode).slots.find(findInLeafKey);}
+   };
+
+  Slots.Find findInLeaf(Leaf Leaf, Int Node, Int Key)                                                                   // Find a key in the slots of the indexed leaf
+   {if (findInLeafNode == null) {findInLeafNode = new Int("findInLeafNode"); findInLeafKey = new Int("findInLeafKey");}
+    findInLeafNode.set(Node);
+    findInLeafKey .set(Key);
+    findInLeafRoutine.call();
+    final Slots.Find f = Leaf.slots.new Find();                                                                         // Copy the results out of the routine as each call site keeps its own
+    f.copy(foundInLeaf);
     return f;
    }
 
@@ -337,7 +407,7 @@ class Tree extends Program
               leaf.set(p);                                                                                              // End the path on a leaf
              }
             void Else()                                                                                                 // On a branch
-             {final Branch.StepDown d = branch(p).stepDown(key);                                                        // Step down
+             {final Branch.StepDown d = stepDown(p, key);                                                               // Step down
               path.putInt(step, p);
               step.inc();                                                                                               // Position for next step
               p.set(d.node);                                                                                            // Step down
@@ -390,9 +460,10 @@ class Tree extends Program
 
           new ForCount(split.i(), step)                                                                                 // Split full branches which are not the root in descending order so that there is always enough room in the parent branch to accept the splitting key
            {void body(Int Index)
-             {final Branch p = branch(path.getInt(Index.Dec()));                                                        // Parent branch whose child should be split
+             {final Int    n = path.getInt(Index.Dec());                                                              // Parent node
+              final Branch p = branch(n);                                                                               // Parent branch whose child should be split
               final Branch c = branch(path.getInt(Index));                                                              // Child branch that should be split
-              final Branch.StepDown d = p.stepDown(key);                                                                // Step down
+              final Branch.StepDown d = stepDown(n, key);                                                               // Step down
               final Branch l = branch();                                                                                // Branch to split into
               final Int   sk = c.splitLeft(l);                                                                          // Splitting key
 
@@ -419,8 +490,9 @@ class Tree extends Program
       new ForCount(step)                                                                                                // Start at branch immediately above the leaf and work upwards
        {void body(Int Index)
          {final Int             i = step.Sub(Index).dec();                                                              // Index of parent branch that contains the split siblings
-          final Branch          p = branch(path.getInt(i));                                                             // Parent branch containing split children
-          final Branch.StepDown d = p.stepDown(key);                                                                    // Locate key slot
+          final Int             n = path.getInt(i);                                                                     // Parent node
+          final Branch          p = branch(n);                                                                          // Parent branch containing split children
+          final Branch.StepDown d = stepDown(n, key);                                                                   // Locate key slot
           final Bint            L = new Bint();                                                                         // There are four possibilities to consider
           new ForCount(4)                                                                                               // Locate the left sibling
            {void body(Int Index)
@@ -492,11 +564,12 @@ class Tree extends Program
 
   public void insert(Int Key, Int Data)                                                                                 // Insert a key, data pair into the tree
    {subStart("Tree.insert");
+    final Operation operation = operationStart("Tree.insert");                                                          // Measure the latency of this operation
 
     new If (isRootLeaf())
      {void Then()                                                                                                       // New right hand leaf
        {final Leaf R = leaf(root());
-        final Slots.Find f = R.slots.find(Key);                                                                         // Perhaps the key is already present in the leaf root tree
+        final Slots.Find f = findInLeaf(R, root(), Key);                                                                 // Perhaps the key is already present in the leaf root tree
         new If (f.equal)                                                                                                // Key exists in leaf root
          {void Then()
            {final Int p = R.slots.getSlotToKeyIndex(f.slot.i());                                                        // Position of key in leaf root slots
@@ -511,6 +584,7 @@ class Tree extends Program
                 final Branch b = makeBranch(root());                                                                    // Make the root into a branch
                 b.insert(sk, l.getLocation().i());                                                                      // Insert the left leaf
                 b.top(r.getLocation().i());                                                                             // The right leaf becomes top of the root branch
+                if (links()) {l.next(r.getLocation().i()); r.prev(l.getLocation().i());}                                // The two leaves are the only leaves in the tree
                 new If (Key.le(sk)) {void Then() {l.insert(Key, Data);} void Else() {r.insert(Key, Data);}};            // Insert left or right leaf depending on key versus splitting key
                }
               void Else()                                                                                               // Root is a non full leaf that does not contain the key
@@ -524,7 +598,7 @@ class Tree extends Program
       void Else()                                                                                                       // The root is a branch
        {final FindLeaf   f = findLeaf(Key);                                                                             // Find the leaf for the key
         final Leaf       l = leaf(f.leaf);                                                                              // Leaf that should contain the key
-        final Slots.Find F = l.slots.find(Key);                                                                         // Perhaps the key is already present in the leaf
+        final Slots.Find F = findInLeaf(l, f.leaf, Key);                                                                 // Perhaps the key is already present in the leaf
         new If (F.equal)                                                                                                // Key exists in full leaf
          {void Then()
            {final Int p = l.slots.getSlotToKeyIndex(F.slot.i());                                                        // Position of key in leaf slots
@@ -540,6 +614,7 @@ class Tree extends Program
          };
        }
      };
+    operationFinish(operation);                                                                                         // End of the code generated by this operation
     subFinish();
    }
 
@@ -549,12 +624,14 @@ class Tree extends Program
     p.splitPoint();                                                                                                     // The lowest branch in the tree that is full and has a non full parent
     p.splitDown();                                                                                                      // Split the branches down to the leaf as they are all full
     final Int    L = p.step.Dec();                                                                                      // Last step along path
-    final Branch P = branch(p.path.getInt(L));                                                                          // Parent branch of full leaf
+    final Int    N = p.path.getInt(L);                                                                                  // Parent node of full leaf
+    final Branch P = branch(N);                                                                                         // Parent branch of full leaf
     final Leaf   r = leaf(p.leaf);                                                                                      // The full leaf into which the key should be inserted
     final Leaf   l = leaf();                                                                                            // New leaf
     final Int   sk = r.splitLeft(l);                                                                                    // Split the full leaf into the new leaf
+    if (links()) linkLeft(l, r);                                                                                        // Place the new leaf before the full leaf in the sibling links
 
-    final Branch.StepDown d = P.stepDown(Key);
+    final Branch.StepDown d = stepDown(N, Key);
 
     final Bint s = new Bint();
     new If (d.slot.valid())                                                                                             // If the leaf was reached by stepping through top then insert the new left leaf high
@@ -578,11 +655,12 @@ class Tree extends Program
 
   public Int delete (Int Key)                                                                                           // Delete a key from the tree and return the associated data if the key was present in the tree
    {subStart("Tree.delete");
+    final Operation operation = operationStart("Tree.delete");                                                          // Measure the latency of this operation
     final Int data = new Int();                                                                                         // Data associated with key if the key is present in the tree
     new If (isRootLeaf())
      {void Then()                                                                                                       // The root is a leaf
        {final Leaf       R = leaf(root());                                                                              // Load root
-        final Slots.Find f = R.slots.find(Key);                                                                         // Search for key in root
+        final Slots.Find f = findInLeaf(R, root(), Key);                                                                 // Search for key in root
         new If (f.equal)
          {void Then()                                                                                                   // Key exists in leaf
            {data.set(R.data(R.slots.getSlotToKeyValue(f.slot.i())));                                                    // Data associated with key
@@ -594,7 +672,7 @@ class Tree extends Program
       void Else()                                                                                                       // The root is a branch
        {final Path       p = new Path(Key);                                                                             // Path to leaf that should contain key
         final Leaf       l = leaf(p.leaf);                                                                              // Containing leaf
-        final Slots.Find f = l.slots.find(Key);                                                                         // Search for key in root
+        final Slots.Find f = findInLeaf(l, p.leaf, Key);                                                                // Search for key in leaf
         new If (f.equal)
          {void Then()                                                                                                   // Key exists in leaf
            {data.set(l.data(l.slots.getSlotToKeyValue(f.slot.i())));                                                    // Data associated with key
@@ -605,10 +683,129 @@ class Tree extends Program
          };
        }
      };
+    operationFinish(operation);                                                                                         // End of the code generated by this operation
     subFinish();
     return data;                                                                                                        // Data associated with key if valid else no such key
    }
 
+//D1 Load                                                                                                               // Load an empty tree from keys supplied in ascending order
+
+  class Load                                                                                                            // Load an empty tree from key, data pairs supplied in ascending key order by filling the leaves from left to right and then building each level of branches from the level below it
+   {final Int       keys;                                                                                               // Number of key, data pairs to load
+    final int   leafFill;                                                                                               // Keys placed in each leaf
+    final int branchFill;                                                                                               // Children placed beneath each branch
+    final Int        key = new Int();                                                                                   // The key of the pair currently being loaded
+    final Int       data = new Int();                                                                                   // The data of the pair currently being loaded
+    final Int      prior = new Int();                                                                                   // The previous key loaded: used to check that the keys are ascending in immediate mode
+    final Int       node = new Int();                                                                                   // The next node to use: as the tree is empty the nodes can be used in order without searching the free chain
+
+    Load(Int Keys) {this(Keys, 100);}                                                                                   // Load the tree filling each leaf and branch completely
+
+    Load(Int Keys, int Fill)                                                                                            // Load the tree filling each leaf and branch to the specified percentage of its capacity
+     {subStart("Tree.load");
+      final Operation operation = operationStart("Tree.load");                                                          // Measure the latency of this operation
+      if (Fill < 1 || Fill > 100) stop("Fill must be a percentage from 1 to 100, not:", Fill);
+      if (immediate() && (count().i() != 0 || freeChain.count().i() != numberOfNodes - 1))                              // Only a new tree can be loaded
+       {stop("Only an empty tree can be loaded, this tree has keys:", count());
+       }
+      keys       = Keys;
+      leafFill   = max(1, min(maxLeafSize,       (maxLeafSize       * Fill + 50) / 100));                               // Keys per leaf
+      branchFill = max(3, min(maxBranchSize + 1, ((maxBranchSize + 1) * Fill + 50) / 100));                             // Children per branch: at least three so that when the children of a level are spread evenly over its branches each branch gets at least two
+      if (loadKeys == null) loadKeys = new Memory(ib(numberOfNodes));                                                   // Memory to hold the largest key beneath each node is only needed by trees that are loaded
+      refCount.putInt(Keys);                                                                                            // Every key will be loaded
+      node.set(1);                                                                                                      // The root is already allocated
+
+      new If (Keys.le(maxLeafSize))                                                                                     // All the keys fit in the root leaf
+       {void Then() {fillLeaf(root(), new Int(0), Keys);}
+        void Else()                                                                                                     // Fill the leaves then build the branches above them until the remaining children fit under the root
+         {final Int leaves = Keys.Add(leafFill - 1).div(leafFill);                                                      // Number of leaves needed
+          final Int  first = new Int(0);                                                                                // Index of the first key in the next leaf
+          new ForCount(leaves)
+           {void body(Int Index)
+             {final Int n = Keys.Sub(first).div(leaves.Sub(Index));                                                     // Spread the remaining keys evenly over the remaining leaves
+              final Int l = nextNode();
+              fillLeaf(l, first, n);
+              first.add(n);
+              if (links())                                                                                              // The leaves occupy consecutive nodes so each links to the nodes on either side of it
+               {final Leaf L = leaf(l);
+                new If (Index.gt(0))            {void Then() {L.prev(l.Dec());}};
+                new If (Index.lt(leaves.Dec())) {void Then() {L.next(l.Inc());}};
+               }
+             }
+           };
+
+          final Int lo = new Int(1), hi = new Int(node);                                                                // The children of the current level occupy the nodes from lo up to but not including hi
+          new For(mnl())                                                                                                // Each level of branches
+           {void body(Int Level, Bit Continue)
+             {final Int c = hi.Sub(lo);                                                                                 // Children in this level
+              new If (c.gt(branchFill))                                                                                 // Too many children for the root so build another level of branches above them
+               {void Then()
+                 {final Int branches = c.Add(branchFill - 1).div(branchFill);                                           // Number of branches needed
+                  new ForCount(branches)
+                   {void body(Int Index)
+                     {final Int n = hi.Sub(lo).div(branches.Sub(Index));                                                // Spread the remaining children evenly over the remaining branches
+                      fillBranch(nextNode(), lo, n);
+                      lo.add(n);
+                     }
+                   };
+                  hi.set(node);                                                                                         // The branches just built are the children of the next level
+                  Continue.set();
+                 }
+               };
+             }
+           };
+          if (immediate() && hi.Sub(lo).gt(branchFill).b()) stop("Too many levels needed to load:", Keys);
+          fillBranch(root(), lo, hi.Sub(lo));                                                                           // The remaining children fit under the root
+         }
+       };
+      operationFinish(operation);                                                                                       // End of the code generated by this operation
+      subFinish();
+     }
+
+    void next(Int Index, Int Key, Int Data) {}                                                                          // Override to set the key and data of the indexed pair. The keys must be supplied in ascending order
+
+    private Int nextNode()                                                                                              // Allocate the next node in order and remove it from the free chain
+     {if (immediate() && node.i() >= numberOfNodes) stop("Not enough nodes to load:", keys);
+      final Int n = new Int(node);
+      freeChain.clear(n);
+      node.inc();
+      return n;
+     }
+
+    private void fillLeaf(Int Node, Int First, Int N)                                                                   // Fill a leaf with the specified number of pairs starting with the indexed pair
+     {final Leaf l = makeLeaf(Node);
+      new ForCount(N)
+       {void body(Int Index)
+         {final Int i = First.Add(Index);                                                                               // Index of pair
+          next(i, key, data);                                                                                           // Get the pair
+          if (immediate())                                                                                              // Check that the keys are ascending
+           {if (i.gt(0).b() && key.le(prior).b()) stop("Keys must be loaded in ascending order:", prior, key);
+            prior.set(key);
+           }
+          l.slots.setSlotAndKey(Index, Index, key);                                                                     // Place the key in the next slot
+          l.data(Index, data);
+         }
+       };
+      l.slots.redistribute();                                                                                           // Spread the slots to make later insertions cheaper
+      loadKeys.putInt(ib(Node), key);                                                                                   // Largest key in the leaf
+     }
+
+    private void fillBranch(Int Node, Int First, Int N)                                                                 // Fill a branch with the specified number of consecutive children starting with the indexed node
+     {final Branch b = makeBranch(Node);
+      final Int  last = First.Add(N).dec();                                                                             // The last child becomes top
+      new ForCount(N.Dec())
+       {void body(Int Index)
+         {final Int n = First.Add(Index);                                                                               // Child node
+          b.slots.setSlotAndKey(Index, Index, loadKeys.getInt(ib(n)));                                                  // Separate each child from the next by the largest key beneath it
+          b.data(Index, n);
+         }
+       };
+      b.slots.redistribute();                                                                                           // Spread the slots to make later insertions cheaper
+      b.top(last);
+      loadKeys.putInt(ib(Node), loadKeys.getInt(ib(last)));                                                             // Largest key beneath the branch
+     }
+   }
+
 //D1 Split and Merge                                                                                                    // Split and merge nodes in the tree
 //D2 Split                                                                                                              // Split nodes in the tree to make the tree wider
 
@@ -629,6 +826,22 @@ class Tree extends Program
     return sk;                                                                                                          // Return the splitting key
    }
 
+//D2 Sibling links                                                                                                      // Maintain the links between adjacent leaves
+
+  private void linkLeft(Leaf New, Leaf Right)                                                                           // Link a new leaf in immediately before the specified leaf
+   {final Int p = Right.prev();                                                                                         // Leaf before the new leaf if any
+    New  .prev(p);
+    New  .next(Right.getLocation().i());
+    Right.prev(New  .getLocation().i());
+    new If (p.gt(0)) {void Then() {leaf(p).next(New.getLocation().i());}};                                              // The root is never a sibling so zero means there is no previous leaf
+   }
+
+  private void unlinkLeft(Leaf Left, Leaf Right)                                                                        // Remove a left leaf that has been merged into its right sibling from the sibling links
+   {final Int p = Left.prev();                                                                                          // Leaf before the left leaf if any
+    Right.prev(p);
+    new If (p.gt(0)) {void Then() {leaf(p).next(Right.getLocation().i());}};
+   }
+
 //D2 Merge                                                                                                              // Merge nodes in the tree to make the tree narrower
 //D3 Merge Left                                                                                                         // Merge single and double left
 
@@ -640,6 +853,7 @@ class Tree extends Program
     new If (Right.mergeLeft(l))                                                                                         // Successfully merged
      {void Then()
        {P.slots.delete(Left);                                                                                           // The left sibling can now be freed
+        if (links()) unlinkLeft(l, Right);                                                                              // Remove the left sibling from the sibling links
         free(l);
         m.set();
        }
@@ -913,6 +1127,199 @@ class Tree extends Program
     void branchBodyEmpty(BranchContext BC) {}                                                                           // Override to process branches that have a empty body
    }
 
+//D2 Cursor                                                                                                             // Visit the keys in a range in order
+
+  class Cursor                                                                                                          // A cursor positioned on the first key greater than or equal to a lower bound that steps through the slots of each leaf in order, moving to the next leaf through the branches recorded on the way down, until it passes an upper bound
+   {final Int    hi = new Int();                                                                                        // Keys greater than this upper bound end the scan
+    final Bit valid = new Bit();                                                                                        // Whether the cursor is positioned on a key within the range
+    final Int   key = new Int();                                                                                        // Key under the cursor
+    final Int  data = new Int();                                                                                        // Data associated with the key under the cursor
+    final Int  leaf = new Int();                                                                                        // Leaf containing the key under the cursor
+    final Int  slot = new Int();                                                                                        // Slot in the leaf referencing the key under the cursor
+    final Int depth = new Int();                                                                                        // Number of branches above the leaf: the branch and the slot stepped through at each level are held in cursorNode and cursorSlot
+    final int   top = -1;                                                                                               // Slot recorded when stepping down through top
+
+    Cursor(Int Lo, Int Hi)                                                                                              // Position the cursor on the first key greater than or equal to the lower bound
+     {subStart("Tree.Cursor");
+      final Operation operation = operationStart("Tree.seek");                                                          // Measure the latency of this operation
+      hi.set(Hi); depth.set(0); leaf.set(root());
+      new If (isRootBranch())                                                                                           // Step down through the branches to the leaf that should contain the lower bound
+       {void Then()
+         {new For(mnl())
+           {void body(Int Index, Bit Continue)
+             {final Branch.StepDown d = stepDown(leaf, Lo);
+              if (!links())                                                                                             // The path is only needed to reach the next leaf when the leaves are not linked
+               {final Int s = new Int(top);                                                                             // Slot stepped through or top
+                new If (d.slot) {void Then() {s.set(d.slot.i());}};
+                push(s);
+               }
+              leaf.set(d.node);
+              Continue.set(isBranch(leaf));
+             }
+           };
+         }
+       };
+      final Bint f = leaf(leaf).slots.findGe(Lo);                                                                       // First key in the leaf greater than or equal to the lower bound
+      new If (f)
+       {void Then() {slot.set(f.i()); load();}
+        void Else() {nextLeaf();}                                                                                       // All the keys in this leaf are lower so the first key in the next leaf is the one we want
+       };
+      operationFinish(operation);                                                                                       // End of the code generated by this operation
+      subFinish();
+     }
+
+    void next()                                                                                                         // Step to the next key in the range
+     {subStart("Tree.Cursor.next");
+      final Operation operation = operationStart("Tree.next");                                                          // Measure the latency of this operation
+      new If (valid)
+       {void Then()
+         {final Bint n = leaf(leaf).slots.usedSlotsToKeys.nextOne(slot);                                                // Next slot in the current leaf
+          new If (n)
+           {void Then() {slot.set(n.i()); load();}
+            void Else() {nextLeaf();}                                                                                   // The current leaf is finished
+           };
+         }
+       };
+      operationFinish(operation);                                                                                       // End of the code generated by this operation
+      subFinish();
+     }
+
+    private void push(Int Slot)                                                                                         // Record the branch being stepped down through and the slot used
+     {cursorNode.putInt(ib(depth), leaf);
+      cursorSlot.putInt(ib(depth), Slot);
+      depth.inc();
+     }
+
+    private void load()                                                                                                 // Load the key and data under the cursor and check that the key is still in range
+     {final Leaf l = leaf(leaf);
+      key .set(l.slots.getSlotToKeyValue(slot));
+      data.set(l.data(l.slots.getSlotToKeyIndex(slot)));
+      valid.set(key.le(hi));
+     }
+
+    private void nextLeaf()                                                                                             // Move to the first key of the next leaf that has any keys by following the sibling links if present, else by climbing to the nearest branch with a later child and then descending through first children
+     {valid.set(false);                                                                                                 // Assume there are no more keys until we find one
+      if (links())                                                                                                      // Follow the sibling links
+       {new For(numberOfNodes)                                                                                          // Each leaf that has to be skipped because it is empty
+         {void body(Int Index, Bit Continue)
+           {final Int n = leaf(leaf).next();
+            new If (n.gt(0))                                                                                            // Zero means there is no next leaf
+             {void Then()
+               {leaf.set(n);
+                final Bint f = leaf(leaf).slots.usedSlotsToKeys.firstOne();                                             // First key in the next leaf
+                new If (f)
+                 {void Then() {slot.set(f.i()); load();}
+                  void Else() {Continue.set();}                                                                         // Skip empty leaf
+                 };
+               }
+             };
+           }
+         };
+        return;
+       }
+      new For(numberOfNodes)                                                                                            // Each leaf that has to be skipped because it is empty
+       {void body(Int Index, Bit Continue)
+         {final Bit found = new Bit(false);                                                                             // Found a branch with a later child
+          new For(mnl())                                                                                                // Climb until a branch has a later child
+           {void body(Int Level, Bit Climb)
+             {new If (depth.gt(0))
+               {void Then()
+                 {final Int d = depth.Dec();
+                  final Int s = cursorSlot.getInt(ib(d));
+                  new If (s.eq(top))                                                                                    // Stepped down through top so this branch has no later children
+                   {void Then() {depth.dec(); Climb.set();}
+                    void Else()
+                     {final Branch b = branch(cursorNode.getInt(ib(d)));
+                      final Bint   n = b.slots.usedSlotsToKeys.nextOne(s);                                              // Next child in the body of the branch
+                      new If (n)
+                       {void Then() {cursorSlot.putInt(ib(d), n.i()); leaf.set(b.data(b.slots.getSlotToKeyIndex(n.i())));}
+                        void Else() {cursorSlot.putInt(ib(d), new Int(top)); leaf.set(b.top());}                        // The next child is top
+                       };
+                      found.set();
+                     }
+                   };
+                 }
+               };
+             }
+           };
+
+          new If (found)                                                                                                // Descend through first children to the next leaf
+           {void Then()
+             {new For(mnl())
+               {void body(Int Level, Bit Descend)
+                 {new If (isBranch(leaf))
+                   {void Then()
+                     {final Branch b = branch(leaf);
+                      final Bint   f = b.slots.usedSlotsToKeys.firstOne();                                              // First child in the body of the branch
+                      final Int    s = new Int(top);
+                      final Int    n = new Int();
+                      new If (f)
+                       {void Then() {s.set(f.i()); n.set(b.data(b.slots.getSlotToKeyIndex(f.i())));}
+                        void Else() {n.set(b.top());}                                                                   // The body is empty so the first child is top
+                       };
+                      push(s);
+                      leaf.set(n);
+                      Descend.set();
+                     }
+                   };
+                 }
+               };
+              final Bint f = leaf(leaf).slots.usedSlotsToKeys.firstOne();                                               // First key in the next leaf
+              new If (f)
+               {void Then() {slot.set(f.i()); load();}
+                void Else() {Continue.set();}                                                                           // Skip empty leaf
+               };
+             }
+           };
+         }
+       };
+     }
+   }
+
+  private Int  scanKey, scanData;                                                                                      // Output ports presenting each key, data pair found by a scan
+  private Bit  scanValid;                                                                                               // Output port showing that the scan ports hold a key, data pair
+
+  private void scanPorts()                                                                                              // Declare the scan output ports once for the tree when the first scan is built so that each port is declared exactly once whatever the number of scans
+   {if (scanKey != null) return;
+    scanKey   = new Int("scanKey");   scanKey  .out = true;
+    scanData  = new Int("scanData");  scanData .out = true;
+    scanValid = new Bit("scanValid"); scanValid.out = true;
+   }
+
+  class Scan                                                                                                            // Scan the keys in a range in order presenting each key, data pair to process() and on the scan outputs of the generated module
+   {Scan(Int Lo, Int Hi)
+     {scanPorts();
+      final Cursor c = new Cursor(Lo, Hi);
+      new If (c.valid)
+       {void Then()
+         {new For(numberOfNodes * maxLeafSize)                                                                          // Each key in the range
+           {void body(Int Index, Bit Continue)
+             {scanKey.set(c.key); scanData.set(c.data); scanValid.set();                                                // Present the pair on the output ports
+              process(c.key, c.data);
+              c.next();
+              Continue.set(c.valid);
+             }
+           };
+         }
+       };
+      scanValid.clear();                                                                                                // The scan is complete
+     }
+
+    void process(Int Key, Int Data) {}                                                                                  // Override to process each key, data pair in the range
+   }
+
+  Iterable<int[]> iterate(int Lo, int Hi)                                                                               // Iterate in immediate mode over the key, data pairs whose keys lie in the specified range
+   {if (!immediate()) stop("Java iteration is only available in immediate mode");
+    return () -> new Iterator<int[]>()
+     {final Cursor c = new Cursor(new Int(Lo), new Int(Hi));
+      public boolean hasNext() {return c.valid.b();}
+      public int[]   next()
+       {if (!hasNext()) throw new NoSuchElementException("No more keys in the range");
+        final int[]r = {c.key.i(), c.data.i()}; c.next(); return r;
+       }
+     };
+   }
+
 //D2 Print                                                                                                              // Print the tree horizontally
 
   final class Print                                                                                                     // Print the tree
@@ -1805,6 +2212,341 @@ Leaf           size:   4, count:   2
               test_find(false);
    }
 
+  static void test_findLeaf(boolean Ex)                                                                                 // Each find leaf keeps its own results
+   {sayCurrentTestName();
+    final int  N = 32;
+    final Tree t = new Tree(new Build().maxLeafSize(4).maxBranchSize(3).numberOfNodes(N).immediate(Ex)
+      .program(new Program.Build().callRoutines(true)));                                                                // The results of a routine are shared by its callers
+    t.new ForCount(t.new Int(1), t.new Int(N+1))
+     {void body(Int Index)
+       {t.insert(Index, Index.Mul(11));
+       }
+     };
+    t.new ForCount(t.new Int(1), t.new Int(N+1))
+     {void body(Int Index)
+       {final FindLeaf a = t.findLeaf(Index);                                                                           // Still outstanding when the next find is made
+        final FindLeaf b = t.findLeaf(t.new Int(N));
+        final FindLeaf c = t.findLeaf(Index);
+        a.key.ok(Index); a.valid.ok(true); a.leaf.ok(c.leaf);
+        b.key.ok(N);     b.valid.ok(true);
+       }
+     };
+    t.maxSteps(9_999_999);
+    t.execute();
+   }
+
+  static void test_findLeaf()
+   {          test_findLeaf(true);
+              test_findLeaf(false);
+   }
+
+
+  static Tree test_load(boolean Ex, int N, int Fill)                                                                   // Load a tree with keys in ascending order
+   {final Tree t = new Tree(new Build().maxLeafSize(4).maxBranchSize(3).numberOfNodes(max(32, N / 2)).immediate(Ex));
+    t.new Load(t.new Int(N), Fill)
+     {void next(Int Index, Int Key, Int Data)
+       {Key.set(Index.Inc().mul(2));                                                                                    // Even keys so that odd keys can be inserted between them
+        Data.set(Key.Mul(11));
+       }
+     };
+    return t;
+   }
+
+  static void test_load(boolean Ex)
+   {sayCurrentTestName();
+    final Tree t = test_load(Ex, 32, 100);
+    t.check(t.dump(), """
+                                                             32                                                                 |
+                                                             (0)                                                                |
+                                                             [9,2]                                                              |
+       8                 16                24                                40               48               56               |
+       (9,0,2)           (9,0,2)           (9,0,2)                           (10,0)           (10,0)           (10,0)           |
+       [1,0]             [2,2]             [3,4]                             [5,0]            [6,2]            [7,4]            |
+2,4,6,8       10,12,14,16       18,20,22,24       26,28,30,32     34,36,38,40      42,44,46,48      50,52,54,56      58,60,62,64|
+(1,9,0)       (2,9,2)           (3,9,4)           (4,9)           (5,10,0)         (6,10,2)         (7,10,4)         (8,10)     |
+""");
+    t.new ForCount(t.new Int(1), t.new Int(66))                                                                          // Every loaded key can be found and no other key
+     {void body(Int Index)
+       {final Bint d = t.find(Index);
+        t.new If (Index.Mod(2).eq(0))
+         {void Then() {d.ok(Index.Mul(11));}
+          void Else() {d.ok(false);}
+         };
+       }
+     };
+    t.new ForCount(t.new Int(0), t.new Int(8)) {void body(Int Index) {t.insert(Index.Mul(8).inc(), Index);}};           // The loaded tree accepts further keys
+    t.count().ok(40);
+    t.check(t.dump(), """
+                                                        16                                                     32                                                           48                                                      |
+                                                        (0)                                                    (0)                                                          (0)                                                     |
+                                                        [11,1]                                                 [9,4]                                                        [16,5]                                                  |
+         5               8                13                          21            24             29                        37              40               45                           53            56             61          |
+         (11,0,1)        (11,0,1)         (11,0,1)                    (9,0,4)       (9,0,4)        (9,0,4)                   (16,0,5)        (16,0,5)         (16,0,5)                     (10,0)        (10,0)         (10,0)      |
+         [12,1]          [1,4]            [13,5]                      [14,1]        [3,4]          [15,5]                    [17,1]          [5,4]            [18,5]                       [19,1]        [7,4]          [20,5]      |
+1,2,4            6,8             9,10,12          14,16       17,18,20       22,24         25,26,28       30,32     33,34,36         38,40           41,42,44         46,48       49,50,52       54,56         57,58,60       62,64 |
+(12,11,1)        (1,11,4)        (13,11,5)        (2,11)      (14,9,1)       (3,9,4)       (15,9,5)       (4,9)     (17,16,1)        (5,16,4)        (18,16,5)        (6,16)      (19,10,1)      (7,10,4)      (20,10,5)      (8,10)|
+""");
+    t.maxSteps(9_999_999);
+    t.execute();
+
+    final Tree s = test_load(Ex, 3, 100);                                                                               // Few enough keys to fit in the root leaf
+    s.check(s.dump(), """
+2,4,6|
+""");
+    s.maxSteps(999_999);
+    s.execute();
+
+    final Tree h = test_load(Ex, 10, 50);                                                                               // Half full leaves and branches
+    h.check(h.dump(), """
+                   8                                 |
+                   (0)                               |
+                   [6,2]                             |
+       4                       12          16        |
+       (6,0,2)                 (7,0)       (7,0)     |
+       [1,2]                   [3,1]       [4,4]     |
+2,4           6,8       10,12       14,16       18,20|
+(1,6,2)       (2,6)     (3,7,1)     (4,7,4)     (5,7)|
+""");
+    h.maxSteps(999_999);
+    h.execute();
+   }
+
+  static void test_load()
+   {          test_load(true);
+              test_load(false);
+   }
+
+  static void test_loadSteps()                                                                                          // Loading keys in ascending order takes far fewer steps than inserting them one at a time
+   {sayCurrentTestName();
+    final int  N = 32;
+    final Tree l = test_load(false, N, 100);
+    l.maxSteps(9_999_999);
+    l.execute();
+
+    final Tree i = new Tree(new Build().maxLeafSize(4).maxBranchSize(3).numberOfNodes(32).immediate(false));
+    i.new ForCount(i.new Int(1), i.new Int(N+1)) {void body(Int Index) {i.insert(Index.Mul(2), Index.Mul(22));}};
+    i.maxSteps(9_999_999);
+    i.execute();
+    say("Steps to load", N, "keys:", l.steps, "to insert them:", i.steps);
+    ok(l.steps * 4 < i.steps);
+   }
+
+  static void test_scan(Tree T, int Lo, int Hi, StringBuilder S)                                                       // Scan a range of keys in the tree appending the key, data pairs found to the supplied string
+   {T.new Scan(T.new Int(Lo), T.new Int(Hi))
+     {void process(Int Key, Int Data)
+       {T.new I() {void a() {S.append(Key.i()+"="+Data.i()+" ");} int traces() {return 0;}};
+       }
+     };
+    T.new I() {void a() {S.append("|\n");} int traces() {return 0;}};
+   }
+
+  static void test_scan(boolean Ex)
+   {sayCurrentTestName();
+    final Tree t = test_load(Ex, 32, 100);                                                                              // Even keys from 2 to 64
+    final StringBuilder s = new StringBuilder();
+    t.new I() {void a() {s.setLength(0);} int traces() {return 0;}};                                                    // The verifying engines execute the code twice
+    for (int[]r : new int[][]{{5, 13}, {0, 3}, {60, 99}, {65, 99}, {9, 8}, {23, 41}}) test_scan(t, r[0], r[1], s);
+    t.maxSteps(9_999_999);
+    t.execute();
+    ok(""+s, """
+6=66 8=88 10=110 12=132 |
+2=22 |
+60=660 62=682 64=704 |
+|
+|
+24=264 26=286 28=308 30=330 32=352 34=374 36=396 38=418 40=440 |
+""");
+    if (!Ex)                                                                                                            // The six scans share one set of output ports
+     {final StringBuilder p = new StringBuilder();
+      for (String l : readFileAsString(t.verilogTestFolder.v$()).split("\n")) if (l.matches("  (in|out)put .* [io]_\\w+[,)].*")) p.append(l.replaceAll("\\s*//.*", "")+"\n");
+      ok(""+p, """
+  output reg [31:0] o_scanKey,
+  output reg [31:0] o_scanData,
+  output reg        o_scanValid,
+  output reg[31:0] o_pc);
+""");
+     }
+
+    final Tree l = test_load(Ex, 3, 100);                                                                               // A tree consisting of the root leaf
+    l.new I() {void a() {s.setLength(0);} int traces() {return 0;}};
+    test_scan(l, 3, 10, s);
+    l.maxSteps(999_999);
+    l.execute();
+    ok(""+s, "4=44 6=66 |\n");
+   }
+
+  static void test_scan()
+   {          test_scan(true);
+              test_scan(false);
+
+    final Tree t = new Tree(new Build().maxLeafSize(4).maxBranchSize(3).numberOfNodes(32));                              // Iterate in Java over a tree built by insertion in random order
+    for (int i : random_32) t.insert(t.new Int(i), t.new Int(i*3));
+    for (int i = 5; i <= 32; i += 5) t.delete(t.new Int(i));                                                            // Delete some keys
+    final StringBuilder s = new StringBuilder();
+    for (int[]p : t.iterate(8, 21)) s.append(p[0]+"="+p[1]+" ");
+    ok(""+s, "8=24 9=27 11=33 12=36 13=39 14=42 16=48 17=51 18=54 19=57 21=63 ");
+
+    final Iterator<int[]> i = t.iterate(9, 10).iterator();                                                              // Only one key lies in this range
+    ok(i.next()[0], 9);
+    ok(!i.hasNext());
+    boolean thrown = false;
+    try {i.next();} catch (NoSuchElementException e) {thrown = true;}                                                   // An exhausted iterator does not return stale data
+    ok(thrown);
+   }
+
+  static int test_scanSteps(int Mode)                                                                                  // Steps taken to load a tree and then either do nothing, scan a few keys or traverse the whole tree
+   {final Tree t = test_load(false, 256, 100);
+    if (Mode == 1) test_scan(t, 31, 38, new StringBuilder());
+    if (Mode == 2) t.new Traverse();
+    t.maxSteps(99_999_999);
+    t.execute();
+    return t.steps;
+   }
+
+  static void test_scanSteps()                                                                                          // A range scan costs a descent plus a step per key rather than a visit to every node
+   {sayCurrentTestName();
+    final int l = test_scanSteps(0), s = test_scanSteps(1) - l, t = test_scanSteps(2) - l;
+    say("Steps to scan 4 keys:", s, "to traverse the tree:", t);
+    ok(s * 4 < t);
+   }
+
+  static Tree test_links(boolean Ex, boolean Links)                                                                     // Insert keys in random order then delete every third key to split and merge leaves
+   {final int  N = random_32.length;
+    final Tree t = new Tree(new Build().maxLeafSize(4).maxBranchSize(3).numberOfNodes(N).links(Links).immediate(Ex));
+    final VerilogArrays.Array a = t.verilogArrays().new Array("loadRandomKeys", random_32);                             // Create an array of the random keys to be inserted so that the array is accessible from Verilog
+
+    t.new ForCount(t.new Int(N))
+     {void body(Int Index)
+       {final Int k = t.new Int("Key", 0);
+        Index.S();                                                                                                      // Load index of item we want
+        t.new I()
+         {void        a() {       t.intMemory(). writeInt        =     random_32[Index.i()];}
+          String      v() {return t.intMemory().vWriteInt() + " <= "+a.dataRegisterName()+";";}                           // Translate index into key
+          boolean trace() {return false;}
+         };
+        k.W();                                                                                                          // Write key into variable
+        t.insert(k, k.Mul(3));
+       }
+     };
+
+    t.new ForCount(t.new Int(1), t.new Int(N / 3 + 1))                                                                  // Delete every third key
+     {void body(Int Index)
+       {t.delete(Index.Mul(3));
+       }
+     };
+    return t;
+   }
+
+  static Tree test_linksLoad(boolean Ex, int N)                                                                         // Load a tree whose leaves are linked with keys in ascending order
+   {final Tree t = new Tree(new Build().maxLeafSize(4).maxBranchSize(3).numberOfNodes(32).links(true).immediate(Ex));
+    t.new Load(t.new Int(N))
+     {void next(Int Index, Int Key, Int Data)
+       {Key.set(Index.Inc().mul(2));
+        Data.set(Key.Mul(11));
+       }
+     };
+    return t;
+   }
+
+  static String test_linksWalk(Tree T)                                                                                  // Walk the sibling links from the first leaf checking that each leaf links back to the leaf before it and return the keys in each leaf
+   {int n = 0;
+    while (T.isBranch(T.new Int(n)).b())                                                                                // Descend through first children to the first leaf
+     {final Branch b = T.branch(T.new Int(n));
+      final Bint   f = b.slots.locateFirstUsedSlot();
+      n = f.valid().b() ? b.data(b.slots.getSlotToKeyIndex(f.i())).i() : b.top().i();
+     }
+    final StringBuilder s = new StringBuilder();
+    for (int p = 0; n != 0; p = n, n = T.leaf(T.new Int(n)).next().i())
+     {final Leaf l = T.leaf(T.new Int(n));
+      ok(l.prev().i(), p);                                                                                              // Each leaf links back to the leaf before it
+      s.append(n+":");
+      for (int i : range(l.slots.numberOfSlotsToKeys()))
+       {if (l.slots.getSlotToKeysInUse(i)) s.append(" "+l.slots.getSlotToKeyValue(i));
+       }
+      s.append("\n");
+     }
+    return ""+s;
+   }
+
+  static void test_links(boolean Ex)
+   {sayCurrentTestName();
+    final Tree t = test_links(Ex, true);
+    final StringBuilder s = new StringBuilder();
+    t.new I() {void a() {s.setLength(0);} int traces() {return 0;}};                                                    // The verifying engines execute the code twice
+    test_scan(t, 0, 99, s);                                                                                             // Each leaf is reached through the link in the leaf before it
+    test_scan(t, 13, 20, s);
+    t.maxSteps(9_999_999);
+    t.execute();
+    ok(""+s, """
+1=3 2=6 4=12 5=15 7=21 8=24 10=30 11=33 13=39 14=42 16=48 17=51 19=57 20=60 22=66 23=69 25=75 26=78 28=84 29=87 31=93 32=96 |
+13=39 14=42 16=48 17=51 19=57 20=60 |
+""");
+
+    final Tree l = test_linksLoad(Ex, 19);                                                                              // Loading links the leaves too
+    l.new I() {void a() {s.setLength(0);} int traces() {return 0;}};
+    test_scan(l, 7, 19, s);
+    l.maxSteps(9_999_999);
+    l.execute();
+    ok(""+s, "8=88 10=110 12=132 14=154 16=176 18=198 |\n");
+   }
+
+  static void test_links()
+   {          test_links(true);
+              test_links(false);
+
+    ok(test_linksWalk(test_links(true, true)), """
+14: 1 2 4
+1: 5 7
+9: 8 10 11
+4: 13 14
+3: 16 17 19 20
+7: 22 23 25 26
+2: 28 29 31 32
+""");
+    ok(test_linksWalk(test_linksLoad(true, 19)), """
+1: 2 4 6
+2: 8 10 12 14
+3: 16 18 20 22
+4: 24 26 28 30
+5: 32 34 36 38
+""");
+   }
+
+  static int test_linkSteps(boolean Links, boolean Scan)                                                                // Steps taken to build a tree with or without links and optionally scan all of its keys
+   {final Tree t = test_links(false, Links);
+    if (Scan) test_scan(t, 0, 99, new StringBuilder());
+    t.maxSteps(9_999_999);
+    t.execute();
+    return t.steps;
+   }
+
+  static void test_linkSteps()                                                                                          // Maintaining the links costs a few steps on each split and merge but saves climbing the tree at each leaf boundary during a scan
+   {sayCurrentTestName();
+    final int b = test_linkSteps(false, false), B = test_linkSteps(false, true) - b;
+    final int l = test_linkSteps(true,  false), L = test_linkSteps(true,  true) - l;
+    say("Steps to insert and delete without links:", b, "with links:", l, "to scan without links:", B, "with links:", L);
+    ok(l > b);
+    ok(L < B);
+   }
+
+  static void test_latency()                                                                                            // Cycles taken by each call of the tree operations
+   {sayCurrentTestName();
+    final int  N = 32;
+    final Tree t = new Tree(new Build().maxLeafSize(4).maxBranchSize(3).numberOfNodes(N).immediate(false));
+    t.latency(true);
+    t.new ForCount(t.new Int(1), t.new Int(N+1)) {void body(Int Index) {t.insert(Index, Index.Mul(11));}};
+    t.new ForCount(t.new Int(1), t.new Int(N+1)) {void body(Int Index) {t.find(Index).ok(Index.Mul(11));}};
+    t.maxSteps(9_999_999);
+    t.execute();
+
+    ok(t.javaLatency.get("Tree.insert").count, (long)N);
+    ok(t.javaLatency.get("Tree.find")  .count, (long)N);
+    for (String o : new String[]{"Leaf.insert", "Branch.stepDown", "Slots.find", "Slots.Find.insert"})
+     {final Program.Histogram h = t.javaLatency.get(o);
+      ok(h.count > 0 && h.percentile(50) <= h.percentile(99) && h.percentile(99) <= h.max);
+     }
+    say(t.latencyReport());
+   }
 
   static void oldTests()                                                                                                // Tests thought to be in good shape
    {if (rtg( 1)) test_tree();
@@ -1818,6 +2560,14 @@ Leaf           size:   4, count:   2
     if (rtg( 9)) test_deleteRandom32();
     if (rtg(10)) test_update();
     if (rtg(11)) test_find();
+    if (rtg(12)) test_latency();
+    if (rtg(13)) test_load();
+    if (rtg(14)) test_loadSteps();
+    if (rtg(15)) test_scan();
+    if (rtg(16)) test_scanSteps();
+    if (rtg(17)) test_links();
+    if (rtg(18)) test_linkSteps();
+    if (rtg(19)) test_findLeaf();
    }
 
   static void newTests()                                                                                                // Tests being worked on